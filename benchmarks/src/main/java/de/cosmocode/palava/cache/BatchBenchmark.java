@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link EhCacheService#readAll(java.util.Collection)} against looping over
+ * {@link EhCacheService#read(Serializable)}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    @Param({"100"})
+    public int batchSize;
+    
+    private List<Serializable> batch;
+    
+    @Setup
+    public void setUp(CacheState cache, KeyState keys) {
+        final Serializable[] array = new Serializable[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            array[i] = keys.next();
+        }
+        batch = Arrays.asList(array);
+    }
+    
+    @Benchmark
+    public Map<Serializable, Object> readAll(CacheState cache) {
+        return cache.service.readAll(batch);
+    }
+    
+    @Benchmark
+    public void readLoop(CacheState cache, Blackhole blackhole) {
+        for (Serializable key : batch) {
+            blackhole.consume(cache.service.read(key));
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, doubling from 1 up to the
+ * number of available processors. All regular JMH command line options are supported.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+        
+    }
+    
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args JMH command line options
+     * @throws RunnerException if a benchmark failed
+     * @throws CommandLineOptionException if the given options are invalid
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        final CommandLineOptions parent = new CommandLineOptions(args);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads <<= 1) {
+            final Options options = new OptionsBuilder().parent(parent).threads(threads).build();
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shared benchmark state holding a configured and pre-filled {@link EhCacheService}.
+ * The parameters map to the options of {@link EhCacheServiceConfig}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+public class CacheState {
+
+    static final String VALUE = "a value which is a little bit longer than a single word";
+    
+    @Param({"LRU", "LFU", "FIFO"})
+    public CacheMode cacheMode;
+    
+    @Param({"false", "true"})
+    public boolean overflowToDisk;
+    
+    @Param({"true"})
+    public boolean metricsEnabled;
+    
+    @Param({"100000"})
+    public int keySpace;
+    
+    /**
+     * Fraction of the key space which fits into memory.
+     */
+    @Param({"0.5"})
+    public double memoryRatio;
+    
+    EhCacheService service;
+    
+    Serializable[] keys;
+    
+    private File diskStore;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        keys = new Serializable[keySpace];
+        for (int i = 0; i < keySpace; i++) {
+            keys[i] = Integer.valueOf(i);
+        }
+        
+        service = new EhCacheService("benchmark-" + System.nanoTime());
+        service.setMemoryStoreEvictionPolicy(cacheMode);
+        service.setMaxElementsInMemory((int) (keySpace * memoryRatio));
+        service.setOverflowToDisk(overflowToDisk);
+        service.setMetricsEnabled(metricsEnabled);
+        if (overflowToDisk) {
+            diskStore = File.createTempFile("ehcache", "benchmark");
+            diskStore.delete();
+            diskStore.mkdirs();
+            service.setDiskStorePath(diskStore.getAbsolutePath());
+            service.setMaxElementsOnDisk(0);
+        }
+        service.setTimeToLive(1);
+        service.setTimeToLiveUnit(TimeUnit.HOURS);
+        service.setTimeToIdle(1);
+        service.setTimeToIdleUnit(TimeUnit.HOURS);
+        service.initialize();
+        
+        fill();
+    }
+    
+    void fill() {
+        for (Serializable key : keys) {
+            service.store(key, VALUE);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.dispose();
+        if (diskStore != null) {
+            final File[] files = diskStore.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            diskStore.delete();
+        }
+    }
+
+}
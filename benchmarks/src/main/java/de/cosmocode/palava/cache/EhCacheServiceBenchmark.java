@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the single key operations of the {@link EhCacheService}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EhCacheServiceBenchmark {
+
+    @Benchmark
+    public Object read(CacheState cache, KeyState keys) {
+        return cache.service.read(keys.next());
+    }
+    
+    @Benchmark
+    public void store(CacheState cache, KeyState keys) {
+        cache.service.store(keys.next(), CacheState.VALUE);
+    }
+    
+    /**
+     * Removes a key and stores it again, so the key space does not drain.
+     * Subtract {@link #store(CacheState, KeyState)} to get the cost of remove alone.
+     * 
+     * @param cache the cache state
+     * @param keys the key state
+     * @return the removed value
+     */
+    @Benchmark
+    public Object removeAndStore(CacheState cache, KeyState keys) {
+        final Serializable key = keys.next();
+        final Object value = cache.service.remove(key);
+        cache.service.store(key, CacheState.VALUE);
+        return value;
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a trace of a skewed working set which is interrupted by scans over
+ * keys that are never requested again, and reports hits and misses per eviction policy.
+ * A miss stores the key, like a read-through cache would. The hit ratio of the
+ * whole trial is printed on tear down.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class HitRatioBenchmark {
+
+    @Benchmark
+    public void replay(Trace trace, Counters counters) {
+        final Serializable key = trace.next();
+        if (trace.service.read(key) == null) {
+            counters.misses++;
+            trace.service.store(key, CacheState.VALUE);
+        } else {
+            counters.hits++;
+        }
+    }
+    
+    /**
+     * The trace and the cache under test.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Benchmark)
+    public static class Trace {
+        
+        @Param({"LRU", "LFU", "TINY_LFU"})
+        public EvictionPolicy policy;
+        
+        @Param({"100000"})
+        public int keySpace;
+        
+        @Param({"0.05"})
+        public double memoryRatio;
+        
+        /**
+         * Number of skewed reads between two scans.
+         */
+        @Param({"50000"})
+        public int scanInterval;
+        
+        /**
+         * Number of distinct, never repeated keys per scan.
+         */
+        @Param({"20000"})
+        public int scanLength;
+        
+        EhCacheService service;
+        
+        private KeyDistribution.KeyGenerator generator;
+        
+        private int position;
+        
+        private long nextScanKey;
+        
+        @Setup(Level.Trial)
+        public void setUp() {
+            generator = KeyDistribution.ZIPFIAN.create(keySpace, new Random(42L).nextLong());
+            service = new EhCacheService("hit-ratio-" + System.nanoTime());
+            service.setEvictionPolicy(policy);
+            service.setMaxElementsInMemory((int) (keySpace * memoryRatio));
+            service.setTimeToLive(1);
+            service.setTimeToLiveUnit(TimeUnit.HOURS);
+            service.setTimeToIdle(1);
+            service.setTimeToIdleUnit(TimeUnit.HOURS);
+            service.initialize();
+            nextScanKey = keySpace;
+        }
+        
+        Serializable next() {
+            position++;
+            if (position > scanInterval) {
+                if (position == scanInterval + scanLength) {
+                    position = 0;
+                }
+                // scanned keys are never requested again
+                return Long.valueOf(nextScanKey++);
+            } else {
+                return Long.valueOf(generator.next());
+            }
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.out.printf("%n%s hit ratio: %.4f%n", policy, service.getMetrics().getHitRatio());
+            service.dispose();
+        }
+        
+    }
+    
+    /**
+     * Hits and misses, reported as secondary results.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        
+        public long hits;
+        
+        public long misses;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+        
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Random;
+
+/**
+ * Key distributions used to drive the benchmarks.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public enum KeyDistribution {
+
+    /**
+     * Every key is equally likely.
+     */
+    UNIFORM {
+        
+        @Override
+        KeyGenerator create(final int keySpace, long seed) {
+            final Random random = new Random(seed);
+            return new KeyGenerator() {
+                
+                @Override
+                public int next() {
+                    return random.nextInt(keySpace);
+                }
+                
+            };
+        }
+        
+    },
+    
+    /**
+     * A few keys are very hot, the majority is rarely accessed (skew 0.99, as in YCSB).
+     */
+    ZIPFIAN {
+        
+        @Override
+        KeyGenerator create(int keySpace, long seed) {
+            return new ZipfianGenerator(keySpace, 0.99, new Random(seed));
+        }
+        
+    };
+    
+    /**
+     * Creates a new, not thread-safe, generator for this distribution.
+     * 
+     * @param keySpace the number of distinct keys
+     * @param seed the random seed
+     * @return a new generator producing keys between 0 (inclusive) and keySpace (exclusive)
+     */
+    abstract KeyGenerator create(int keySpace, long seed);
+    
+    /**
+     * Produces key indices.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    interface KeyGenerator {
+        
+        /**
+         * Produces the next key index.
+         * 
+         * @return the next key index
+         */
+        int next();
+        
+    }
+    
+    /**
+     * Zipfian generator following Gray et al., "Quickly Generating Billion-Record Synthetic Databases".
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class ZipfianGenerator implements KeyGenerator {
+        
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random random;
+        
+        ZipfianGenerator(int items, double theta, Random random) {
+            this.items = items;
+            this.theta = theta;
+            this.random = random;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(items, theta);
+            final double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+        
+        private static double zeta(int n, double theta) {
+            double sum = 0.0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1.0 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+        
+        @Override
+        public int next() {
+            final double u = random.nextDouble();
+            final double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            } else {
+                return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+            }
+        }
+        
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Per-thread benchmark state which produces keys according to the configured {@link KeyDistribution}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@State(Scope.Thread)
+public class KeyState {
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+    
+    private KeyDistribution.KeyGenerator generator;
+    
+    private Serializable[] keys;
+    
+    @Setup
+    public void setUp(CacheState state, ThreadParams params) {
+        keys = state.keys;
+        generator = distribution.create(keys.length, 42L + params.getThreadIndex());
+    }
+    
+    Serializable next() {
+        return keys[generator.next()];
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Latency of reads and stores of numeric ids, boxed into the {@link EhCacheService}
+ * against unboxed into the {@link PrimitiveLongCacheService}. Run with -prof gc to
+ * compare the allocation rate per operation.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongCacheBenchmark {
+
+    @Benchmark
+    public Object readBoxed(Caches caches, Ids ids) {
+        return caches.boxed.read(Long.valueOf(ids.next()));
+    }
+    
+    @Benchmark
+    public Object readPrimitive(Caches caches, Ids ids) {
+        return caches.primitive.read(ids.next());
+    }
+    
+    @Benchmark
+    public void storeBoxed(Caches caches, Ids ids) {
+        caches.boxed.store(Long.valueOf(ids.next()), CacheState.VALUE);
+    }
+    
+    @Benchmark
+    public void storePrimitive(Caches caches, Ids ids) {
+        caches.primitive.store(ids.next(), CacheState.VALUE);
+    }
+    
+    /**
+     * Both caches, configured alike and filled with the same ids.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Benchmark)
+    public static class Caches {
+        
+        // ids beyond the range of the Long cache, like real database ids
+        static final long FIRST_ID = 1000000L;
+        
+        @Param({"LRU"})
+        public CacheMode cacheMode;
+        
+        @Param({"100000"})
+        public int keySpace;
+        
+        /**
+         * Fraction of the key space which fits into memory.
+         */
+        @Param({"1.0", "0.5"})
+        public double memoryRatio;
+        
+        EhCacheService boxed;
+        
+        PrimitiveLongCacheService primitive;
+        
+        @Setup(Level.Trial)
+        public void setUp() {
+            final int maxElementsInMemory = (int) (keySpace * memoryRatio);
+            
+            boxed = new EhCacheService("long-boxed-" + System.nanoTime());
+            boxed.setMemoryStoreEvictionPolicy(cacheMode);
+            boxed.setMaxElementsInMemory(maxElementsInMemory);
+            boxed.setTimeToLive(1);
+            boxed.setTimeToLiveUnit(TimeUnit.HOURS);
+            boxed.setTimeToIdle(1);
+            boxed.setTimeToIdleUnit(TimeUnit.HOURS);
+            boxed.initialize();
+            
+            primitive = new PrimitiveLongCacheService("long-primitive");
+            primitive.setMemoryStoreEvictionPolicy(cacheMode);
+            primitive.setMaxElementsInMemory(maxElementsInMemory);
+            primitive.setTimeToLive(1);
+            primitive.setTimeToLiveUnit(TimeUnit.HOURS);
+            primitive.setTimeToIdle(1);
+            primitive.setTimeToIdleUnit(TimeUnit.HOURS);
+            primitive.initialize();
+            
+            for (long id = FIRST_ID; id < FIRST_ID + keySpace; id++) {
+                boxed.store(Long.valueOf(id), CacheState.VALUE);
+                primitive.store(id, CacheState.VALUE);
+            }
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            boxed.dispose();
+        }
+        
+    }
+    
+    /**
+     * Produces ids according to the configured {@link KeyDistribution}.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Thread)
+    public static class Ids {
+        
+        @Param({"UNIFORM", "ZIPFIAN"})
+        public KeyDistribution distribution;
+        
+        private KeyDistribution.KeyGenerator generator;
+        
+        @Setup
+        public void setUp(Caches caches, ThreadParams params) {
+            generator = distribution.create(caches.keySpace, 42L + params.getThreadIndex());
+        }
+        
+        long next() {
+            return Caches.FIRST_ID + generator.next();
+        }
+        
+    }
+
+}
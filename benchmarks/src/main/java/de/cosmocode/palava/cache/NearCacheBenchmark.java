@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Read throughput of a handful of extremely hot keys with and without the near cache.
+ * Run through {@link Benchmarks} to see how throughput scales with the number of threads.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearCacheBenchmark {
+
+    @Benchmark
+    public Object readHot(HotKeys hot, Cursor cursor) {
+        return hot.service.read(hot.keys[cursor.next()]);
+    }
+    
+    /**
+     * A cache holding a few hot keys.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Benchmark)
+    public static class HotKeys {
+        
+        /**
+         * Elements per thread, 0 disables the near cache.
+         */
+        @Param({"0", "64"})
+        public int nearCacheSize;
+        
+        @Param({"16"})
+        public int hotKeys;
+        
+        EhCacheService service;
+        
+        Serializable[] keys;
+        
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = new EhCacheService("near-cache-" + System.nanoTime());
+            service.setNearCacheSize(nearCacheSize);
+            service.setTimeToLive(1);
+            service.setTimeToLiveUnit(TimeUnit.HOURS);
+            service.setTimeToIdle(0);
+            service.initialize();
+            keys = new Serializable[hotKeys];
+            for (int i = 0; i < hotKeys; i++) {
+                keys[i] = "flag-" + i;
+                service.store(keys[i], CacheState.VALUE);
+            }
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            service.dispose();
+        }
+        
+    }
+    
+    /**
+     * Cycles through the hot keys, starting at a different key per thread.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        
+        private int position;
+        
+        private int mask;
+        
+        @Setup
+        public void setUp(HotKeys hot, ThreadParams params) {
+            mask = Integer.highestOneBit(hot.hotKeys) - 1;
+            position = params.getThreadIndex();
+        }
+        
+        int next() {
+            return position++ & mask;
+        }
+        
+    }
+
+}
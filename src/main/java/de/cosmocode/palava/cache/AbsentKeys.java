@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Remembers keys which are known to have no value without storing an entry per key.
+ * Keys are added to the current of two {@link BloomFilter}s. Once the current filter is full
+ * or older than half the time to live, it becomes the previous one and the oldest filter
+ * is cleared, so the filter is rebuilt incrementally and forgets keys after at most
+ * the time to live.
+ * <p>
+ *   Bloom filters can't remove single keys. Storing a value for a key which might be
+ *   contained clears both filters instead, so no stored value is ever reported as absent.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class AbsentKeys {
+
+    private final int expectedInsertions;
+    
+    private final long rotation;
+    
+    private volatile BloomFilter current;
+    
+    private volatile BloomFilter previous;
+    
+    private final AtomicInteger insertions = new AtomicInteger();
+    
+    private volatile long rotatedAt;
+    
+    /**
+     * Creates a new instance.
+     * 
+     * @param expectedInsertions the number of keys per filter
+     * @param fpp the false positive probability of a full filter
+     * @param timeToLive how long keys are remembered at most
+     * @param timeToLiveUnit the unit of timeToLive
+     */
+    AbsentKeys(int expectedInsertions, double fpp, long timeToLive, TimeUnit timeToLiveUnit) {
+        Preconditions.checkArgument(timeToLive > 0, "Time to live must be positive, but was %s", timeToLive);
+        this.expectedInsertions = expectedInsertions;
+        this.rotation = Math.max(1L, timeToLiveUnit.toNanos(timeToLive) / 2);
+        this.current = new BloomFilter(expectedInsertions, fpp);
+        this.previous = new BloomFilter(expectedInsertions, fpp);
+        this.rotatedAt = System.nanoTime();
+    }
+    
+    /**
+     * Remembers that the given key has no value.
+     * 
+     * @param key the key
+     */
+    void add(Object key) {
+        rotateIfDue();
+        if (current.put(key)) {
+            insertions.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Checks whether the given key might have no value.
+     * 
+     * @param key the key
+     * @return false if nothing is known about key, true if it is most likely absent
+     */
+    boolean mightContain(Object key) {
+        rotateIfDue();
+        return current.mightContain(key) || previous.mightContain(key);
+    }
+    
+    /**
+     * Forgets about the given key, because a value has been stored for it.
+     * 
+     * @param key the key
+     */
+    void forget(Object key) {
+        if (current.mightContain(key) || previous.mightContain(key)) {
+            clear();
+        }
+    }
+    
+    /**
+     * Forgets about all keys.
+     */
+    synchronized void clear() {
+        current.clear();
+        previous.clear();
+        insertions.set(0);
+        rotatedAt = System.nanoTime();
+    }
+    
+    private void rotateIfDue() {
+        if (isDue()) {
+            synchronized (this) {
+                if (isDue()) {
+                    final BloomFilter oldest = previous;
+                    oldest.clear();
+                    previous = current;
+                    current = oldest;
+                    insertions.set(0);
+                    rotatedAt = System.nanoTime();
+                }
+            }
+        }
+    }
+    
+    private boolean isDue() {
+        return insertions.get() >= expectedInsertions || System.nanoTime() - rotatedAt >= rotation;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, rotation=%sms]", AbsentKeys.class.getSimpleName(), current,
+            TimeUnit.NANOSECONDS.toMillis(rotation));
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Base class for {@link InvalidationTransport}s which opens the transport
+ * once the first receiver is added and closes it once the last one is removed.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+abstract class AbstractInvalidationTransport implements InvalidationTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractInvalidationTransport.class);
+    
+    private final List<Receiver> receivers = new CopyOnWriteArrayList<Receiver>();
+    
+    @Override
+    public final synchronized void addReceiver(Receiver receiver) throws IOException {
+        Preconditions.checkNotNull(receiver, "Receiver");
+        if (receivers.isEmpty()) {
+            open();
+            LOG.info("Opened {}", this);
+        }
+        receivers.add(receiver);
+    }
+    
+    @Override
+    public final synchronized void removeReceiver(Receiver receiver) {
+        if (receivers.remove(receiver) && receivers.isEmpty()) {
+            close();
+            LOG.info("Closed {}", this);
+        }
+    }
+    
+    /**
+     * Hands the given message to all receivers.
+     * 
+     * @param message the received message
+     */
+    protected final void deliver(byte[] message) {
+        for (Receiver receiver : receivers) {
+            try {
+                receiver.receive(message);
+            } catch (RuntimeException e) {
+                LOG.warn("Receiver {} of {} failed: {}", new Object[] {
+                    receiver, this, e.getMessage()
+                });
+            }
+        }
+    }
+    
+    /**
+     * Opens this transport.
+     * 
+     * @throws IOException if opening failed
+     */
+    protected abstract void open() throws IOException;
+    
+    /**
+     * Closes this transport. Called while holding the lock of this transport.
+     */
+    protected abstract void close();
+
+}
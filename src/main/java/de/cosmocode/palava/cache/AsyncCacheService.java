@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous counterpart of the {@link CacheService}. All operations return
+ * immediately and are executed on a dedicated executor, which keeps callers
+ * away from potentially blocking disk store access.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface AsyncCacheService {
+
+    /**
+     * Asynchronously reads the value for the given key.
+     *
+     * @see CacheService#read(Serializable)
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return a future holding the cached value or null
+     * @throws NullPointerException if key is null
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     *         and configured to reject new tasks
+     */
+    <T> Future<T> readAsync(Serializable key);
+
+    /**
+     * Asynchronously reads the value for the given key and loads it using the default loader
+     * if it is not present.
+     *
+     * @see ExtendedCacheService#load(Serializable)
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return a future holding the cached or loaded value or null
+     * @throws NullPointerException if key is null
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     *         and configured to reject new tasks
+     */
+    <T> Future<T> loadAsync(Serializable key);
+
+    /**
+     * Asynchronously stores the given value.
+     *
+     * @see CacheService#store(Serializable, Object)
+     * @param key the cache key
+     * @param value the value
+     * @return a future which completes once the value has been stored
+     * @throws NullPointerException if key is null
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     *         and configured to reject new tasks
+     */
+    Future<Void> storeAsync(Serializable key, Object value);
+
+    /**
+     * Asynchronously stores the given value using the specified max age.
+     *
+     * @see CacheService#store(Serializable, Object, long, TimeUnit)
+     * @param key the cache key
+     * @param value the value
+     * @param maxAge the max age
+     * @param maxAgeUnit the unit of maxAge
+     * @return a future which completes once the value has been stored
+     * @throws NullPointerException if key or maxAgeUnit is null
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     *         and configured to reject new tasks
+     */
+    Future<Void> storeAsync(Serializable key, Object value, long maxAge, TimeUnit maxAgeUnit);
+
+    /**
+     * Asynchronously removes the given key.
+     *
+     * @see CacheService#remove(Serializable)
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return a future holding the removed value or null
+     * @throws NullPointerException if key is null
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated
+     *         and configured to reject new tasks
+     */
+    <T> Future<T> removeAsync(Serializable key);
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread-safe bloom filter over the hash codes of keys. The number of bits and hash
+ * functions is derived from the expected number of insertions and the desired
+ * false positive probability.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    
+    private final long size;
+    
+    private final int hashes;
+    
+    /**
+     * Creates a new filter.
+     * 
+     * @param expectedInsertions the number of keys the filter is sized for
+     * @param fpp the false positive probability at the expected number of insertions
+     */
+    BloomFilter(int expectedInsertions, double fpp) {
+        Preconditions.checkArgument(expectedInsertions > 0, "Expected insertions must be positive, but was %s",
+            expectedInsertions);
+        Preconditions.checkArgument(fpp > 0.0 && fpp < 1.0, "Fpp must be between 0 and 1, but was %s", fpp);
+        final double ln2 = Math.log(2.0);
+        final long optimal = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (ln2 * ln2));
+        final int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (optimal + 63L) >>> 6));
+        this.bits = new AtomicLongArray(words);
+        this.size = (long) words << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) size / expectedInsertions * ln2));
+    }
+    
+    static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return h;
+    }
+    
+    /**
+     * Adds the given key.
+     * 
+     * @param key the key
+     * @return true if the filter changed, false if the key might have been added before
+     */
+    boolean put(Object key) {
+        final long first = mix(key.hashCode());
+        final long second = mix(first) | 1L;
+        boolean changed = false;
+        for (int i = 0; i < hashes; i++) {
+            final long index = ((first + i * second) & Long.MAX_VALUE) % size;
+            final int word = (int) (index >>> 6);
+            final long mask = 1L << index;
+            while (true) {
+                final long current = bits.get(word);
+                if ((current & mask) != 0L) {
+                    break;
+                } else if (bits.compareAndSet(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * Checks whether the given key might have been added.
+     * 
+     * @param key the key
+     * @return false if the key has definitely not been added, true if it might have been
+     */
+    boolean mightContain(Object key) {
+        final long first = mix(key.hashCode());
+        final long second = mix(first) | 1L;
+        for (int i = 0; i < hashes; i++) {
+            final long index = ((first + i * second) & Long.MAX_VALUE) % size;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Removes all keys.
+     */
+    void clear() {
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0L);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [bits=%s, hashes=%s]", BloomFilter.class.getSimpleName(), size, hashes);
+    }
+
+}
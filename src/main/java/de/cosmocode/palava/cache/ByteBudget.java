@@ -0,0 +1,194 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Tracks the estimated number of bytes held by a cache and selects eviction
+ * victims once a limit is exceeded, using the CLOCK (second chance) algorithm:
+ * entries which have been read since the hand last passed them are skipped once.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class ByteBudget {
+
+    private final long limit;
+    
+    private final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+    
+    // the ring the clock hand moves on, may contain released entries which are dropped lazily
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<Entry>();
+    
+    private final AtomicInteger queued = new AtomicInteger();
+    
+    private final AtomicLong used = new AtomicLong();
+    
+    ByteBudget(long limit) {
+        Preconditions.checkArgument(limit > 0, "Limit must be positive, but was %s", limit);
+        this.limit = limit;
+    }
+    
+    /**
+     * Records the size of an element which has been stored for the given key,
+     * replacing the size of the previous element, if any.
+     * 
+     * @param key the key
+     * @param element the stored element
+     * @param bytes the estimated size of the element
+     */
+    void record(Object key, Object element, long bytes) {
+        final Entry entry = new Entry(key, element, bytes);
+        final Entry previous = entries.put(key, entry);
+        if (previous == null) {
+            used.addAndGet(bytes);
+        } else {
+            previous.released = true;
+            used.addAndGet(bytes - previous.bytes);
+        }
+        clock.offer(entry);
+        if (queued.incrementAndGet() > 2 * entries.size() + 1024) {
+            sweep();
+        }
+    }
+    
+    private void sweep() {
+        final Iterator<Entry> iterator = clock.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().released) {
+                iterator.remove();
+                queued.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Marks the entry of the given key as recently used.
+     * 
+     * @param key the key
+     */
+    void touch(Object key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && !entry.referenced) {
+            entry.referenced = true;
+        }
+    }
+    
+    /**
+     * Releases the size of the given element, unless the key has been assigned another element in between.
+     * 
+     * @param key the key
+     * @param element the removed element
+     */
+    void release(Object key, Object element) {
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.element == element && entries.remove(key, entry)) {
+            entry.released = true;
+            used.addAndGet(-entry.bytes);
+        }
+    }
+    
+    /**
+     * Releases all entries.
+     */
+    void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry.key, entry.element);
+        }
+    }
+    
+    boolean isExceeded() {
+        return used.get() > limit;
+    }
+    
+    long getUsedBytes() {
+        return used.get();
+    }
+    
+    long getLimit() {
+        return limit;
+    }
+    
+    /**
+     * Advances the clock hand to the next entry which has not been used recently.
+     * The entry stays on the clock until it has been released.
+     * 
+     * @return the element of the victim, or null if there are no entries
+     */
+    Object nextVictim() {
+        // two rounds are enough to clear every reference bit
+        final int maxSteps = 2 * queued.get() + 1;
+        for (int step = 0; step < maxSteps; step++) {
+            final Entry entry = clock.poll();
+            if (entry == null) {
+                return null;
+            } else if (entry.released) {
+                queued.decrementAndGet();
+                continue;
+            }
+            clock.offer(entry);
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                return entry.element;
+            }
+        }
+        return null;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [limit=%s, used=%s, entries=%s]", ByteBudget.class.getSimpleName(),
+            limit, used.get(), entries.size());
+    }
+    
+    /**
+     * The recorded size of a single element.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Entry {
+        
+        private final Object key;
+        
+        private final Object element;
+        
+        private final long bytes;
+        
+        private volatile boolean referenced;
+        
+        private volatile boolean released;
+        
+        Entry(Object key, Object element, long bytes) {
+            this.key = key;
+            this.element = element;
+            this.bytes = bytes;
+        }
+        
+    }
+
+}
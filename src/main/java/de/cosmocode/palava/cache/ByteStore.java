@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+/**
+ * A secondary cache tier which holds serialized values outside of the java heap.
+ * Keys are the original cache keys, values are encoded using a {@link Codec}.
+ * Implementations must be thread-safe.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+interface ByteStore {
+
+    /**
+     * Stores the given value, replacing any existing value for key.
+     * 
+     * @param key the cache key
+     * @param value the encoded value
+     * @param expiresAt the absolute expiration time in milliseconds, {@link Long#MAX_VALUE} for never
+     * @return true if the value has been stored, false if it has been rejected, e.g. because it is too large
+     */
+    boolean put(Object key, byte[] value, long expiresAt);
+    
+    /**
+     * Removes the value for the given key and returns it. Expired values are returned as well,
+     * so callers know the key was present, and have to check {@link StoredValue#isExpired(long)}.
+     * 
+     * @param key the cache key
+     * @return the removed value or null if there was no value
+     */
+    StoredValue take(Object key);
+    
+    /**
+     * Removes the value for the given key without reading it.
+     * 
+     * @param key the cache key
+     * @return true if there was a value, expired or not, false otherwise
+     */
+    boolean remove(Object key);
+    
+    /**
+     * Removes all values.
+     */
+    void clear();
+    
+    /**
+     * Returns the number of stored values, including expired ones which have not been purged yet.
+     * 
+     * @return the number of values
+     */
+    int size();
+    
+    /**
+     * Registers a listener which is notified about all keys this store, or any store behind it,
+     * drops on its own.
+     * 
+     * @param listener the listener
+     */
+    void addListener(ByteStoreListener listener);
+    
+    /**
+     * Releases all resources held by this store.
+     */
+    void close();
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+/**
+ * Receives the keys a {@link ByteStore} drops on its own, i.e. values which have been
+ * evicted without a next tier, purged after they expired or lost with a dropped segment.
+ * Values which have been taken, removed or cleared are not reported.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+interface ByteStoreListener {
+
+    /**
+     * Called once the value of the given key has been dropped. Implementations must be fast
+     * and thread-safe, they are called while the store is locked.
+     * 
+     * @param key the cache key
+     */
+    void dropped(Object key);
+
+}
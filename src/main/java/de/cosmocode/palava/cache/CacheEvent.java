@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The last change of a single key within a batch of events delivered to a {@link CacheEventSubscriber}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public final class CacheEvent {
+
+    /**
+     * The kind of change.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    public static enum Type {
+        
+        /**
+         * A value has been stored or replaced.
+         */
+        PUT,
+        
+        /**
+         * A value has been removed explicitly.
+         */
+        REMOVE,
+        
+        /**
+         * A value has been evicted, because the cache was full.
+         */
+        EVICT,
+        
+        /**
+         * A value has expired.
+         */
+        EXPIRE;
+        
+    }
+    
+    private final Serializable key;
+    
+    private final Type type;
+    
+    CacheEvent(Serializable key, Type type) {
+        this.key = Preconditions.checkNotNull(key, "Key");
+        this.type = Preconditions.checkNotNull(type, "Type");
+    }
+    
+    public Serializable getKey() {
+        return key;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    @Override
+    public String toString() {
+        return type + " " + key;
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.List;
+
+/**
+ * Receives batches of {@link CacheEvent}s of a single cache on a background thread.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface CacheEventSubscriber {
+
+    /**
+     * Handles a batch of events. Every key occurs at most once per batch, with the last
+     * change which happened to it. Keys are ordered by their first change within the batch.
+     *
+     * @param events the events, never empty
+     */
+    void onEvents(List<CacheEvent> events);
+
+}
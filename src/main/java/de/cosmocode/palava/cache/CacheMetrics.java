@@ -0,0 +1,316 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+/**
+ * Collects the runtime statistics of a single {@link EhCacheService}.
+ * Recording is lock-free and does not allocate.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class CacheMetrics implements CacheMetricsMBean {
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+    
+    private final StripedCounter hits = new StripedCounter();
+    
+    private final StripedCounter misses = new StripedCounter();
+    
+    private final StripedCounter stores = new StripedCounter();
+    
+    private final StripedCounter removals = new StripedCounter();
+    
+    private final StripedCounter evictions = new StripedCounter();
+    
+    private final StripedCounter expirations = new StripedCounter();
+    
+    private final StripedCounter diskReads = new StripedCounter();
+    
+    private final StripedCounter skippedDiskReads = new StripedCounter();
+    
+    private final StripedCounter rawDiskBytes = new StripedCounter();
+    
+    private final StripedCounter storedDiskBytes = new StripedCounter();
+    
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    
+    private final LatencyHistogram storeLatency = new LatencyHistogram();
+    
+    private final LatencyHistogram removeLatency = new LatencyHistogram();
+    
+    /**
+     * Records a single read.
+     * 
+     * @param hit whether the read found a value
+     * @param nanos the duration of the read in nanoseconds
+     */
+    void read(boolean hit, long nanos) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        readLatency.record(nanos);
+    }
+    
+    /**
+     * Records a number of hits and misses of a batch read.
+     * 
+     * @param hitCount the number of hits
+     * @param missCount the number of misses
+     * @param nanos the duration of the whole batch in nanoseconds
+     */
+    void readAll(int hitCount, int missCount, long nanos) {
+        hits.add(hitCount);
+        misses.add(missCount);
+        record(readLatency, hitCount + missCount, nanos);
+    }
+    
+    /**
+     * Records the duration of a batch as the average duration of each of its operations.
+     */
+    private static void record(LatencyHistogram latency, int count, long nanos) {
+        if (count > 0) {
+            latency.record(nanos / count, count);
+        }
+    }
+    
+    /**
+     * Records a single store.
+     * 
+     * @param nanos the duration of the store in nanoseconds
+     */
+    void store(long nanos) {
+        stores.increment();
+        storeLatency.record(nanos);
+    }
+    
+    /**
+     * Records a batch store.
+     * 
+     * @param count the number of stored values
+     * @param nanos the duration of the whole batch in nanoseconds
+     */
+    void storeAll(int count, long nanos) {
+        stores.add(count);
+        record(storeLatency, count, nanos);
+    }
+    
+    /**
+     * Records a single remove.
+     * 
+     * @param nanos the duration of the remove in nanoseconds
+     */
+    void remove(long nanos) {
+        removals.increment();
+        removeLatency.record(nanos);
+    }
+    
+    /**
+     * Records a batch remove.
+     * 
+     * @param count the number of removed keys
+     * @param nanos the duration of the whole batch in nanoseconds
+     */
+    void removeAll(int count, long nanos) {
+        removals.add(count);
+        record(removeLatency, count, nanos);
+    }
+    
+    /**
+     * Records a single read of the disk store.
+     * 
+     * @param skipped whether the filter of the disk store ruled out the key
+     */
+    void diskRead(boolean skipped) {
+        if (skipped) {
+            skippedDiskReads.increment();
+        } else {
+            diskReads.increment();
+        }
+    }
+    
+    /**
+     * Records a single value written to the disk store.
+     * 
+     * @param rawBytes the size of the value
+     * @param storedBytes the size of the value after compression
+     */
+    void compressed(int rawBytes, int storedBytes) {
+        rawDiskBytes.add(rawBytes);
+        storedDiskBytes.add(storedBytes);
+    }
+    
+    /**
+     * Creates a listener which counts evictions and expirations of the cache it is registered on.
+     * 
+     * @return a new listener
+     */
+    CacheEventListenerAdapter newListener() {
+        return new CacheEventListenerAdapter() {
+            
+            @Override
+            public void notifyElementEvicted(Ehcache cache, Element element) {
+                evictions.increment();
+            }
+            
+            @Override
+            public void notifyElementExpired(Ehcache cache, Element element) {
+                expirations.increment();
+            }
+            
+        };
+    }
+    
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+    
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    @Override
+    public double getHitRatio() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0L ? 0.0 : (double) hitCount / total;
+    }
+    
+    @Override
+    public long getStores() {
+        return stores.get();
+    }
+    
+    @Override
+    public long getRemovals() {
+        return removals.get();
+    }
+    
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    @Override
+    public long getExpirations() {
+        return expirations.get();
+    }
+    
+    @Override
+    public double getReadLatency50th() {
+        return readLatency.percentile(0.5) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getReadLatency99th() {
+        return readLatency.percentile(0.99) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getReadLatency999th() {
+        return readLatency.percentile(0.999) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getStoreLatency50th() {
+        return storeLatency.percentile(0.5) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getStoreLatency99th() {
+        return storeLatency.percentile(0.99) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getStoreLatency999th() {
+        return storeLatency.percentile(0.999) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getRemoveLatency50th() {
+        return removeLatency.percentile(0.5) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getRemoveLatency99th() {
+        return removeLatency.percentile(0.99) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public double getRemoveLatency999th() {
+        return removeLatency.percentile(0.999) / NANOS_PER_MICRO;
+    }
+    
+    @Override
+    public long getDiskReads() {
+        return diskReads.get();
+    }
+    
+    @Override
+    public long getSkippedDiskReads() {
+        return skippedDiskReads.get();
+    }
+    
+    @Override
+    public double getSkippedDiskReadRatio() {
+        final long skipped = skippedDiskReads.get();
+        final long total = skipped + diskReads.get();
+        return total == 0L ? 0.0 : (double) skipped / total;
+    }
+    
+    @Override
+    public long getRawDiskBytes() {
+        return rawDiskBytes.get();
+    }
+    
+    @Override
+    public long getStoredDiskBytes() {
+        return storedDiskBytes.get();
+    }
+    
+    @Override
+    public double getCompressionRatio() {
+        final long stored = storedDiskBytes.get();
+        return stored == 0L ? 1.0 : (double) rawDiskBytes.get() / stored;
+    }
+    
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        stores.reset();
+        removals.reset();
+        evictions.reset();
+        expirations.reset();
+        diskReads.reset();
+        skippedDiskReads.reset();
+        rawDiskBytes.reset();
+        storedDiskBytes.reset();
+        readLatency.reset();
+        storeLatency.reset();
+        removeLatency.reset();
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+/**
+ * Management interface for the runtime statistics of a single named ehcache.
+ * All latencies are reported in microseconds.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface CacheMetricsMBean {
+
+    /**
+     * Returns the number of reads which found a value.
+     * 
+     * @return the hit count
+     */
+    long getHits();
+    
+    /**
+     * Returns the number of reads which did not find a value.
+     * 
+     * @return the miss count
+     */
+    long getMisses();
+    
+    /**
+     * Returns the ratio of hits to all reads.
+     * 
+     * @return the hit ratio between 0.0 and 1.0, or 0.0 if nothing has been read yet
+     */
+    double getHitRatio();
+    
+    /**
+     * Returns the number of store operations.
+     * 
+     * @return the store count
+     */
+    long getStores();
+    
+    /**
+     * Returns the number of remove operations.
+     * 
+     * @return the remove count
+     */
+    long getRemovals();
+    
+    /**
+     * Returns the number of elements evicted by the cache.
+     * 
+     * @return the eviction count
+     */
+    long getEvictions();
+    
+    /**
+     * Returns the number of elements which have been removed because they expired.
+     * 
+     * @return the expiry count
+     */
+    long getExpirations();
+    
+    /**
+     * Returns the median read latency.
+     * 
+     * @return the median read latency in microseconds
+     */
+    double getReadLatency50th();
+    
+    /**
+     * Returns the 99th percentile read latency.
+     * 
+     * @return the 99th percentile read latency in microseconds
+     */
+    double getReadLatency99th();
+    
+    /**
+     * Returns the 99.9th percentile read latency.
+     * 
+     * @return the 99.9th percentile read latency in microseconds
+     */
+    double getReadLatency999th();
+    
+    /**
+     * Returns the median store latency.
+     * 
+     * @return the median store latency in microseconds
+     */
+    double getStoreLatency50th();
+    
+    /**
+     * Returns the 99th percentile store latency.
+     * 
+     * @return the 99th percentile store latency in microseconds
+     */
+    double getStoreLatency99th();
+    
+    /**
+     * Returns the 99.9th percentile store latency.
+     * 
+     * @return the 99.9th percentile store latency in microseconds
+     */
+    double getStoreLatency999th();
+    
+    /**
+     * Returns the median remove latency.
+     * 
+     * @return the median remove latency in microseconds
+     */
+    double getRemoveLatency50th();
+    
+    /**
+     * Returns the 99th percentile remove latency.
+     * 
+     * @return the 99th percentile remove latency in microseconds
+     */
+    double getRemoveLatency99th();
+    
+    /**
+     * Returns the 99.9th percentile remove latency.
+     * 
+     * @return the 99.9th percentile remove latency in microseconds
+     */
+    double getRemoveLatency999th();
+    
+    /**
+     * Returns the number of reads of the disk store which could not be ruled out by its filter.
+     * 
+     * @return the disk read count
+     */
+    long getDiskReads();
+    
+    /**
+     * Returns the number of reads of the disk store which have been skipped, because the
+     * filter ruled out that the key is on disk.
+     * 
+     * @return the skipped disk read count
+     */
+    long getSkippedDiskReads();
+    
+    /**
+     * Returns the ratio of skipped to all reads of the disk store.
+     * 
+     * @return the skipped disk read ratio between 0.0 and 1.0, or 0.0 if the disk store has not been read yet
+     */
+    double getSkippedDiskReadRatio();
+    
+    /**
+     * Returns the number of bytes of all values written to the disk store before compression.
+     * 
+     * @return the raw byte count
+     */
+    long getRawDiskBytes();
+    
+    /**
+     * Returns the number of bytes of all values written to the disk store after compression.
+     * 
+     * @return the stored byte count
+     */
+    long getStoredDiskBytes();
+    
+    /**
+     * Returns the ratio of raw to stored bytes written to the disk store.
+     * 
+     * @return the compression ratio, or 1.0 if nothing has been written yet
+     */
+    double getCompressionRatio();
+    
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset();
+
+}
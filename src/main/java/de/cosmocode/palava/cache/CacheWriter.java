@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes the changes of a cache to its backing store, see
+ * {@link EhCacheServiceConfig#WRITER}. Calls happen on a background thread
+ * in batches, every key occurs at most once per batch. A failed batch is retried,
+ * so implementations have to be idempotent.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface CacheWriter {
+
+    /**
+     * Writes the given values.
+     *
+     * @param values the latest values of all stored keys of this batch
+     * @throws Exception if writing failed, the batch will be retried
+     */
+    void write(Map<Serializable, Object> values) throws Exception;
+
+    /**
+     * Deletes the given keys.
+     *
+     * @param keys all removed keys of this batch
+     * @throws Exception if deleting failed, the batch will be retried
+     */
+    void delete(Collection<Serializable> keys) throws Exception;
+
+}
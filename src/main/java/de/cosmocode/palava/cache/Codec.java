@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes and decodes cache values for the disk based tiers.
+ * Implementations must be thread-safe and provide a public no-arg constructor
+ * if they are configured by class name.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface Codec {
+
+    /**
+     * Writes the given value to the specified output.
+     *
+     * @param value the value, may be null
+     * @param output the output to write to
+     * @throws IOException if writing failed or the value is not supported
+     */
+    void encode(Object value, DataOutput output) throws IOException;
+
+    /**
+     * Reads a value which has been written using {@link #encode(Object, DataOutput)}.
+     *
+     * @param input the input to read from
+     * @return the decoded value, may be null
+     * @throws IOException if reading failed
+     */
+    Object decode(DataInput input) throws IOException;
+
+}
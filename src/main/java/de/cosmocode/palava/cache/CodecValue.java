@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import com.google.common.base.Objects;
+
+/**
+ * Holds a cache value together with the {@link Codec} which is used whenever
+ * ehcache serializes the value, e.g. when spooling it to the disk store.
+ * Equality is delegated to the wrapped value, so element comparisons keep working.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class CodecValue implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+    
+    private Codec codec;
+    
+    private Object value;
+    
+    /**
+     * Constructor required by {@link Externalizable}.
+     */
+    public CodecValue() {
+        
+    }
+    
+    CodecValue(Codec codec, Object value) {
+        this.codec = codec;
+        this.value = value;
+    }
+    
+    Object get() {
+        return value;
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput output) throws IOException {
+        output.writeUTF(Codecs.nameOf(codec));
+        codec.encode(value, output);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput input) throws IOException {
+        codec = Codecs.forName(input.readUTF());
+        value = codec.decode(input);
+    }
+    
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        } else if (that instanceof CodecValue) {
+            return Objects.equal(value, CodecValue.class.cast(that).value);
+        } else {
+            return false;
+        }
+    }
+    
+    @Override
+    public int hashCode() {
+        return value == null ? 0 : value.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Static registry of all known {@link Codec}s and utility methods to encode values
+ * into reusable, thread-local buffers.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class Codecs {
+
+    static final String JAVA = "java";
+    
+    static final String COMPACT = "compact";
+    
+    // buffers which grew beyond this size are not kept for reuse
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    
+    private static final ConcurrentMap<String, Codec> REGISTRY = new ConcurrentHashMap<String, Codec>();
+    
+    private static final ThreadLocal<Buffer> BUFFERS = new ThreadLocal<Buffer>() {
+        
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+        
+    };
+    
+    static {
+        REGISTRY.put(JAVA, JavaCodec.INSTANCE);
+        REGISTRY.put(COMPACT, CompactCodec.INSTANCE);
+    }
+    
+    private Codecs() {
+        
+    }
+    
+    /**
+     * Returns the codec with the given name. Names other than {@value #JAVA} and {@value #COMPACT}
+     * are treated as the fully qualified class name of a {@link Codec} implementation.
+     * 
+     * @param name the codec name
+     * @return the codec
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    static Codec forName(String name) {
+        Preconditions.checkNotNull(name, "Name");
+        final Codec codec = REGISTRY.get(name);
+        if (codec != null) {
+            return codec;
+        }
+        
+        final Codec created;
+        try {
+            final Class<?> type = Class.forName(name, true, Thread.currentThread().getContextClassLoader());
+            created = Codec.class.cast(type.newInstance());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown codec " + name, e);
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create codec " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create codec " + name, e);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException(name + " is not a " + Codec.class.getName(), e);
+        }
+        final Codec existing = REGISTRY.putIfAbsent(name, created);
+        return existing == null ? created : existing;
+    }
+    
+    /**
+     * Returns the name under which the given codec can be found using {@link #forName(String)}.
+     * 
+     * @param codec the codec
+     * @return the name of codec
+     */
+    static String nameOf(Codec codec) {
+        if (codec == JavaCodec.INSTANCE) {
+            return JAVA;
+        } else if (codec == CompactCodec.INSTANCE) {
+            return COMPACT;
+        } else {
+            return codec.getClass().getName();
+        }
+    }
+    
+    /**
+     * Encodes the given value using a reusable thread-local buffer.
+     * 
+     * @param codec the codec to use
+     * @param value the value
+     * @return the encoded value
+     * @throws IOException if encoding failed
+     */
+    static byte[] encode(Codec codec, Object value) throws IOException {
+        final Buffer buffer = BUFFERS.get();
+        buffer.reset();
+        codec.encode(value, buffer.output);
+        final byte[] bytes = buffer.toByteArray();
+        if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Decodes the given bytes.
+     * 
+     * @param codec the codec to use
+     * @param bytes the encoded value
+     * @param offset the start offset in bytes
+     * @param length the number of bytes to read
+     * @return the decoded value
+     * @throws IOException if decoding failed
+     */
+    static Object decode(Codec codec, byte[] bytes, int offset, int length) throws IOException {
+        return codec.decode(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+    }
+    
+    /**
+     * A reusable output buffer.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        
+        private final DataOutputStream output = new DataOutputStream(this);
+        
+        Buffer() {
+            super(4096);
+        }
+        
+        int capacity() {
+            return buf.length;
+        }
+        
+    }
+
+}
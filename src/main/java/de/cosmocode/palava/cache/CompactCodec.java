@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A {@link Codec} which writes a one byte type tag followed by a compact, type specific
+ * representation for strings, boxed primitives, byte arrays and the common collection
+ * implementations. All other values fall back to java serialization.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class CompactCodec implements Codec {
+
+    static final CompactCodec INSTANCE = new CompactCodec();
+    
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte CHARACTER = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte BYTES = 10;
+    private static final byte ARRAY_LIST = 11;
+    private static final byte LINKED_LIST = 12;
+    private static final byte HASH_SET = 13;
+    private static final byte LINKED_HASH_SET = 14;
+    private static final byte HASH_MAP = 15;
+    private static final byte LINKED_HASH_MAP = 16;
+    private static final byte SERIALIZED = 127;
+    
+    // DataOutput#writeUTF is limited to 65535 encoded bytes
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+    
+    private CompactCodec() {
+        
+    }
+    
+    @Override
+    public void encode(Object value, DataOutput output) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String && ((String) value).length() <= MAX_UTF_LENGTH) {
+            output.writeByte(STRING);
+            output.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeLong(((Long) value).longValue());
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeShort(((Short) value).shortValue());
+        } else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte(((Byte) value).byteValue());
+        } else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean(((Boolean) value).booleanValue());
+        } else if (value instanceof Character) {
+            output.writeByte(CHARACTER);
+            output.writeChar(((Character) value).charValue());
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof byte[]) {
+            final byte[] bytes = (byte[]) value;
+            output.writeByte(BYTES);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } else if (value.getClass() == ArrayList.class) {
+            output.writeByte(ARRAY_LIST);
+            encodeCollection((Collection<?>) value, output);
+        } else if (value.getClass() == LinkedList.class) {
+            output.writeByte(LINKED_LIST);
+            encodeCollection((Collection<?>) value, output);
+        } else if (value.getClass() == HashSet.class) {
+            output.writeByte(HASH_SET);
+            encodeCollection((Collection<?>) value, output);
+        } else if (value.getClass() == LinkedHashSet.class) {
+            output.writeByte(LINKED_HASH_SET);
+            encodeCollection((Collection<?>) value, output);
+        } else if (value.getClass() == HashMap.class) {
+            output.writeByte(HASH_MAP);
+            encodeMap((Map<?, ?>) value, output);
+        } else if (value.getClass() == LinkedHashMap.class) {
+            output.writeByte(LINKED_HASH_MAP);
+            encodeMap((Map<?, ?>) value, output);
+        } else {
+            output.writeByte(SERIALIZED);
+            JavaCodec.INSTANCE.encode(value, output);
+        }
+    }
+    
+    private void encodeCollection(Collection<?> collection, DataOutput output) throws IOException {
+        output.writeInt(collection.size());
+        for (Object element : collection) {
+            encode(element, output);
+        }
+    }
+    
+    private void encodeMap(Map<?, ?> map, DataOutput output) throws IOException {
+        output.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            encode(entry.getKey(), output);
+            encode(entry.getValue(), output);
+        }
+    }
+    
+    @Override
+    public Object decode(DataInput input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+            case NULL: {
+                return null;
+            }
+            case STRING: {
+                return input.readUTF();
+            }
+            case INTEGER: {
+                return Integer.valueOf(input.readInt());
+            }
+            case LONG: {
+                return Long.valueOf(input.readLong());
+            }
+            case SHORT: {
+                return Short.valueOf(input.readShort());
+            }
+            case BYTE: {
+                return Byte.valueOf(input.readByte());
+            }
+            case BOOLEAN: {
+                return Boolean.valueOf(input.readBoolean());
+            }
+            case CHARACTER: {
+                return Character.valueOf(input.readChar());
+            }
+            case FLOAT: {
+                return Float.valueOf(input.readFloat());
+            }
+            case DOUBLE: {
+                return Double.valueOf(input.readDouble());
+            }
+            case BYTES: {
+                final byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                return bytes;
+            }
+            case ARRAY_LIST: {
+                final int size = input.readInt();
+                return decodeCollection(new ArrayList<Object>(size), size, input);
+            }
+            case LINKED_LIST: {
+                return decodeCollection(new LinkedList<Object>(), input.readInt(), input);
+            }
+            case HASH_SET: {
+                final int size = input.readInt();
+                return decodeCollection(new HashSet<Object>(capacityOf(size)), size, input);
+            }
+            case LINKED_HASH_SET: {
+                final int size = input.readInt();
+                return decodeCollection(new LinkedHashSet<Object>(capacityOf(size)), size, input);
+            }
+            case HASH_MAP: {
+                final int size = input.readInt();
+                return decodeMap(new HashMap<Object, Object>(capacityOf(size)), size, input);
+            }
+            case LINKED_HASH_MAP: {
+                final int size = input.readInt();
+                return decodeMap(new LinkedHashMap<Object, Object>(capacityOf(size)), size, input);
+            }
+            case SERIALIZED: {
+                return JavaCodec.INSTANCE.decode(input);
+            }
+            default: {
+                throw new IOException("Unknown type tag " + tag);
+            }
+        }
+    }
+    
+    private static int capacityOf(int size) {
+        return Math.max(16, (int) (size / 0.75f) + 1);
+    }
+    
+    private <C extends Collection<Object>> C decodeCollection(C collection, int size, DataInput input)
+        throws IOException {
+        for (int i = 0; i < size; i++) {
+            collection.add(decode(input));
+        }
+        return collection;
+    }
+    
+    private <M extends Map<Object, Object>> M decodeMap(M map, int size, DataInput input) throws IOException {
+        for (int i = 0; i < size; i++) {
+            final Object key = decode(input);
+            map.put(key, decode(input));
+        }
+        return map;
+    }
+    
+    @Override
+    public String toString() {
+        return Codecs.COMPACT;
+    }
+
+}
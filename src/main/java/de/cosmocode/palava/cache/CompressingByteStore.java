@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ByteStore} which compresses values before handing them to another store.
+ * 
+ * <p>
+ *   Values smaller than the threshold, and values which don't shrink, are stored raw.
+ *   Every stored value is prefixed with a single byte which marks it as raw or compressed,
+ *   compressed values additionally carry their uncompressed length. The actual compression
+ *   is done by a {@link Compressor}.
+ * </p>
+ * <p>
+ *   Persistent stores are marked with a file which holds the id of the compressor.
+ *   A non-empty store without that marker, or with the id of another compressor, is cleared.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class CompressingByteStore implements ByteStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompressingByteStore.class);
+    
+    private static final byte RAW = 0;
+    
+    private static final byte COMPRESSED = 1;
+    
+    // flag and uncompressed length
+    private static final int HEADER_SIZE = 5;
+    
+    private final ByteStore store;
+    
+    private final Compressor compressor;
+    
+    private final int threshold;
+    
+    private final CacheMetrics metrics;
+    
+    /**
+     * Creates a new compressing store.
+     * 
+     * @param store the store to write compressed values to
+     * @param compressor the compressor
+     * @param threshold the size in bytes below which values are stored raw
+     * @param marker the file which marks a persistent store as compressed, null for a non-persistent store
+     * @param metrics the metrics to record compression ratios in, may be null
+     */
+    CompressingByteStore(ByteStore store, Compressor compressor, int threshold, File marker, CacheMetrics metrics) {
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.compressor = Preconditions.checkNotNull(compressor, "Compressor");
+        Preconditions.checkArgument(threshold >= 0, "Threshold must not be negative, but was %s", threshold);
+        this.threshold = threshold;
+        this.metrics = metrics;
+        if (marker != null) {
+            mark(marker);
+        }
+    }
+    
+    private void mark(File marker) {
+        final String id = readMarker(marker);
+        if (compressor.getId().equals(id)) {
+            return;
+        }
+        if (store.size() > 0) {
+            if (id == null) {
+                LOG.info("Clearing {}, it has been written uncompressed", store);
+            } else {
+                LOG.info("Clearing {}, it has been compressed using {}", store, id.length() == 0 ? "unknown" : id);
+            }
+            store.clear();
+        }
+        try {
+            final DataOutputStream output = new DataOutputStream(new FileOutputStream(marker));
+            try {
+                output.writeUTF(compressor.getId());
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write marker {}: {}", marker, e.getMessage());
+        }
+    }
+    
+    /**
+     * Reads the id of the compressor the store behind the given marker has been written with.
+     * 
+     * @return the id, or null if there is no marker, an empty string if it can't be read
+     */
+    private static String readMarker(File marker) {
+        if (!marker.exists()) {
+            return null;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(marker)));
+            try {
+                return input.readUTF();
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read marker {}: {}", marker, e.getMessage());
+            return "";
+        }
+    }
+    
+    /**
+     * Compresses the given value.
+     * 
+     * @param value the raw value
+     * @return the value prefixed with its header
+     */
+    byte[] compress(byte[] value) {
+        if (value.length >= threshold && value.length > HEADER_SIZE) {
+            // anything not smaller than the raw value is useless
+            final byte[] buffer = new byte[value.length];
+            final int length = compressor.compress(value, buffer, HEADER_SIZE);
+            if (length >= 0 && length < buffer.length) {
+                buffer[0] = COMPRESSED;
+                buffer[1] = (byte) (value.length >>> 24);
+                buffer[2] = (byte) (value.length >>> 16);
+                buffer[3] = (byte) (value.length >>> 8);
+                buffer[4] = (byte) value.length;
+                return Arrays.copyOf(buffer, length);
+            }
+        }
+        final byte[] raw = new byte[value.length + 1];
+        raw[0] = RAW;
+        System.arraycopy(value, 0, raw, 1, value.length);
+        return raw;
+    }
+    
+    /**
+     * Decompresses the given value.
+     * 
+     * @param bytes the value including its header
+     * @return the raw value
+     * @throws DataFormatException if bytes is corrupted
+     */
+    byte[] decompress(byte[] bytes) throws DataFormatException {
+        if (bytes.length == 0) {
+            throw new DataFormatException("Missing header");
+        } else if (bytes[0] == RAW) {
+            return Arrays.copyOfRange(bytes, 1, bytes.length);
+        } else if (bytes[0] != COMPRESSED || bytes.length < HEADER_SIZE) {
+            throw new DataFormatException("Illegal header");
+        }
+        final int length = (bytes[1] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 8 | bytes[4] & 0xFF;
+        final byte[] value = new byte[length];
+        compressor.decompress(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE, value);
+        return value;
+    }
+    
+    @Override
+    public boolean put(Object key, byte[] value, long expiresAt) {
+        final byte[] compressed = compress(value);
+        if (metrics != null) {
+            metrics.compressed(value.length, compressed.length);
+        }
+        return store.put(key, compressed, expiresAt);
+    }
+    
+    @Override
+    public StoredValue take(Object key) {
+        final StoredValue stored = store.take(key);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return new StoredValue(decompress(stored.getBytes()), stored.getExpiresAt());
+        } catch (DataFormatException e) {
+            LOG.warn("Unable to decompress value of {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+    
+    @Override
+    public boolean remove(Object key) {
+        return store.remove(key);
+    }
+    
+    @Override
+    public void clear() {
+        store.clear();
+    }
+    
+    @Override
+    public int size() {
+        return store.size();
+    }
+    
+    @Override
+    public void addListener(ByteStoreListener listener) {
+        store.addListener(listener);
+    }
+    
+    @Override
+    public void close() {
+        store.close();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, compressor=%s, threshold=%s]", CompressingByteStore.class.getSimpleName(),
+            store, compressor, threshold);
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Compresses the values of a {@link CompressingByteStore}. The store takes care of the
+ * header of each value and of values which are not worth compressing.
+ * Implementations must be thread-safe.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+interface Compressor {
+
+    /**
+     * Identifies the format written by this compressor. Persistent stores remember it
+     * and are cleared if they are opened using a different compressor.
+     *
+     * @return the id, never changes for a given format
+     */
+    String getId();
+
+    /**
+     * Compresses the given value into the specified buffer.
+     *
+     * @param value the raw value
+     * @param buffer the buffer to write to
+     * @param offset the position in buffer to start writing at
+     * @return the position in buffer after the compressed value, or -1 if it doesn't fit into buffer
+     */
+    int compress(byte[] value, byte[] buffer, int offset);
+
+    /**
+     * Decompresses the given bytes into the specified value.
+     *
+     * @param bytes the bytes holding the compressed value
+     * @param offset the position of the compressed value in bytes
+     * @param length the length of the compressed value
+     * @param value the array to fill, sized to the raw value
+     * @throws DataFormatException if the bytes are corrupted or don't fill value
+     */
+    void decompress(byte[] bytes, int offset, int length, byte[] value) throws DataFormatException;
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread-safe counting bloom filter with 4 bit counters, which, unlike a {@link BloomFilter},
+ * supports removals. Counters which reached their maximum stick to it, so removals never
+ * cause false negatives, at the cost of a slowly growing false positive rate.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class CountingBloomFilter {
+
+    private static final int MAGIC = 0x50434246;
+    
+    private static final int MAX_COUNT = 15;
+    
+    private final AtomicLongArray counters;
+    
+    private final long size;
+    
+    private final int hashes;
+    
+    /**
+     * Creates a new filter.
+     * 
+     * @param expectedInsertions the number of keys the filter is sized for
+     * @param fpp the false positive probability at the expected number of insertions
+     */
+    CountingBloomFilter(int expectedInsertions, double fpp) {
+        Preconditions.checkArgument(expectedInsertions > 0, "Expected insertions must be positive, but was %s",
+            expectedInsertions);
+        Preconditions.checkArgument(fpp > 0.0 && fpp < 1.0, "Fpp must be between 0 and 1, but was %s", fpp);
+        final double ln2 = Math.log(2.0);
+        final long optimal = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (ln2 * ln2));
+        // 16 counters per long
+        final int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (optimal + 15L) >>> 4));
+        this.counters = new AtomicLongArray(words);
+        this.size = (long) words << 4;
+        this.hashes = Math.max(1, (int) Math.round((double) size / expectedInsertions * ln2));
+    }
+    
+    private CountingBloomFilter(long[] words, int hashes) {
+        this.counters = new AtomicLongArray(words);
+        this.size = (long) words.length << 4;
+        this.hashes = hashes;
+    }
+    
+    private long indexOf(long first, long second, int i) {
+        return ((first + i * second) & Long.MAX_VALUE) % size;
+    }
+    
+    /**
+     * Adds the given key.
+     * 
+     * @param key the key
+     */
+    void add(Object key) {
+        final long first = BloomFilter.mix(key.hashCode());
+        final long second = BloomFilter.mix(first) | 1L;
+        for (int i = 0; i < hashes; i++) {
+            update(indexOf(first, second, i), 1);
+        }
+    }
+    
+    /**
+     * Removes the given key, which must have been added before.
+     * 
+     * @param key the key
+     */
+    void remove(Object key) {
+        final long first = BloomFilter.mix(key.hashCode());
+        final long second = BloomFilter.mix(first) | 1L;
+        for (int i = 0; i < hashes; i++) {
+            update(indexOf(first, second, i), -1);
+        }
+    }
+    
+    private void update(long index, int delta) {
+        final int word = (int) (index >>> 4);
+        final int shift = (int) (index & 15) << 2;
+        while (true) {
+            final long current = counters.get(word);
+            final long count = (current >>> shift) & MAX_COUNT;
+            if (count == MAX_COUNT || (count == 0 && delta < 0)) {
+                return;
+            } else if (counters.compareAndSet(word, current, current + ((long) delta << shift))) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Checks whether the given key might have been added.
+     * 
+     * @param key the key
+     * @return false if the key is definitely not contained, true if it might be
+     */
+    boolean mightContain(Object key) {
+        final long first = BloomFilter.mix(key.hashCode());
+        final long second = BloomFilter.mix(first) | 1L;
+        for (int i = 0; i < hashes; i++) {
+            final long index = indexOf(first, second, i);
+            if (((counters.get((int) (index >>> 4)) >>> ((int) (index & 15) << 2)) & MAX_COUNT) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Removes all keys.
+     */
+    void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0L);
+        }
+    }
+    
+    /**
+     * Writes this filter to the given output.
+     * 
+     * @param output the output
+     * @throws IOException if writing failed
+     */
+    void writeTo(DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(hashes);
+        output.writeInt(counters.length());
+        for (int i = 0; i < counters.length(); i++) {
+            output.writeLong(counters.get(i));
+        }
+    }
+    
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutput)}.
+     * 
+     * @param input the input
+     * @return the filter
+     * @throws IOException if reading failed or input does not contain a filter
+     */
+    static CountingBloomFilter readFrom(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a counting bloom filter");
+        }
+        final int hashes = input.readInt();
+        final int length = input.readInt();
+        if (hashes <= 0 || length <= 0) {
+            throw new IOException("Invalid counting bloom filter of " + length + " words and " + hashes + " hashes");
+        }
+        final long[] words = new long[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = input.readLong();
+        }
+        return new CountingBloomFilter(words, hashes);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [counters=%s, hashes=%s]", CountingBloomFilter.class.getSimpleName(), size, hashes);
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ThreadFactory} which creates named daemon threads.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    
+    private final AtomicInteger counter = new AtomicInteger();
+    
+    DaemonThreadFactory(String prefix) {
+        this.prefix = Preconditions.checkNotNull(prefix, "Prefix");
+    }
+    
+    @Override
+    public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link Compressor} using {@link Deflater#BEST_SPEED}. Deflaters and inflaters are reused per thread.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class DeflateCompressor implements Compressor {
+
+    static final String ID = "deflate";
+    
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+        
+    };
+    
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+        
+    };
+    
+    @Override
+    public String getId() {
+        return ID;
+    }
+    
+    @Override
+    public int compress(byte[] value, byte[] buffer, int offset) {
+        final Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(value);
+        deflater.finish();
+        int position = offset;
+        while (!deflater.finished() && position < buffer.length) {
+            position += deflater.deflate(buffer, position, buffer.length - position);
+        }
+        return deflater.finished() ? position : -1;
+    }
+    
+    @Override
+    public void decompress(byte[] bytes, int offset, int length, byte[] value) throws DataFormatException {
+        final Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(bytes, offset, length);
+        int position = 0;
+        while (position < value.length) {
+            final int inflated = inflater.inflate(value, position, value.length - position);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new DataFormatException("Truncated value, expected " + value.length +
+                    " bytes but got " + position);
+            }
+            position += inflated;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return ID;
+    }
+
+}
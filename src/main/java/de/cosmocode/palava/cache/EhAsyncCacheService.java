@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+
+/**
+ * An {@link AsyncCacheService} which executes all operations of a backing
+ * {@link EhCacheService} on a dedicated, bounded thread pool. The pool is created
+ * on the first asynchronous operation.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class EhAsyncCacheService implements AsyncCacheService, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EhAsyncCacheService.class);
+    
+    private final ExtendedCacheService service;
+    
+    private final String name;
+    
+    /*
+     * Start configuration parameters.
+     */
+    
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    private int queueSize = 1024;
+    
+    private boolean callerRuns;
+    
+    /*
+     * End configuration parameters.
+     */
+    
+    private volatile ThreadPoolExecutor executor;
+    
+    private boolean disposed;
+    
+    @Inject
+    EhAsyncCacheService(@Backing ExtendedCacheService service, @Named(EhCacheServiceConfig.NAME) String name) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+        this.name = Preconditions.checkNotNull(name, "Name");
+    }
+    
+    /**
+     * Sets the number of threads used to execute asynchronous operations.
+     * @param threads the number of threads, positive number
+     */
+    @Inject(optional = true)
+    void setThreads(@Named(EhCacheServiceConfig.ASYNC_THREADS) int threads) {
+        Preconditions.checkArgument(threads > 0, "Threads must be positive, but was %s", threads);
+        this.threads = threads;
+    }
+    
+    /**
+     * Sets the maximum number of pending operations.
+     * @param queueSize the queue size, positive number
+     */
+    @Inject(optional = true)
+    void setQueueSize(@Named(EhCacheServiceConfig.ASYNC_QUEUE_SIZE) int queueSize) {
+        Preconditions.checkArgument(queueSize > 0, "Queue size must be positive, but was %s", queueSize);
+        this.queueSize = queueSize;
+    }
+    
+    /**
+     * Sets whether a saturated executor lets the submitting thread execute the operation itself,
+     * which throttles callers, or rejects it (the default). A rejected operation returns a future
+     * which fails with a {@link RejectedExecutionException}.
+     * @param callerRuns true to run in the caller, false to reject
+     */
+    @Inject(optional = true)
+    void setCallerRuns(@Named(EhCacheServiceConfig.ASYNC_CALLER_RUNS) boolean callerRuns) {
+        this.callerRuns = callerRuns;
+    }
+    
+    @Override
+    public void initialize() {
+        LOG.info("Ehcache async [{}]: [threads={}, queueSize={}, callerRuns={}]", new Object[] {
+            name, threads, queueSize, callerRuns
+        });
+    }
+    
+    private ThreadPoolExecutor executor() {
+        final ThreadPoolExecutor current = executor;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            Preconditions.checkState(!disposed, "%s has been disposed", this);
+            if (executor == null) {
+                final RejectedExecutionHandler handler = callerRuns ?
+                    new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+                final ThreadPoolExecutor created = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory(name + "-async"), handler);
+                created.allowCoreThreadTimeOut(true);
+                executor = created;
+            }
+            return executor;
+        }
+    }
+    
+    /**
+     * Submits the given operation. A rejected operation is reported through the returned future,
+     * so callers handle it like any other failure of the operation.
+     */
+    private <T> Future<T> submit(Callable<T> operation) {
+        try {
+            return executor().submit(operation);
+        } catch (final RejectedExecutionException e) {
+            final FutureTask<T> failed = new FutureTask<T>(new Callable<T>() {
+                
+                @Override
+                public T call() {
+                    throw e;
+                }
+                
+            });
+            failed.run();
+            return failed;
+        }
+    }
+    
+    @Override
+    public <T> Future<T> readAsync(final Serializable key) {
+        Preconditions.checkNotNull(key, "Key");
+        return submit(new Callable<T>() {
+            
+            @Override
+            public T call() {
+                return service.<T>read(key);
+            }
+            
+        });
+    }
+    
+    @Override
+    public <T> Future<T> loadAsync(final Serializable key) {
+        Preconditions.checkNotNull(key, "Key");
+        return submit(new Callable<T>() {
+            
+            @Override
+            public T call() {
+                return service.<T>load(key);
+            }
+            
+        });
+    }
+    
+    @Override
+    public Future<Void> storeAsync(final Serializable key, final Object value) {
+        Preconditions.checkNotNull(key, "Key");
+        return submit(new Callable<Void>() {
+            
+            @Override
+            public Void call() {
+                service.store(key, value);
+                return null;
+            }
+            
+        });
+    }
+    
+    @Override
+    public Future<Void> storeAsync(final Serializable key, final Object value,
+        final long maxAge, final TimeUnit maxAgeUnit) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(maxAgeUnit, "MaxAgeUnit");
+        return submit(new Callable<Void>() {
+            
+            @Override
+            public Void call() {
+                service.store(key, value, maxAge, maxAgeUnit);
+                return null;
+            }
+            
+        });
+    }
+    
+    @Override
+    public <T> Future<T> removeAsync(final Serializable key) {
+        Preconditions.checkNotNull(key, "Key");
+        return submit(new Callable<T>() {
+            
+            @Override
+            public T call() {
+                return service.<T>remove(key);
+            }
+            
+        });
+    }
+    
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s]", EhAsyncCacheService.class.getSimpleName(), name);
+    }
+
+}
@@ -16,26 +16,53 @@
 
 package de.cosmocode.palava.cache;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.TerracottaConfiguration;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import de.cosmocode.palava.core.lifecycle.Disposable;
 import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
 
 /**
  * An implementation of the {@link CacheService} interface
@@ -44,12 +71,19 @@ import de.cosmocode.palava.core.lifecycle.Initializable;
  * @author Willi Schoenborn
  * @author Oliver Lorenz
  */
-final class EhCacheService implements CacheService, Initializable, Disposable {
+final class EhCacheService implements ExtendedCacheService, Initializable, Disposable {
 
     private static final Logger LOG = LoggerFactory.getLogger(EhCacheService.class);
 
     private static final String MAX_AGE_NEGATIVE = "Max age must not be negative, but was %s";
 
+    // approximate size of an element and its slot in the memory store
+    private static final int ELEMENT_OVERHEAD = 96;
+
+    private static final Object[] NO_TAGS = {};
+
+    private static final int DISK_READ_THREADS = Runtime.getRuntime().availableProcessors();
+
     private String name = "ehcache";
     
     /*
@@ -68,19 +102,206 @@ final class EhCacheService implements CacheService, Initializable, Disposable {
     
     private TimeUnit diskExpiryThreadIntervalUnit = TimeUnit.SECONDS;
 
+    private long loaderTimeout = 30L;
+
+    private TimeUnit loaderTimeoutUnit = TimeUnit.SECONDS;
+
+    private ValueLoader defaultLoader;
+
+    private boolean metricsEnabled = true;
+
+    private Codec codec = JavaCodec.INSTANCE;
+
+    private long maxBytesOffHeap;
+
+    private long maxBytesInMemory;
+
+    private long maxBytesOnDisk;
+
+    private String diskStore = DISK_STORE_EHCACHE;
+
+    private int diskSegmentSize = 64 * 1024 * 1024;
+
+    private List<String> diskStorePaths = Collections.emptyList();
+
+    private int diskFilterSize;
+
+    private boolean diskCompression;
+
+    private int diskCompressionThreshold = 512;
+
+    private File snapshotFile;
+
+    private int snapshotSize = 1000;
+
+    private boolean snapshotKeysOnly;
+
+    private long warmUpTimeout = 10L;
+
+    private TimeUnit warmUpTimeoutUnit = TimeUnit.SECONDS;
+
+    private double refreshFraction;
+
+    private int refreshThreads = 2;
+
+    private int refreshQueueSize = 1024;
+
+    private boolean tinyLfu;
+
+    private int nearCacheSize;
+
+    private long nearCacheMaxAge = 1L;
+
+    private TimeUnit nearCacheMaxAgeUnit = TimeUnit.SECONDS;
+
+    private long expiryInterval = 100L;
+
+    private TimeUnit expiryIntervalUnit = TimeUnit.MILLISECONDS;
+
+    private long negativeTimeToLive;
+
+    private TimeUnit negativeTimeToLiveUnit = TimeUnit.SECONDS;
+
+    private int absentFilterSize;
+
+    private double absentFilterFpp = 0.01;
+
+    private int eventBufferSize;
+
+    private long eventInterval = 10L;
+
+    private TimeUnit eventIntervalUnit = TimeUnit.MILLISECONDS;
+
+    private String invalidationTransport;
+
+    private CacheWriter writer;
+
+    private int writeBatchSize = 100;
+
+    private long writeDelay = 1L;
+
+    private TimeUnit writeDelayUnit = TimeUnit.SECONDS;
+
+    private int writeQueueSize = 10000;
+
+    private long invalidationWindow = 10L;
+
+    private TimeUnit invalidationWindowUnit = TimeUnit.MILLISECONDS;
+
     /*
      * End configuration parameters. 
      */
     
-    private final CacheManager manager = CacheManager.create();
+    private final ManagedCacheManager managed;
+    
+    private final CacheManager manager;
+    
+    private final CountDownLatch started = new CountDownLatch(1);
+    
+    private volatile RuntimeException startupFailure;
+    
+    private volatile boolean initialized;
+    
+    // whether this service added the cache to the manager and has to remove it again
+    private boolean owned;
     
     private Ehcache cache;
 
     private CacheConfiguration config;
 
+    private final InFlightLoads loads = new InFlightLoads();
+
+    private ExecutorService diskReader;
+
+    private boolean wrapValues;
+
+    // off-heap and/or mapped disk store, values evicted from memory are moved there
+    private ByteStore tiers;
+
+    // the mapped disk store if it survives restarts, memory is flushed into it on dispose
+    private ByteStore persistentTier;
+
+    private CacheEventListener tierListener;
+
+    private RefreshAhead refreshAhead;
+
+    private ObjectSizer sizer;
+
+    private ByteBudget budget;
+
+    private CacheEventListener budgetListener;
+
+    private TinyLfuPolicy policy;
+
+    private CacheEventListener policyListener;
+
+    private NearCache nearCache;
+
+    private CacheEventListener nearCacheListener;
+
+    // expires entries with millisecond precision, ehcache only knows seconds,
+    // created once the first duration which is not a whole number of seconds shows up
+    private volatile TimerWheel wheel;
+
+    private CacheEventListener wheelListener;
+
+    private ScheduledExecutorService expiry;
+
+    private final TagIndex tags = new TagIndex();
+
+    private CacheEventListener tagListener;
+
+    // captures the element removed by the current thread, ehcache notifies listeners synchronously
+    private final ThreadLocal<Element[]> removals = new ThreadLocal<Element[]>();
+
+    private CacheEventListener removalListener;
+
+    // marks removals of the current thread which are followed by an eviction or expiry notification
+    private final ThreadLocal<Boolean> internalRemovals = new ThreadLocal<Boolean>();
+
+    private EventPipeline events;
+
+    private CacheEventListener eventListener;
+
+    private InvalidationBus bus;
+
+    private WriteBehindQueue writeBehind;
+
+    private volatile long timeToLiveMillis;
+
+    private long timeToIdleMillis;
+
+    private long negativeTimeToLiveMillis;
+
+    private AbsentKeys absentKeys;
+
+    private int warmedUp;
+
+    private CacheMetrics metrics;
+
+    private CacheEventListener metricsListener;
+
+    private ObjectName metricsName;
+
+    /**
+     * Value of {@link EhCacheServiceConfig#DISK_STORE} for the disk store of ehcache.
+     */
+    static final String DISK_STORE_EHCACHE = "ehcache";
+
+    /**
+     * Value of {@link EhCacheServiceConfig#DISK_STORE} for the {@link MappedDiskStore}.
+     */
+    static final String DISK_STORE_MAPPED = "mapped";
+
+    EhCacheService(String name) {
+        this(name, ManagedCacheManager.DEFAULT);
+    }
+    
     @Inject
-    EhCacheService(@Named(EhCacheServiceConfig.NAME) String name) {
+    EhCacheService(@Named(EhCacheServiceConfig.NAME) String name, ManagedCacheManager managed) {
         this.name = name;
+        this.managed = Preconditions.checkNotNull(managed, "Managed");
+        this.manager = managed.acquire();
         if (manager.cacheExists(name)) {
             this.config = manager.getCache(name).getCacheConfiguration();
             timeToLive = this.config.getTimeToLiveSeconds();
@@ -128,253 +349,2297 @@ final class EhCacheService implements CacheService, Initializable, Disposable {
     }
 
     /**
-     * Sets eternal to the given value.
-     * @param eternal the new eternal value
+     * Sets how long readers wait for a load of the same key which is already running in another thread.
+     * The thread which started the load runs the loader itself, so its load is bounded by the loader only.
+     * @param loaderTimeout the timeout
      */
     @Inject(optional = true)
-    void setEternal(@Named(EhCacheServiceConfig.ETERNAL) boolean eternal) {
-        config.setEternal(eternal);
+    void setLoaderTimeout(@Named(EhCacheServiceConfig.LOADER_TIMEOUT) long loaderTimeout) {
+        this.loaderTimeout = loaderTimeout;
+    }
+
+    @Inject(optional = true)
+    void setLoaderTimeoutUnit(@Named(EhCacheServiceConfig.LOADER_TIMEOUT_UNIT) TimeUnit loaderTimeoutUnit) {
+        this.loaderTimeoutUnit = loaderTimeoutUnit;
     }
 
     /**
-     * Sets overflow to disk.
-     * @param overflowToDisk whether or not to overflow to disk
+     * Sets whether hit/miss counts, latencies and evictions are recorded and exported via JMX.
+     * @param metricsEnabled true to record metrics, false otherwise
      */
     @Inject(optional = true)
-    void setOverflowToDisk(@Named(EhCacheServiceConfig.OVERFLOW_TO_DISK) boolean overflowToDisk) {
-        config.setOverflowToDisk(overflowToDisk);
+    void setMetricsEnabled(@Named(EhCacheServiceConfig.METRICS_ENABLED) boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
     }
 
     /**
-     * The eviction policy that applies when elements have to be evicted from the cache.
-     * @param cacheMode the new cache mode (or eviction policy for EhCache)
+     * Sets the codec which is used to serialize values for the disk store, either "java" (the default),
+     * "compact" or the fully qualified class name of a {@link Codec} implementation.
+     * @param codec the codec name
      */
     @Inject(optional = true)
-    void setMemoryStoreEvictionPolicy(@Named(EhCacheServiceConfig.CACHE_MODE) CacheMode cacheMode) {
-        config.setMemoryStoreEvictionPolicyFromObject(of(cacheMode));
+    void setCodec(@Named(EhCacheServiceConfig.CODEC) String codec) {
+        this.codec = Codecs.forName(codec);
     }
 
     /**
-     * Sets whether the disk store persists between CacheManager instances.
-     * Note that this operates independently of overflowToDisk.
-     * @param diskPersistent new value for disk persistent
+     * Sets the maximum number of bytes stored outside of the heap. Values evicted
+     * from memory are moved to the off-heap store. 0 (the default) disables the off-heap store.
+     * @param maxBytesOffHeap the off-heap limit in bytes
      */
     @Inject(optional = true)
-    void setDiskPersistent(@Named(EhCacheServiceConfig.DISK_PERSISTENT) boolean diskPersistent) {
-        config.setDiskPersistent(diskPersistent);
+    void setMaxBytesOffHeap(@Named(EhCacheServiceConfig.MAX_BYTES_OFF_HEAP) long maxBytesOffHeap) {
+        Preconditions.checkArgument(maxBytesOffHeap >= 0, "Max bytes off heap must not be negative, but was %s",
+            maxBytesOffHeap);
+        this.maxBytesOffHeap = maxBytesOffHeap;
     }
 
     /**
-     * Sets the path that will be used for the disk store.
-     * @param diskStorePath the path for the disk store (if used)
+     * Sets the maximum estimated number of bytes of all keys and values in memory. Sizes
+     * are estimated by sampling the object graphs of stored values. Once the limit is exceeded,
+     * elements which have not been read recently are evicted. 0 (the default) disables the limit,
+     * maxElementsInMemory applies in any case.
+     * @param maxBytesInMemory the memory limit in bytes
      */
     @Inject(optional = true)
-    void setDiskStorePath(@Named(EhCacheServiceConfig.DISK_STORE_PATH) String diskStorePath) {
-        config.setDiskStorePath(diskStorePath);
+    void setMaxBytesInMemory(@Named(EhCacheServiceConfig.MAX_BYTES_IN_MEMORY) long maxBytesInMemory) {
+        Preconditions.checkArgument(maxBytesInMemory >= 0, "Max bytes in memory must not be negative, but was %s",
+            maxBytesInMemory);
+        this.maxBytesInMemory = maxBytesInMemory;
     }
 
     /**
-     * Sets the maximum number of elements in memory. 0 means unlimited.
-     * @param maxElementsInMemory maximum number of elements in memory
+     * Sets the maximum number of bytes on disk. Requires the mapped disk store, which drops
+     * its oldest segment once the limit is reached. 0 (the default) disables the limit.
+     * @param maxBytesOnDisk the disk limit in bytes
      */
     @Inject(optional = true)
-    void setMaxElementsInMemory(@Named(EhCacheServiceConfig.MAX_ELEMENTS_IN_MEMORY) int maxElementsInMemory) {
-        config.setMaxElementsInMemory(maxElementsInMemory);
+    void setMaxBytesOnDisk(@Named(EhCacheServiceConfig.MAX_BYTES_ON_DISK) long maxBytesOnDisk) {
+        Preconditions.checkArgument(maxBytesOnDisk >= 0, "Max bytes on disk must not be negative, but was %s",
+            maxBytesOnDisk);
+        this.maxBytesOnDisk = maxBytesOnDisk;
     }
 
     /**
-     * Sets the maximum number elements on Disk. 0 means unlimited.
-     * @param maxElementsOnDisk maximum number of elements on disk
+     * Sets the disk store implementation, either "ehcache" (the default) or "mapped". The mapped
+     * store keeps its index in a memory mapped file and reopens persistent caches without reading
+     * their entries. It takes over overflowToDisk and diskPersistent and stores its files in
+     * a sub directory of the diskStorePath.
+     * @param diskStore the disk store name
      */
     @Inject(optional = true)
-    void setMaxElementsOnDisk(@Named(EhCacheServiceConfig.MAX_ELEMENTS_ON_DISK) int maxElementsOnDisk) {
-        config.setMaxElementsOnDisk(maxElementsOnDisk);
+    void setDiskStore(@Named(EhCacheServiceConfig.DISK_STORE) String diskStore) {
+        Preconditions.checkArgument(DISK_STORE_EHCACHE.equals(diskStore) || DISK_STORE_MAPPED.equals(diskStore),
+            "Unknown disk store %s", diskStore);
+        this.diskStore = diskStore;
     }
 
     /**
-     * Sets the disk spool size, which is used to buffer writes to the DiskStore.
-     * @param diskSpoolBufferSizeMB buffer size in MB, positive number
+     * Sets a comma separated list of directories the mapped disk store is sharded across,
+     * e.g. one per disk. Keys are split across the shards by hash and each shard has its own
+     * files and compaction thread. Overrides diskStorePath and requires the mapped disk store.
+     * @param diskStorePaths the comma separated directories
      */
     @Inject(optional = true)
-    void setDiskSpoolBufferSizeMB(@Named(EhCacheServiceConfig.DISK_SPOOL_BUFFER_SIZE_MB) int diskSpoolBufferSizeMB) {
-        config.setDiskSpoolBufferSizeMB(diskSpoolBufferSizeMB);
+    void setDiskStorePaths(@Named(EhCacheServiceConfig.DISK_STORE_PATHS) String diskStorePaths) {
+        this.diskStorePaths = Lists.newArrayList(
+            Splitter.on(',').trimResults().omitEmptyStrings().split(diskStorePaths));
     }
 
     /**
-     * Sets whether the MemoryStore should be cleared when flush() is called on the cache - true by default.
-     * @param clearOnFlush true to clear on flush
+     * Sets the number of keys the filter in front of the mapped disk store is sized for.
+     * Reads of keys which have never been moved to disk skip the disk store, the filter of a
+     * persistent store is persisted along with it. Enabling the filter clears existing persistent
+     * stores, which have no filter yet. 0 (the default) disables the filter.
+     * @param diskFilterSize the expected number of keys on disk
      */
     @Inject(optional = true)
-    void setClearOnFlush(@Named(EhCacheServiceConfig.CLEAR_ON_FLUSH) boolean clearOnFlush) {
-        config.setClearOnFlush(clearOnFlush);
+    void setDiskFilterSize(@Named(EhCacheServiceConfig.DISK_FILTER_SIZE) int diskFilterSize) {
+        Preconditions.checkArgument(diskFilterSize >= 0, "Disk filter size must not be negative, but was %s",
+            diskFilterSize);
+        this.diskFilterSize = diskFilterSize;
     }
 
     /**
-     * Indicates whether to cluster this cache with Terracotta.
-     * If terracotta is used this defaults to true.
-     * @param terracottaClustered true to cluster with terracotta, false otherwise
+     * Sets whether values are compressed before they are written to the mapped disk store.
+     * Toggling the compression or switching the compressor clears existing persistent stores.
+     * @param diskCompression true to compress values on disk, false (the default) to write them raw
      */
     @Inject(optional = true)
-    void setTerracottaClustered(@Named(EhCacheServiceConfig.IS_TERRACOTTA_CLUSTERED) boolean terracottaClustered) {
-        if (config.getTerracottaConfiguration() == null) {
-            config.addTerracotta(new TerracottaConfiguration());
-        }
-        config.getTerracottaConfiguration().setClustered(terracottaClustered);
+    void setDiskCompression(@Named(EhCacheServiceConfig.DISK_COMPRESSION) boolean diskCompression) {
+        this.diskCompression = diskCompression;
+    }
+    
+    /**
+     * Sets the size below which values are written raw, even if disk compression is enabled.
+     * @param diskCompressionThreshold the threshold in bytes, defaults to 512
+     */
+    @Inject(optional = true)
+    void setDiskCompressionThreshold(
+        @Named(EhCacheServiceConfig.DISK_COMPRESSION_THRESHOLD) int diskCompressionThreshold) {
+        Preconditions.checkArgument(diskCompressionThreshold >= 0,
+            "Disk compression threshold must not be negative, but was %s", diskCompressionThreshold);
+        this.diskCompressionThreshold = diskCompressionThreshold;
     }
 
     /**
-     * Represents whether values are stored with serialization in the clustered store
-     * or through Terracotta clustered identity.
-     * @param terracottaValueMode the value mode, as in {@link net.sf.ehcache.config.TerracottaConfiguration.ValueMode}
+     * Sets the size of a single log segment of the mapped disk store in bytes, 64 MB by default.
+     * @param diskSegmentSize the segment size in bytes
      */
     @Inject(optional = true)
-    void setTerracottaValueMode(@Named(EhCacheServiceConfig.TERRACOTTA_VALUE_MODE) String terracottaValueMode) {
-        if (config.getTerracottaConfiguration() == null) {
-            config.addTerracotta(new TerracottaConfiguration());
-        }
-        config.getTerracottaConfiguration().setValueMode(terracottaValueMode);
+    void setDiskSegmentSize(@Named(EhCacheServiceConfig.DISK_SEGMENT_SIZE) int diskSegmentSize) {
+        this.diskSegmentSize = diskSegmentSize;
     }
 
     /**
-     * Sets coherent reads in the terracotta config and activates terracotta if not already done.
-     * @param terracottaCoherentReads true for coherent reads
+     * Sets the file the hot set of this cache is written to on {@link #dispose()} and
+     * loaded from on {@link #initialize()}. No snapshot is taken by default.
+     * @param snapshotFile the path of the snapshot file
      */
     @Inject(optional = true)
-    void setTerracottaCoherentReads(
-        @Named(EhCacheServiceConfig.TERRACOTTA_COHERENT_READS) boolean terracottaCoherentReads) {
-        if (config.getTerracottaConfiguration() == null) {
-            config.addTerracotta(new TerracottaConfiguration());
-        }
-        config.getTerracottaConfiguration().setCoherent(terracottaCoherentReads);
+    void setSnapshotFile(@Named(EhCacheServiceConfig.SNAPSHOT_FILE) String snapshotFile) {
+        this.snapshotFile = new File(snapshotFile);
     }
 
-    private MemoryStoreEvictionPolicy of(CacheMode mode) {
-        switch (mode) {
-            case LRU: {
-                return MemoryStoreEvictionPolicy.LRU;
-            }
-            case LFU: {
-                return MemoryStoreEvictionPolicy.LFU;
-            }
-            case FIFO: {
-                return MemoryStoreEvictionPolicy.FIFO;
-            }
-            default: {
-                throw new UnsupportedOperationException(mode.name());
-            }
-        }
+    /**
+     * Sets the number of most frequently accessed entries written to the snapshot, 1000 by default.
+     * @param snapshotSize the maximum number of entries in the snapshot
+     */
+    @Inject(optional = true)
+    void setSnapshotSize(@Named(EhCacheServiceConfig.SNAPSHOT_SIZE) int snapshotSize) {
+        this.snapshotSize = snapshotSize;
     }
-    
-    @Override
-    public void initialize() {
-        config.setTimeToLiveSeconds(timeToLiveUnit.toSeconds(timeToLive));
-        config.setTimeToIdleSeconds(timeToIdleUnit.toSeconds(timeToIdle));
-        config.setDiskExpiryThreadIntervalSeconds(diskExpiryThreadIntervalUnit.toSeconds(diskExpiryThreadInterval));
-        config.validateCompleteConfiguration();
 
-        logConfiguredValues();
+    /**
+     * Sets whether the snapshot holds keys only. Values will then be loaded
+     * using the default loader during warm-up.
+     * @param snapshotKeysOnly true to omit values, false otherwise
+     */
+    @Inject(optional = true)
+    void setSnapshotKeysOnly(@Named(EhCacheServiceConfig.SNAPSHOT_KEYS_ONLY) boolean snapshotKeysOnly) {
+        this.snapshotKeysOnly = snapshotKeysOnly;
+    }
 
-        if (!manager.cacheExists(name)) {
-            cache = new Cache(config);
-            cache.initialise();
-            manager.addCache(name);
-        } else {
-            cache = manager.getCache(name);
-        }
+    @Inject(optional = true)
+    void setWarmUpTimeout(@Named(EhCacheServiceConfig.WARM_UP_TIMEOUT) long warmUpTimeout) {
+        this.warmUpTimeout = warmUpTimeout;
     }
 
-    private void logConfiguredValues() {
-        final TerracottaConfiguration terracottaConfiguration = config.getTerracottaConfiguration();
-        final boolean terracottaCoherent;
-        final TerracottaConfiguration.ValueMode terracottaValueMode;
-        if (terracottaConfiguration == null) {
-            terracottaCoherent = false;
-            terracottaValueMode = null;
-        } else {
-            terracottaCoherent = terracottaConfiguration.isCoherent();
-            terracottaValueMode = terracottaConfiguration.getValueMode();
-        }
+    @Inject(optional = true)
+    void setWarmUpTimeoutUnit(@Named(EhCacheServiceConfig.WARM_UP_TIMEOUT_UNIT) TimeUnit warmUpTimeoutUnit) {
+        this.warmUpTimeoutUnit = warmUpTimeoutUnit;
+    }
 
-        LOG.info("Ehcache: [clearOnFlush={}, diskExpiryThreadInterval={}, diskExpiryThreadIntervalUnit={}, " +
-            "diskPersistent={}, diskSpoolBufferSizeMB={}, diskStorePath={}, eternal={}, isTerracottaClustered={}, " +
-            "maxElementsInMemory={}, maxElementsOnDisk={}, memoryStoreEvictionPolicy={}, overflowToDisk={}, " +
-            "terracottaCoherentReads={}, terracottaValueMode={}, timeToIdle={}, timeToIdleUnit={}, timeToLive={}, " +
-            "timeToLiveUnit={}]", new Object[] {
-                config.isClearOnFlush(), diskExpiryThreadInterval, diskExpiryThreadIntervalUnit,
-                config.isDiskPersistent(), config.getDiskSpoolBufferSizeMB(), config.getDiskStorePath(),
-                config.isEternal(), config.isTerracottaClustered(), config.getMaxElementsInMemory(),
-                config.getMaxElementsOnDisk(), config.getMemoryStoreEvictionPolicy(), config.isOverflowToDisk(),
-                terracottaCoherent, terracottaValueMode, timeToIdle, timeToIdleUnit, timeToLive, timeToLiveUnit
-            }
-        );
+    /**
+     * Sets the fraction of the time to live after which a read schedules a background reload
+     * of the entry, e.g. 0.75. Readers keep getting the current value while the reload is running.
+     * Reloads use the loader of the read, so only {@link #read(Serializable, ValueLoader)} and
+     * {@link #load(Serializable)}, which uses the default loader, trigger them. 0 (the default)
+     * disables refresh-ahead.
+     * @param refreshFraction the fraction, 0 or greater than 0 and less than 1
+     */
+    @Inject(optional = true)
+    void setRefreshFraction(@Named(EhCacheServiceConfig.REFRESH_FRACTION) double refreshFraction) {
+        Preconditions.checkArgument(refreshFraction >= 0 && refreshFraction < 1,
+            "Refresh fraction must be at least 0 and less than 1, but was %s", refreshFraction);
+        this.refreshFraction = refreshFraction;
     }
 
-    @Override
-    public long getMaxAge() {
-        return cache.getCacheConfiguration().getTimeToLiveSeconds();
+    /**
+     * Sets the number of threads running background reloads, 2 by default.
+     * @param refreshThreads the number of threads, positive number
+     */
+    @Inject(optional = true)
+    void setRefreshThreads(@Named(EhCacheServiceConfig.REFRESH_THREADS) int refreshThreads) {
+        this.refreshThreads = refreshThreads;
     }
 
-    @Override
-    public long getMaxAge(TimeUnit unit) {
-        return unit.convert(getMaxAge(), TimeUnit.SECONDS);
+    /**
+     * Sets the maximum number of pending background reloads. Further reloads are skipped.
+     * @param refreshQueueSize the queue size, positive number
+     */
+    @Inject(optional = true)
+    void setRefreshQueueSize(@Named(EhCacheServiceConfig.REFRESH_QUEUE_SIZE) int refreshQueueSize) {
+        this.refreshQueueSize = refreshQueueSize;
     }
 
-    @Override
-    public void setMaxAge(long maxAgeSeconds) {
-        Preconditions.checkArgument(maxAgeSeconds >= 0, MAX_AGE_NEGATIVE, maxAgeSeconds);
-        cache.getCacheConfiguration().setTimeToLiveSeconds(maxAgeSeconds);
-        cache.getCacheConfiguration().setEternal(false);
+    /**
+     * Sets the number of elements each thread keeps in its near cache in front of ehcache.
+     * Reads served by the near cache skip the locks and the statistics of ehcache, which
+     * helps with a few extremely hot keys. 0 (the default) disables the near cache.
+     * @param nearCacheSize the number of elements per thread
+     */
+    @Inject(optional = true)
+    void setNearCacheSize(@Named(EhCacheServiceConfig.NEAR_CACHE_SIZE) int nearCacheSize) {
+        Preconditions.checkArgument(nearCacheSize >= 0, "Near cache size must not be negative, but was %s",
+            nearCacheSize);
+        this.nearCacheSize = nearCacheSize;
     }
 
-    @Override
-    public void setMaxAge(long maxAge, TimeUnit maxAgeUnit) {
-        Preconditions.checkArgument(maxAge >= 0, MAX_AGE_NEGATIVE, maxAge);
-        Preconditions.checkNotNull(maxAgeUnit, "MaxAge TimeUnit");
-        this.setMaxAge(maxAgeUnit.toSeconds(maxAge));
+    /**
+     * Sets how long the near cache may serve an element without looking at ehcache, 1 second by default.
+     * Stores, removes and clears on this service are visible immediately, this only bounds the
+     * staleness of changes which bypass this service.
+     * @param nearCacheMaxAge the max age
+     */
+    @Inject(optional = true)
+    void setNearCacheMaxAge(@Named(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE) long nearCacheMaxAge) {
+        this.nearCacheMaxAge = nearCacheMaxAge;
     }
-    
-    @Override
-    public void store(Serializable key, Object value) {
-        Preconditions.checkNotNull(key, "Key");
-        final Element element = new Element(key, value);
-        cache.putQuiet(element);
+
+    @Inject(optional = true)
+    void setNearCacheMaxAgeUnit(@Named(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE_UNIT) TimeUnit nearCacheMaxAgeUnit) {
+        this.nearCacheMaxAgeUnit = nearCacheMaxAgeUnit;
     }
 
-    @Override
-    public void store(final Serializable key, final Object value, final long maxAge, final TimeUnit maxAgeUnit) {
-        Preconditions.checkNotNull(key, "Key");
+    /**
+     * Sets how often expired entries are removed from memory, 100 milliseconds by default.
+     * Reads never return expired entries, regardless of this interval. Only applies once a time
+     * to live or time to idle which is not a whole number of seconds is used, ehcache expires all others.
+     * @param expiryInterval the interval, positive number
+     */
+    @Inject(optional = true)
+    void setExpiryInterval(@Named(EhCacheServiceConfig.EXPIRY_INTERVAL) long expiryInterval) {
+        Preconditions.checkArgument(expiryInterval > 0, "Expiry interval must be positive, but was %s",
+            expiryInterval);
+        this.expiryInterval = expiryInterval;
+    }
+
+    @Inject(optional = true)
+    void setExpiryIntervalUnit(@Named(EhCacheServiceConfig.EXPIRY_INTERVAL_UNIT) TimeUnit expiryIntervalUnit) {
+        this.expiryIntervalUnit = Preconditions.checkNotNull(expiryIntervalUnit, "ExpiryIntervalUnit");
+    }
+
+    /**
+     * Sets how long a loader result of null is remembered. Reads of such a key return null
+     * without calling the loader again until the negative entry expired or a value has been stored.
+     * 0 (the default) disables caching of misses.
+     * @param negativeTimeToLive the time to live of negative entries
+     */
+    @Inject(optional = true)
+    void setNegativeTimeToLive(@Named(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE) long negativeTimeToLive) {
+        Preconditions.checkArgument(negativeTimeToLive >= 0, "Negative time to live must not be negative, but was %s",
+            negativeTimeToLive);
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    @Inject(optional = true)
+    void setNegativeTimeToLiveUnit(@Named(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE_UNIT)
+        TimeUnit negativeTimeToLiveUnit) {
+        this.negativeTimeToLiveUnit = Preconditions.checkNotNull(negativeTimeToLiveUnit, "NegativeTimeToLiveUnit");
+    }
+
+    /**
+     * Sets the number of absent keys per bloom filter generation. If set, absent keys are
+     * remembered in a bloom filter instead of negative entries, so a flood of reads for
+     * nonexistent keys doesn't grow the cache. Requires a negative time to live.
+     * 0 (the default) disables the filter.
+     * @param absentFilterSize the expected number of absent keys
+     */
+    @Inject(optional = true)
+    void setAbsentFilterSize(@Named(EhCacheServiceConfig.ABSENT_FILTER_SIZE) int absentFilterSize) {
+        Preconditions.checkArgument(absentFilterSize >= 0, "Absent filter size must not be negative, but was %s",
+            absentFilterSize);
+        this.absentFilterSize = absentFilterSize;
+    }
+
+    /**
+     * Sets the probability of keys being reported absent although they are not, 0.01 by default.
+     * @param absentFilterFpp the false positive probability, between 0 and 1
+     */
+    @Inject(optional = true)
+    void setAbsentFilterFpp(@Named(EhCacheServiceConfig.ABSENT_FILTER_FPP) double absentFilterFpp) {
+        Preconditions.checkArgument(absentFilterFpp > 0.0 && absentFilterFpp < 1.0,
+            "Absent filter fpp must be between 0 and 1, but was %s", absentFilterFpp);
+        this.absentFilterFpp = absentFilterFpp;
+    }
+
+    /**
+     * Sets the number of events buffered for {@link CacheEventSubscriber}s. Events are dropped
+     * if the buffer is full. 0 (the default) disables events.
+     * @param eventBufferSize the buffer size, rounded up to the next power of two
+     */
+    @Inject(optional = true)
+    void setEventBufferSize(@Named(EhCacheServiceConfig.EVENT_BUFFER_SIZE) int eventBufferSize) {
+        Preconditions.checkArgument(eventBufferSize >= 0, "Event buffer size must not be negative, but was %s",
+            eventBufferSize);
+        this.eventBufferSize = eventBufferSize;
+    }
+
+    /**
+     * Sets how often buffered events are delivered, 10 milliseconds by default.
+     * @param eventInterval the interval, positive number
+     */
+    @Inject(optional = true)
+    void setEventInterval(@Named(EhCacheServiceConfig.EVENT_INTERVAL) long eventInterval) {
+        Preconditions.checkArgument(eventInterval > 0, "Event interval must be positive, but was %s", eventInterval);
+        this.eventInterval = eventInterval;
+    }
+
+    @Inject(optional = true)
+    void setEventIntervalUnit(@Named(EhCacheServiceConfig.EVENT_INTERVAL_UNIT) TimeUnit eventIntervalUnit) {
+        this.eventIntervalUnit = Preconditions.checkNotNull(eventIntervalUnit, "EventIntervalUnit");
+    }
+
+    /**
+     * Sets the transport used to propagate stores and removals to the caches of the same
+     * name on other nodes, see {@link InvalidationTransports} for the supported addresses.
+     * Defaults to none.
+     * @param invalidationTransport the transport address
+     */
+    @Inject(optional = true)
+    void setInvalidationTransport(@Named(EhCacheServiceConfig.INVALIDATION_TRANSPORT) String invalidationTransport) {
+        this.invalidationTransport = Preconditions.checkNotNull(invalidationTransport, "InvalidationTransport");
+    }
+
+    /**
+     * Sets the window in which invalidations are collected and deduplicated before they are sent,
+     * 10 milliseconds by default.
+     * @param invalidationWindow the window, positive number
+     */
+    @Inject(optional = true)
+    void setInvalidationWindow(@Named(EhCacheServiceConfig.INVALIDATION_WINDOW) long invalidationWindow) {
+        Preconditions.checkArgument(invalidationWindow > 0, "Invalidation window must be positive, but was %s",
+            invalidationWindow);
+        this.invalidationWindow = invalidationWindow;
+    }
+
+    @Inject(optional = true)
+    void setInvalidationWindowUnit(@Named(EhCacheServiceConfig.INVALIDATION_WINDOW_UNIT)
+        TimeUnit invalidationWindowUnit) {
+        this.invalidationWindowUnit = Preconditions.checkNotNull(invalidationWindowUnit, "InvalidationWindowUnit");
+    }
+
+    /**
+     * Sets the loader used by {@link #load(Serializable)} and to load the values of a keys-only
+     * snapshot during warm-up. {@link #read(Serializable)} never loads.
+     * @param defaultLoader the default loader
+     */
+    @Inject(optional = true)
+    void setDefaultLoader(@Named(EhCacheServiceConfig.DEFAULT_LOADER) ValueLoader defaultLoader) {
+        this.defaultLoader = defaultLoader;
+    }
+
+    /**
+     * Sets the writer which writes stored and removed keys to the backing store behind the cache.
+     * Values loaded by a {@link ValueLoader}, evictions and expirations are not written.
+     * @param writer the writer
+     */
+    @Inject(optional = true)
+    void setWriter(@Named(EhCacheServiceConfig.WRITER) CacheWriter writer) {
+        this.writer = Preconditions.checkNotNull(writer, "Writer");
+    }
+
+    /**
+     * Sets the maximum number of keys handed to the writer at once, 100 by default.
+     * @param writeBatchSize the batch size, positive number
+     */
+    @Inject(optional = true)
+    void setWriteBatchSize(@Named(EhCacheServiceConfig.WRITE_BATCH_SIZE) int writeBatchSize) {
+        Preconditions.checkArgument(writeBatchSize > 0, "Write batch size must be positive, but was %s",
+            writeBatchSize);
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * Sets how long changes are collected before they are written, 1 second by default.
+     * Repeated changes of the same key within this delay are written once. With a delay of 0,
+     * changes are written as soon as the writer thread is idle.
+     * @param writeDelay the delay
+     */
+    @Inject(optional = true)
+    void setWriteDelay(@Named(EhCacheServiceConfig.WRITE_DELAY) long writeDelay) {
+        Preconditions.checkArgument(writeDelay >= 0, "Write delay must not be negative, but was %s", writeDelay);
+        this.writeDelay = writeDelay;
+    }
+
+    @Inject(optional = true)
+    void setWriteDelayUnit(@Named(EhCacheServiceConfig.WRITE_DELAY_UNIT) TimeUnit writeDelayUnit) {
+        this.writeDelayUnit = Preconditions.checkNotNull(writeDelayUnit, "WriteDelayUnit");
+    }
+
+    /**
+     * Sets the maximum number of keys waiting to be written, 10000 by default. Stores and removes
+     * of other keys block while the queue is full.
+     * @param writeQueueSize the queue size, positive number
+     */
+    @Inject(optional = true)
+    void setWriteQueueSize(@Named(EhCacheServiceConfig.WRITE_QUEUE_SIZE) int writeQueueSize) {
+        Preconditions.checkArgument(writeQueueSize > 0, "Write queue size must be positive, but was %s",
+            writeQueueSize);
+        this.writeQueueSize = writeQueueSize;
+    }
+
+    /**
+     * Sets eternal to the given value.
+     * @param eternal the new eternal value
+     */
+    @Inject(optional = true)
+    void setEternal(@Named(EhCacheServiceConfig.ETERNAL) boolean eternal) {
+        config.setEternal(eternal);
+    }
+
+    /**
+     * Sets overflow to disk.
+     * @param overflowToDisk whether or not to overflow to disk
+     */
+    @Inject(optional = true)
+    void setOverflowToDisk(@Named(EhCacheServiceConfig.OVERFLOW_TO_DISK) boolean overflowToDisk) {
+        config.setOverflowToDisk(overflowToDisk);
+    }
+
+    /**
+     * The eviction policy that applies when elements have to be evicted from the cache.
+     * @param cacheMode the new cache mode (or eviction policy for EhCache)
+     */
+    @Inject(optional = true)
+    void setMemoryStoreEvictionPolicy(@Named(EhCacheServiceConfig.CACHE_MODE) CacheMode cacheMode) {
+        config.setMemoryStoreEvictionPolicyFromObject(of(cacheMode));
+    }
+
+    /**
+     * Sets the eviction policy. In contrast to {@link #setMemoryStoreEvictionPolicy(CacheMode)},
+     * this supports {@link EvictionPolicy#TINY_LFU}, which takes over eviction from ehcache
+     * and requires maxElementsInMemory to be set.
+     * @param evictionPolicy the eviction policy
+     */
+    @Inject(optional = true)
+    void setEvictionPolicy(@Named(EhCacheServiceConfig.EVICTION_POLICY) EvictionPolicy evictionPolicy) {
+        tinyLfu = evictionPolicy == EvictionPolicy.TINY_LFU;
+        if (!tinyLfu) {
+            setMemoryStoreEvictionPolicy(CacheMode.valueOf(evictionPolicy.name()));
+        }
+    }
+
+    /**
+     * Sets whether the disk store persists between CacheManager instances.
+     * Note that this operates independently of overflowToDisk.
+     * @param diskPersistent new value for disk persistent
+     */
+    @Inject(optional = true)
+    void setDiskPersistent(@Named(EhCacheServiceConfig.DISK_PERSISTENT) boolean diskPersistent) {
+        config.setDiskPersistent(diskPersistent);
+    }
+
+    /**
+     * Sets the path that will be used for the disk store.
+     * @param diskStorePath the path for the disk store (if used)
+     */
+    @Inject(optional = true)
+    void setDiskStorePath(@Named(EhCacheServiceConfig.DISK_STORE_PATH) String diskStorePath) {
+        config.setDiskStorePath(diskStorePath);
+    }
+
+    /**
+     * Sets the maximum number of elements in memory. 0 means unlimited.
+     * @param maxElementsInMemory maximum number of elements in memory
+     */
+    @Inject(optional = true)
+    void setMaxElementsInMemory(@Named(EhCacheServiceConfig.MAX_ELEMENTS_IN_MEMORY) int maxElementsInMemory) {
+        config.setMaxElementsInMemory(maxElementsInMemory);
+    }
+
+    /**
+     * Sets the maximum number elements on Disk. 0 means unlimited.
+     * @param maxElementsOnDisk maximum number of elements on disk
+     */
+    @Inject(optional = true)
+    void setMaxElementsOnDisk(@Named(EhCacheServiceConfig.MAX_ELEMENTS_ON_DISK) int maxElementsOnDisk) {
+        config.setMaxElementsOnDisk(maxElementsOnDisk);
+    }
+
+    /**
+     * Sets the disk spool size, which is used to buffer writes to the DiskStore.
+     * @param diskSpoolBufferSizeMB buffer size in MB, positive number
+     */
+    @Inject(optional = true)
+    void setDiskSpoolBufferSizeMB(@Named(EhCacheServiceConfig.DISK_SPOOL_BUFFER_SIZE_MB) int diskSpoolBufferSizeMB) {
+        config.setDiskSpoolBufferSizeMB(diskSpoolBufferSizeMB);
+    }
+
+    /**
+     * Sets whether the MemoryStore should be cleared when flush() is called on the cache - true by default.
+     * @param clearOnFlush true to clear on flush
+     */
+    @Inject(optional = true)
+    void setClearOnFlush(@Named(EhCacheServiceConfig.CLEAR_ON_FLUSH) boolean clearOnFlush) {
+        config.setClearOnFlush(clearOnFlush);
+    }
+
+    /**
+     * Indicates whether to cluster this cache with Terracotta.
+     * If terracotta is used this defaults to true.
+     * @param terracottaClustered true to cluster with terracotta, false otherwise
+     */
+    @Inject(optional = true)
+    void setTerracottaClustered(@Named(EhCacheServiceConfig.IS_TERRACOTTA_CLUSTERED) boolean terracottaClustered) {
+        if (config.getTerracottaConfiguration() == null) {
+            config.addTerracotta(new TerracottaConfiguration());
+        }
+        config.getTerracottaConfiguration().setClustered(terracottaClustered);
+    }
+
+    /**
+     * Represents whether values are stored with serialization in the clustered store
+     * or through Terracotta clustered identity.
+     * @param terracottaValueMode the value mode, as in {@link net.sf.ehcache.config.TerracottaConfiguration.ValueMode}
+     */
+    @Inject(optional = true)
+    void setTerracottaValueMode(@Named(EhCacheServiceConfig.TERRACOTTA_VALUE_MODE) String terracottaValueMode) {
+        if (config.getTerracottaConfiguration() == null) {
+            config.addTerracotta(new TerracottaConfiguration());
+        }
+        config.getTerracottaConfiguration().setValueMode(terracottaValueMode);
+    }
+
+    /**
+     * Sets coherent reads in the terracotta config and activates terracotta if not already done.
+     * @param terracottaCoherentReads true for coherent reads
+     */
+    @Inject(optional = true)
+    void setTerracottaCoherentReads(
+        @Named(EhCacheServiceConfig.TERRACOTTA_COHERENT_READS) boolean terracottaCoherentReads) {
+        if (config.getTerracottaConfiguration() == null) {
+            config.addTerracotta(new TerracottaConfiguration());
+        }
+        config.getTerracottaConfiguration().setCoherent(terracottaCoherentReads);
+    }
+
+    private MemoryStoreEvictionPolicy of(CacheMode mode) {
+        switch (mode) {
+            case LRU: {
+                return MemoryStoreEvictionPolicy.LRU;
+            }
+            case LFU: {
+                return MemoryStoreEvictionPolicy.LFU;
+            }
+            case FIFO: {
+                return MemoryStoreEvictionPolicy.FIFO;
+            }
+            default: {
+                throw new UnsupportedOperationException(mode.name());
+            }
+        }
+    }
+    
+    @Override
+    public void initialize() {
+        // rounded up, the timer wheel expires entries with millisecond precision before ehcache does
+        config.setTimeToLiveSeconds(toSeconds(timeToLive, timeToLiveUnit));
+        config.setTimeToIdleSeconds(toSeconds(timeToIdle, timeToIdleUnit));
+        config.setDiskExpiryThreadIntervalSeconds(diskExpiryThreadIntervalUnit.toSeconds(diskExpiryThreadInterval));
+        
+        final boolean mappedOverflow;
+        final boolean mappedPersistent;
+        if (DISK_STORE_MAPPED.equals(diskStore)) {
+            Preconditions.checkState(!manager.cacheExists(name) ||
+                !(config.isOverflowToDisk() || config.isDiskPersistent()),
+                "Ehcache [%s] already uses the disk store of ehcache", name);
+            // the mapped disk store takes over, the disk store of ehcache stays unused
+            mappedOverflow = config.isOverflowToDisk();
+            mappedPersistent = config.isDiskPersistent();
+            config.setOverflowToDisk(false);
+            config.setDiskPersistent(false);
+        } else {
+            mappedOverflow = false;
+            mappedPersistent = false;
+        }
+        
+        final int maximumSize;
+        if (tinyLfu) {
+            Preconditions.checkState(!manager.cacheExists(name), "Ehcache [%s] already exists, can't use TinyLFU", name);
+            Preconditions.checkState(!config.isOverflowToDisk(),
+                "TinyLFU of %s evicts on its own, disable overflowToDisk or use the mapped disk store", name);
+            maximumSize = config.getMaxElementsInMemory();
+            Preconditions.checkState(maximumSize > 0, "TinyLFU of %s requires maxElementsInMemory", name);
+            // ehcache must not evict on its own
+            config.setMaxElementsInMemory(0);
+        } else {
+            maximumSize = 0;
+        }
+        Preconditions.checkState(maxBytesOnDisk == 0 || mappedOverflow || mappedPersistent,
+            "maxBytesOnDisk of %s requires the mapped disk store", name);
+        Preconditions.checkState(diskStorePaths.isEmpty() || DISK_STORE_MAPPED.equals(diskStore),
+            "diskStorePaths of %s requires the mapped disk store", name);
+        Preconditions.checkState(diskFilterSize == 0 || mappedOverflow || mappedPersistent,
+            "diskFilterSize of %s requires the mapped disk store", name);
+        Preconditions.checkState(!diskCompression || mappedOverflow || mappedPersistent,
+            "diskCompression of %s requires the mapped disk store", name);
+        Preconditions.checkState(maxBytesOffHeap == 0 || !config.isOverflowToDisk(),
+            "The off-heap store of %s replaces the memory-fed disk overflow, disable overflowToDisk", name);
+        Preconditions.checkState(absentFilterSize == 0 || negativeTimeToLive > 0,
+            "The absent filter of %s requires a negative time to live", name);
+        config.validateCompleteConfiguration();
+
+        logConfiguredValues();
+
+        initialized = true;
+        managed.startup(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    start(mappedOverflow, mappedPersistent, maximumSize);
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to start ehcache [" + name + "]", e);
+                    startupFailure = e;
+                } finally {
+                    started.countDown();
+                }
+            }
+            
+        });
+        // a startup which ran inline has already completed
+        if (started.getCount() == 0 && startupFailure != null) {
+            throw new LifecycleException(startupFailure);
+        }
+    }
+    
+    /**
+     * Creates the cache and its stores. Runs inline or on the startup pool of the {@link ManagedCacheManager},
+     * all operations wait for it to complete.
+     */
+    private void start(boolean mappedOverflow, boolean mappedPersistent, int maximumSize) {
+        final long begin = System.nanoTime();
+        if (metricsEnabled) {
+            // created early, the disk stores record into it
+            metrics = new CacheMetrics();
+        }
+        if (manager.cacheExists(name)) {
+            cache = manager.getCache(name);
+        } else {
+            final Cache created = new Cache(config);
+            manager.addCache(created);
+            cache = created;
+            owned = true;
+        }
+        
+        final CacheConfiguration configuration = cache.getCacheConfiguration();
+        if (configuration.isOverflowToDisk() || configuration.isDiskPersistent()) {
+            wrapValues = codec != JavaCodec.INSTANCE;
+            LOG.info("Ehcache [{}] serializes values for the disk store using {}", name, codec);
+            diskReader = Executors.newFixedThreadPool(DISK_READ_THREADS,
+                new DaemonThreadFactory(name + "-disk-reader"));
+        }
+        
+        if (mappedOverflow || mappedPersistent) {
+            tiers = newDiskStore(mappedPersistent);
+            if (mappedPersistent) {
+                persistentTier = tiers;
+            }
+        }
+        
+        if (maxBytesOffHeap > 0) {
+            tiers = new OffHeapStore(maxBytesOffHeap, tiers);
+        }
+        
+        if (tiers != null) {
+            tierListener = new CacheEventListenerAdapter() {
+                
+                @Override
+                public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                    if (!demote(element)) {
+                        dropped(element.getObjectKey());
+                    }
+                }
+                
+            };
+            cache.getCacheEventNotificationService().registerListener(tierListener);
+            tiers.addListener(new ByteStoreListener() {
+                
+                @Override
+                public void dropped(Object key) {
+                    EhCacheService.this.dropped(key);
+                }
+                
+            });
+            LOG.info("Ehcache [{}] moves evicted values to {}", name, tiers);
+        }
+        
+        if (tinyLfu) {
+            policy = new TinyLfuPolicy(maximumSize);
+            policyListener = new CacheEventListenerAdapter() {
+                
+                @Override
+                public void notifyElementPut(Ehcache ehcache, Element element) {
+                    admit(element);
+                }
+                
+                @Override
+                public void notifyElementUpdated(Ehcache ehcache, Element element) {
+                    policy.onAccess(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                    policy.onRemove(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyElementExpired(Ehcache ehcache, Element element) {
+                    policy.onRemove(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                    policy.onRemove(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyRemoveAll(Ehcache ehcache) {
+                    policy.clear();
+                }
+                
+            };
+            cache.getCacheEventNotificationService().registerListener(policyListener);
+            LOG.info("Ehcache [{}] evicts using {}", name, policy);
+        }
+        
+        if (nearCacheSize > 0) {
+            nearCache = new NearCache(nearCacheSize, nearCacheMaxAge, nearCacheMaxAgeUnit);
+            nearCacheListener = new CacheEventListenerAdapter() {
+                
+                @Override
+                public void notifyElementPut(Ehcache ehcache, Element element) {
+                    nearCache.invalidate(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyElementUpdated(Ehcache ehcache, Element element) {
+                    nearCache.invalidate(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                    nearCache.invalidate(element.getObjectKey());
+                }
+                
+                @Override
+                public void notifyRemoveAll(Ehcache ehcache) {
+                    nearCache.clear();
+                }
+                
+            };
+            cache.getCacheEventNotificationService().registerListener(nearCacheListener);
+            LOG.info("Ehcache [{}] serves hot keys from {}", name, nearCache);
+        }
+        
+        if (maxBytesInMemory > 0) {
+            sizer = new ObjectSizer();
+            budget = new ByteBudget(maxBytesInMemory);
+            budgetListener = new CacheEventListenerAdapter() {
+                
+                @Override
+                public void notifyElementPut(Ehcache ehcache, Element element) {
+                    account(element);
+                }
+                
+                @Override
+                public void notifyElementUpdated(Ehcache ehcache, Element element) {
+                    account(element);
+                }
+                
+                @Override
+                public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                    budget.release(element.getObjectKey(), element);
+                }
+                
+                @Override
+                public void notifyElementExpired(Ehcache ehcache, Element element) {
+                    budget.release(element.getObjectKey(), element);
+                }
+                
+                @Override
+                public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                    budget.release(element.getObjectKey(), element);
+                }
+                
+                @Override
+                public void notifyRemoveAll(Ehcache ehcache) {
+                    budget.clear();
+                }
+                
+            };
+            cache.getCacheEventNotificationService().registerListener(budgetListener);
+            LOG.info("Ehcache [{}] limits memory using {}", name, budget);
+        }
+        
+        timeToLiveMillis = configuration.isEternal() ? 0L : timeToLiveUnit.toMillis(timeToLive);
+        timeToIdleMillis = configuration.isEternal() ? 0L : timeToIdleUnit.toMillis(timeToIdle);
+        if (hasFractionalSeconds(timeToLiveMillis) || hasFractionalSeconds(timeToIdleMillis) ||
+            hasFractionalSeconds(negativeTimeToLiveUnit.toMillis(negativeTimeToLive))) {
+            // before the warm-up, which schedules the loaded elements
+            startWheel();
+        }
+        
+        if (snapshotFile != null) {
+            warmUp();
+        }
+        
+        if (refreshFraction > 0) {
+            refreshAhead = new RefreshAhead(name, refreshThreads, refreshQueueSize);
+            LOG.info("Ehcache [{}] refreshes entries after {} of their time to live using {}", new Object[] {
+                name, refreshFraction, refreshAhead
+            });
+        }
+        
+        tagListener = new CacheEventListenerAdapter() {
+            
+            @Override
+            public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                // evictions and expirations are handled by their own notification
+                if (!isInternalRemoval()) {
+                    tags.untag(element.getObjectKey());
+                }
+            }
+            
+            @Override
+            public void notifyElementExpired(Ehcache ehcache, Element element) {
+                tags.untag(element.getObjectKey());
+            }
+            
+            @Override
+            public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                // evicted elements are still tagged while they live in the secondary tiers,
+                // they are untagged once the tiers drop them
+                if (tiers == null) {
+                    tags.untag(element.getObjectKey());
+                }
+            }
+            
+            @Override
+            public void notifyRemoveAll(Ehcache ehcache) {
+                tags.clear();
+            }
+            
+        };
+        cache.getCacheEventNotificationService().registerListener(tagListener);
+        
+        removalListener = new CacheEventListenerAdapter() {
+            
+            @Override
+            public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                final Element[] removal = removals.get();
+                if (removal != null && removal[0] == null) {
+                    removal[0] = element;
+                }
+            }
+            
+        };
+        cache.getCacheEventNotificationService().registerListener(removalListener);
+        
+        if (eventBufferSize > 0) {
+            events = new EventPipeline(name, eventBufferSize, eventInterval, eventIntervalUnit);
+            // puts are published by the write paths, ehcache only sees promotions and warm-ups
+            eventListener = new CacheEventListenerAdapter() {
+                
+                @Override
+                public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                    // ehcache reports absent keys with a synthetic element without a value
+                    if (!isInternalRemoval() && element.getObjectValue() != null) {
+                        events.publish(element.getObjectKey(), CacheEvent.Type.REMOVE);
+                    }
+                }
+                
+                @Override
+                public void notifyElementExpired(Ehcache ehcache, Element element) {
+                    events.publish(element.getObjectKey(), CacheEvent.Type.EXPIRE);
+                }
+                
+                @Override
+                public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                    // evicted elements are still readable while they live in the secondary tiers
+                    if (tiers == null) {
+                        events.publish(element.getObjectKey(), CacheEvent.Type.EVICT);
+                    }
+                }
+                
+            };
+            cache.getCacheEventNotificationService().registerListener(eventListener);
+            events.start();
+            LOG.info("Ehcache [{}] publishes events using {}", name, events);
+        }
+        
+        if (invalidationTransport != null) {
+            bus = new InvalidationBus(name, InvalidationTransports.forAddress(invalidationTransport), codec,
+                new InvalidationBus.Target() {
+                    
+                    @Override
+                    public void invalidate(Object key) {
+                        invalidateLocally(key);
+                    }
+                    
+                    @Override
+                    public void invalidateAll() {
+                        clearLocally();
+                    }
+                    
+                });
+            try {
+                bus.start(invalidationWindow, invalidationWindowUnit);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open invalidation transport of " + name, e);
+            }
+            LOG.info("Ehcache [{}] propagates invalidations using {}", name, bus);
+        }
+        
+        if (writer != null) {
+            writeBehind = new WriteBehindQueue(name, writer, writeBatchSize, writeDelay, writeDelayUnit,
+                writeQueueSize);
+            writeBehind.start();
+            LOG.info("Ehcache [{}] writes behind using {}", name, writeBehind);
+        }
+        
+        negativeTimeToLiveMillis = negativeTimeToLiveUnit.toMillis(negativeTimeToLive);
+        if (absentFilterSize > 0) {
+            absentKeys = new AbsentKeys(absentFilterSize, absentFilterFpp, negativeTimeToLive, negativeTimeToLiveUnit);
+            LOG.info("Ehcache [{}] remembers absent keys using {}", name, absentKeys);
+        }
+        
+        if (metrics != null) {
+            metricsListener = metrics.newListener();
+            cache.getCacheEventNotificationService().registerListener(metricsListener);
+            registerMetrics();
+        }
+        LOG.info("Ehcache [{}] started in {}ms", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+    }
+    
+    /**
+     * Returns the timer wheel, creating it along with its listener and expiry thread
+     * if this is the first duration ehcache can't represent.
+     */
+    private synchronized TimerWheel startWheel() {
+        if (wheel != null) {
+            return wheel;
+        }
+        final TimerWheel created = new TimerWheel(System.currentTimeMillis());
+        // registered after the tier listener, which needs the deadline of evicted elements
+        wheelListener = new CacheEventListenerAdapter() {
+            
+            @Override
+            public void notifyElementPut(Ehcache ehcache, Element element) {
+                schedule(element);
+            }
+            
+            @Override
+            public void notifyElementUpdated(Ehcache ehcache, Element element) {
+                schedule(element);
+            }
+            
+            @Override
+            public void notifyElementRemoved(Ehcache ehcache, Element element) {
+                created.cancel(element.getObjectKey(), element);
+            }
+            
+            @Override
+            public void notifyElementExpired(Ehcache ehcache, Element element) {
+                created.cancel(element.getObjectKey(), element);
+            }
+            
+            @Override
+            public void notifyElementEvicted(Ehcache ehcache, Element element) {
+                created.cancel(element.getObjectKey(), element);
+            }
+            
+            @Override
+            public void notifyRemoveAll(Ehcache ehcache) {
+                created.clear();
+            }
+            
+        };
+        cache.getCacheEventNotificationService().registerListener(wheelListener);
+        expiry = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "-expiry"));
+        expiry.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    expireEntries();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to expire entries of {}: {}", name, e.getMessage());
+                }
+            }
+            
+        }, expiryInterval, expiryInterval, expiryIntervalUnit);
+        LOG.info("Ehcache [{}] removes expired entries every {} {} using {}", new Object[] {
+            name, expiryInterval, expiryIntervalUnit, created
+        });
+        wheel = created;
+        return created;
+    }
+    
+    /**
+     * Starts the timer wheel if the given time to live needs it.
+     * 
+     * @return the given time to live
+     */
+    private long precise(long timeToLive) {
+        if (wheel == null && hasFractionalSeconds(timeToLive)) {
+            startWheel();
+        }
+        return timeToLive;
+    }
+    
+    /**
+     * Checks whether the given duration needs the timer wheel, because ehcache would round it up.
+     */
+    private static boolean hasFractionalSeconds(long millis) {
+        return millis % 1000L != 0L;
+    }
+    
+    /**
+     * Blocks until the startup of this service completed.
+     * 
+     * @throws IllegalStateException if the startup failed
+     */
+    private void awaitStartup() {
+        if (started.getCount() > 0) {
+            Preconditions.checkState(initialized, "%s has not been initialized", this);
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the startup of " + this, e);
+            }
+        }
+        if (startupFailure != null) {
+            throw new IllegalStateException(this + " failed to start", startupFailure);
+        }
+    }
+    
+    private ByteStore newDiskStore(boolean persistent) {
+        final String directoryName = name.replaceAll("[^\\w.-]", "_");
+        if (diskStorePaths.isEmpty()) {
+            final String path = config.getDiskStorePath() == null ?
+                System.getProperty("java.io.tmpdir") : config.getDiskStorePath();
+            return newDiskStore(new File(path, directoryName), maxBytesOnDisk, diskFilterSize, persistent);
+        } else {
+            final long maxBytesPerShard = maxBytesOnDisk / diskStorePaths.size();
+            final int filterSizePerShard = (diskFilterSize + diskStorePaths.size() - 1) / diskStorePaths.size();
+            final List<ByteStore> shards = Lists.newArrayListWithCapacity(diskStorePaths.size());
+            for (String path : diskStorePaths) {
+                shards.add(newDiskStore(new File(path, directoryName), maxBytesPerShard, filterSizePerShard,
+                    persistent));
+            }
+            return shards.size() == 1 ? shards.get(0) : new ShardedByteStore(shards);
+        }
+    }
+    
+    private ByteStore newDiskStore(File directory, long maxBytes, int filterSize, boolean persistent) {
+        final ByteStore mapped = new MappedDiskStore(directory, codec, diskSegmentSize, maxBytes, persistent);
+        final File marker = new File(directory, "compressed");
+        final ByteStore store;
+        if (diskCompression) {
+            store = new CompressingByteStore(mapped, new DeflateCompressor(), diskCompressionThreshold,
+                persistent ? marker : null, metrics);
+        } else {
+            if (persistent && marker.exists()) {
+                LOG.info("Clearing {}, it has been written compressed", mapped);
+                mapped.clear();
+                if (!marker.delete()) {
+                    LOG.warn("Unable to delete marker {}", marker);
+                }
+            }
+            store = mapped;
+        }
+        if (filterSize == 0) {
+            return store;
+        } else {
+            final File filterFile = persistent ? new File(directory, "filter.dat") : null;
+            return new GuardedByteStore(store, filterSize, filterFile, metrics);
+        }
+    }
+    
+    /**
+     * Loads the hot set snapshot in parallel. Entries which could not be loaded
+     * within the warm-up timeout are skipped.
+     */
+    private void warmUp() {
+        final List<HotSetSnapshot.Entry> entries;
+        try {
+            entries = new HotSetSnapshot(snapshotFile, codec).read();
+        } catch (IOException e) {
+            LOG.warn("Unable to read snapshot {} of {}: {}", new Object[] {snapshotFile, name, e.getMessage()});
+            return;
+        }
+        if (entries.isEmpty()) {
+            return;
+        } else if (entries.get(0).getValue() == null && defaultLoader == null) {
+            LOG.warn("Snapshot {} of {} holds keys only, but there is no default loader", snapshotFile, name);
+            return;
+        }
+        
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(DISK_READ_THREADS,
+            new DaemonThreadFactory(name + "-warm-up"));
+        final int chunkSize = entries.size() / (DISK_READ_THREADS * 4) + 1;
+        final List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (final List<HotSetSnapshot.Entry> chunk : Lists.partition(entries, chunkSize)) {
+            tasks.add(new Callable<Integer>() {
+                
+                @Override
+                public Integer call() {
+                    return warmUp(chunk);
+                }
+                
+            });
+        }
+        
+        int loaded = 0;
+        try {
+            for (Future<Integer> future : executor.invokeAll(tasks, warmUpTimeout, warmUpTimeoutUnit)) {
+                if (!future.isCancelled()) {
+                    loaded += future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Warm-up of {} failed: {}", name, e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+        warmedUp = loaded;
+        LOG.info("Ehcache [{}] warmed up {} of {} entries in {}ms", new Object[] {
+            name, loaded, entries.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        });
+    }
+    
+    private int warmUp(List<HotSetSnapshot.Entry> chunk) {
+        final long now = System.currentTimeMillis();
+        int loaded = 0;
+        for (HotSetSnapshot.Entry entry : chunk) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            try {
+                final Serializable key = (Serializable) Codecs.decode(codec, entry.getKey(), 0, entry.getKey().length);
+                final Element element;
+                if (entry.getValue() == null) {
+                    final Object value = defaultLoader.load(key);
+                    if (value == null) {
+                        continue;
+                    }
+                    element = newElement(key, value);
+                } else if (entry.getExpiresAt() <= now) {
+                    continue;
+                } else {
+                    final Object value = Codecs.decode(codec, entry.getValue(), 0, entry.getValue().length);
+                    element = newElement(key, value, entry.getExpiresAt());
+                }
+                if (cache.putIfAbsent(element) == null && entry.getValue() != null) {
+                    schedule(element, entry.getExpiresAt());
+                }
+                loaded++;
+            } catch (Exception e) {
+                LOG.debug("Skipping snapshot entry of {}: {}", name, e.getMessage());
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * Writes the most frequently accessed entries to the snapshot file.
+     */
+    private void writeSnapshot() {
+        final List<Element> hottest = HotSetSnapshot.hottest(cache, snapshotSize);
+        final List<HotSetSnapshot.Entry> entries = Lists.newArrayListWithCapacity(hottest.size());
+        for (Element element : hottest) {
+            if (isNegative(element)) {
+                continue;
+            }
+            try {
+                final byte[] key = Codecs.encode(codec, element.getObjectKey());
+                final byte[] value = snapshotKeysOnly ? null : Codecs.encode(codec, valueOf(element));
+                entries.add(new HotSetSnapshot.Entry(key, value, expirationOf(element)));
+            } catch (IOException e) {
+                LOG.debug("Skipping {} in snapshot of {}: {}", new Object[] {
+                    element.getObjectKey(), name, e.getMessage()
+                });
+            }
+        }
+        try {
+            new HotSetSnapshot(snapshotFile, codec).write(entries, snapshotKeysOnly);
+            LOG.info("Wrote {} entries of {} to {}", new Object[] {entries.size(), name, snapshotFile});
+        } catch (IOException e) {
+            LOG.warn("Unable to write snapshot {} of {}: {}", new Object[] {snapshotFile, name, e.getMessage()});
+        }
+    }
+    
+    private void registerMetrics() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(
+                "de.cosmocode.palava.cache:type=EhCacheService,name=" + ObjectName.quote(name));
+            server.registerMBean(new StandardMBean(metrics, CacheMetricsMBean.class), objectName);
+            metricsName = objectName;
+        } catch (JMException e) {
+            LOG.warn("Unable to register metrics of {} in JMX: {}", name, e.getMessage());
+        }
+    }
+
+    private void logConfiguredValues() {
+        final TerracottaConfiguration terracottaConfiguration = config.getTerracottaConfiguration();
+        final boolean terracottaCoherent;
+        final TerracottaConfiguration.ValueMode terracottaValueMode;
+        if (terracottaConfiguration == null) {
+            terracottaCoherent = false;
+            terracottaValueMode = null;
+        } else {
+            terracottaCoherent = terracottaConfiguration.isCoherent();
+            terracottaValueMode = terracottaConfiguration.getValueMode();
+        }
+
+        LOG.info("Ehcache: [clearOnFlush={}, diskExpiryThreadInterval={}, diskExpiryThreadIntervalUnit={}, " +
+            "diskPersistent={}, diskSpoolBufferSizeMB={}, diskStorePath={}, eternal={}, isTerracottaClustered={}, " +
+            "maxElementsInMemory={}, maxElementsOnDisk={}, memoryStoreEvictionPolicy={}, overflowToDisk={}, " +
+            "terracottaCoherentReads={}, terracottaValueMode={}, timeToIdle={}, timeToIdleUnit={}, timeToLive={}, " +
+            "timeToLiveUnit={}, loaderTimeout={}, loaderTimeoutUnit={}, defaultLoader={}]", new Object[] {
+                config.isClearOnFlush(), diskExpiryThreadInterval, diskExpiryThreadIntervalUnit,
+                config.isDiskPersistent(), config.getDiskSpoolBufferSizeMB(), config.getDiskStorePath(),
+                config.isEternal(), config.isTerracottaClustered(), config.getMaxElementsInMemory(),
+                config.getMaxElementsOnDisk(), config.getMemoryStoreEvictionPolicy(), config.isOverflowToDisk(),
+                terracottaCoherent, terracottaValueMode, timeToIdle, timeToIdleUnit, timeToLive, timeToLiveUnit,
+                loaderTimeout, loaderTimeoutUnit, defaultLoader
+            }
+        );
+    }
+
+    @Override
+    public long getMaxAge() {
+        awaitStartup();
+        return cache.getCacheConfiguration().getTimeToLiveSeconds();
+    }
+
+    @Override
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(getMaxAge(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void setMaxAge(long maxAgeSeconds) {
+        setMaxAge(maxAgeSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void setMaxAge(long maxAge, TimeUnit maxAgeUnit) {
+        awaitStartup();
+        Preconditions.checkArgument(maxAge >= 0, MAX_AGE_NEGATIVE, maxAge);
+        Preconditions.checkNotNull(maxAgeUnit, "MaxAge TimeUnit");
+        cache.getCacheConfiguration().setTimeToLiveSeconds(toSeconds(maxAge, maxAgeUnit));
+        cache.getCacheConfiguration().setEternal(false);
+        timeToLiveMillis = maxAgeUnit.toMillis(maxAge);
+        if (hasFractionalSeconds(timeToLiveMillis)) {
+            startWheel();
+        }
+    }
+    
+    @Override
+    public void store(Serializable key, Object value) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        stored(key, value);
+        final Element element = newElement(key, value);
+        put(element, expiresAt(timeToLiveMillis));
+    }
+
+    @Override
+    public void store(final Serializable key, final Object value, final long maxAge, final TimeUnit maxAgeUnit) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
         Preconditions.checkNotNull(maxAgeUnit, "MaxAgeUnit");
 
-        final Element element = new Element(key, value);
+        stored(key, value);
+        final Element element = newElement(key, value);
         element.setEternal(false);
-        element.setTimeToLive((int) maxAgeUnit.toSeconds(maxAge));
+        element.setTimeToLive(toSeconds(maxAge, maxAgeUnit));
+        put(element, expiresAt(precise(maxAgeUnit.toMillis(maxAge))));
+    }
+    
+    @Override
+    public void store(Serializable key, Object value, Collection<? extends Serializable> tags) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(tags, "Tags");
+        stored(key, value);
+        final Element element = newElement(key, value);
+        put(element, expiresAt(timeToLiveMillis), tags.toArray());
+    }
+    
+    @Override
+    public void store(Serializable key, Object value, long maxAge, TimeUnit maxAgeUnit,
+        Collection<? extends Serializable> tags) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(maxAgeUnit, "MaxAgeUnit");
+        Preconditions.checkNotNull(tags, "Tags");
+        stored(key, value);
+        final Element element = newElement(key, value);
+        element.setEternal(false);
+        element.setTimeToLive(toSeconds(maxAge, maxAgeUnit));
+        put(element, expiresAt(precise(maxAgeUnit.toMillis(maxAge))), tags.toArray());
+    }
+    
+    private Element newElement(Object key, Object value) {
+        return new Element(key, wrapValues && value != null ? new CodecValue(codec, value) : value);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T valueOf(Element element) {
+        final Object value = element.getObjectValue();
+        if (value == Absent.INSTANCE) {
+            return null;
+        }
+        return (T) (value instanceof CodecValue ? CodecValue.class.cast(value).get() : value);
+    }
+    
+    private static boolean isNegative(Element element) {
+        return element.getObjectValue() == Absent.INSTANCE;
+    }
+    
+    /**
+     * Records that there is no value for the given key, either in the absent keys
+     * or as a negative entry.
+     * 
+     * @param timeToLive the time to live of the negative entry in millis, 0 for forever
+     */
+    private void absent(Serializable key, long timeToLive) {
+        if (absentKeys == null) {
+            final Element element = new Element(key, Absent.INSTANCE);
+            if (timeToLive > 0L) {
+                element.setEternal(false);
+                element.setTimeToLive(toSeconds(timeToLive, TimeUnit.MILLISECONDS));
+            }
+            write(element, expiresAt(precise(timeToLive)));
+        } else {
+            cache.remove(key);
+            if (tiers != null) {
+                tiers.remove(key);
+            }
+            absentKeys.add(key);
+        }
+    }
+    
+    private void put(Element element, long expiresAt) {
+        put(element, expiresAt, NO_TAGS);
+    }
+    
+    private void put(Element element, long expiresAt, Object[] elementTags) {
+        if (metrics == null) {
+            write(element, expiresAt, elementTags);
+        } else {
+            final long start = System.nanoTime();
+            write(element, expiresAt, elementTags);
+            metrics.store(System.nanoTime() - start);
+        }
+    }
+    
+    private void write(Element element, long expiresAt) {
+        write(element, expiresAt, NO_TAGS);
+    }
+    
+    private void write(Element element, long expiresAt, Object[] elementTags) {
+        // tagged first, an invalidation running in between must not miss the new value
+        tags.tag(element.getObjectKey(), elementTags);
+        if (tiers != null) {
+            // drop the old value first, a concurrent promotion can't overwrite the new one
+            tiers.remove(element.getObjectKey());
+        }
+        if (absentKeys != null) {
+            absentKeys.forget(element.getObjectKey());
+        }
         cache.putQuiet(element);
+        schedule(element, expiresAt);
+        publish(element.getObjectKey(), isNegative(element) ? CacheEvent.Type.REMOVE : CacheEvent.Type.PUT);
+        if (nearCache != null) {
+            nearCache.invalidate(element.getObjectKey());
+        }
+        if (policy != null) {
+            admit(element);
+        }
+        if (budget != null) {
+            account(element);
+        }
+    }
+    
+    private void publish(Object key, CacheEvent.Type type) {
+        if (events != null) {
+            events.publish(key, type);
+        }
+    }
+    
+    /**
+     * Invalidates the given key on all other nodes. Values loaded from the
+     * underlying source are not propagated, they don't change anything.
+     */
+    private void propagate(Object key) {
+        if (bus != null) {
+            bus.invalidate(key);
+        }
+    }
+    
+    /**
+     * Propagates a value stored by a caller to the other nodes and the writer.
+     */
+    private void stored(Serializable key, Object value) {
+        propagate(key);
+        if (writeBehind != null) {
+            writeBehind.write(key, value);
+        }
+    }
+    
+    /**
+     * Propagates a removal by a caller to the other nodes and the writer.
+     */
+    private void removed(Serializable key) {
+        propagate(key);
+        if (writeBehind != null) {
+            writeBehind.delete(key);
+        }
+    }
+    
+    private void invalidateLocally(Object key) {
+        cache.remove(key);
+        if (tiers != null) {
+            tiers.remove(key);
+        }
+        if (absentKeys != null) {
+            absentKeys.forget(key);
+        }
+    }
+    
+    private void clearLocally() {
+        cache.removeAll();
+        if (tiers != null) {
+            tiers.clear();
+        }
+        if (absentKeys != null) {
+            absentKeys.clear();
+        }
+    }
+    
+    /**
+     * Computes the absolute time in millis at which an element stored now expires.
+     * 
+     * @param timeToLive the time to live in millis, 0 for never
+     */
+    private static long expiresAt(long timeToLive) {
+        return timeToLive > 0L ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Converts the given duration to seconds, rounding up. Ehcache treats 0 as forever,
+     * which must not happen to sub-second durations.
+     */
+    private static int toSeconds(long duration, TimeUnit unit) {
+        final long millis = unit.toMillis(duration);
+        return (int) Math.min(Integer.MAX_VALUE, (millis + 999L) / 1000L);
+    }
+    
+    /**
+     * Schedules the expiration of an element which has been added by ehcache itself.
+     */
+    private void schedule(Element element) {
+        if (element.getTimeToLive() > 0) {
+            schedule(element, element.getCreationTime() + TimeUnit.SECONDS.toMillis(element.getTimeToLive()));
+        } else {
+            schedule(element, expiresAt(timeToLiveMillis));
+        }
+    }
+    
+    private void schedule(Element element, long expiresAt) {
+        final TimerWheel current = wheel;
+        if (current != null) {
+            current.schedule(element.getObjectKey(), element, expiresAt, timeToIdleMillis, System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Records an access of the given element and checks whether it expired by the millisecond.
+     * 
+     * @return false if the element expired, true otherwise
+     */
+    private boolean access(Serializable key, Element element) {
+        final TimerWheel current = wheel;
+        return current == null || current.access(key, element, System.currentTimeMillis());
+    }
+    
+    /**
+     * Removes all elements which expired by now.
+     */
+    private void expireEntries() {
+        for (Object expired : wheel.advance(System.currentTimeMillis())) {
+            expire((Element) expired);
+        }
+    }
+    
+    /**
+     * Removes the given element and lets all listeners treat this like an expiration of ehcache.
+     */
+    private void expire(Element element) {
+        if (removeInternally(element)) {
+            cache.getCacheEventNotificationService().notifyElementExpiry(element, false);
+        }
+    }
+    
+    /**
+     * Removes the given element without letting the tag index and the event pipeline
+     * treat this as a removal, the caller sends the eviction or expiry notification instead.
+     */
+    private boolean removeInternally(Element element) {
+        internalRemovals.set(Boolean.TRUE);
+        try {
+            return cache.removeElement(element);
+        } finally {
+            internalRemovals.remove();
+        }
+    }
+    
+    private boolean isInternalRemoval() {
+        return internalRemovals.get() != null;
+    }
+    
+    /**
+     * Records the given element in the eviction policy and evicts the key it rejects, if any.
+     */
+    private void admit(Element element) {
+        final Object rejected = policy.onInsert(element.getObjectKey());
+        if (rejected != null) {
+            final Element victim = cache.getQuiet(rejected);
+            if (victim != null) {
+                evict(victim);
+            }
+        }
+    }
+    
+    /**
+     * Removes the given element and lets the off-heap store and the
+     * metrics treat this like an eviction of ehcache.
+     * 
+     * @return true if the element has been evicted, false if it has been removed or replaced in between
+     */
+    private boolean evict(Element victim) {
+        if (removeInternally(victim)) {
+            cache.getCacheEventNotificationService().notifyElementEvicted(victim, false);
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Records the estimated size of the given element and evicts elements
+     * until the memory limit is met again.
+     */
+    private void account(Element element) {
+        final long bytes = ELEMENT_OVERHEAD + sizer.sizeOf(element.getObjectKey()) +
+            sizer.sizeOf(element.getObjectValue());
+        budget.record(element.getObjectKey(), element, bytes);
+        while (budget.isExceeded()) {
+            final Element victim = (Element) budget.nextVictim();
+            if (victim == null) {
+                return;
+            } else if (!evict(victim)) {
+                budget.release(victim.getObjectKey(), victim);
+            }
+        }
+    }
+    
+    private Element get(Serializable key) {
+        if (metrics == null) {
+            return lookup(key);
+        } else {
+            final long start = System.nanoTime();
+            final Element element = lookup(key);
+            // negative entries are misses which just don't reach the loader
+            metrics.read(element != null && !isNegative(element), System.nanoTime() - start);
+            return element;
+        }
+    }
+    
+    private Element lookup(Serializable key) {
+        if (nearCache == null) {
+            return lookupCache(key);
+        }
+        final Element cached = nearCache.get(key);
+        if (cached != null && !cached.isExpired() && access(key, cached)) {
+            touch(key);
+            return cached;
+        }
+        // taken before the read, so a concurrent write invalidates what we are about to cache
+        final long version = nearCache.version(key);
+        final Element element = lookupCache(key);
+        if (element != null) {
+            nearCache.put(key, element, version);
+        }
+        return element;
+    }
+    
+    private Element lookupCache(Serializable key) {
+        final Element element = cache.get(key);
+        if (element == null) {
+            return tiers == null ? null : promote(key);
+        } else if (!access(key, element)) {
+            expire(element);
+            return null;
+        } else {
+            touch(key);
+            return element;
+        }
+    }
+    
+    /**
+     * Records an access of the given key in the eviction policy and the memory budget.
+     */
+    private void touch(Serializable key) {
+        if (policy != null) {
+            policy.onAccess(key);
+        }
+        if (budget != null) {
+            budget.touch(key);
+        }
+    }
+    
+    /**
+     * Moves an element which has been evicted from memory to the secondary tiers.
+     * 
+     * @return true if the value has been stored, false if it was negative, expired or could not be stored
+     */
+    private boolean demote(Element element) {
+        return demote(element, tiers);
+    }
+    
+    /**
+     * Moves the value of the given element into the specified tier.
+     * 
+     * @return true if the value has been stored, false if it was negative, expired or could not be stored
+     */
+    private boolean demote(Element element, ByteStore tier) {
+        if (isNegative(element)) {
+            return false;
+        }
+        final long expiresAt = expirationOf(element);
+        if (expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        try {
+            return tier.put(element.getObjectKey(), Codecs.encode(codec, valueOf(element)), expiresAt);
+        } catch (IOException e) {
+            LOG.warn("Unable to encode value of {} for the secondary tiers: {}", element.getObjectKey(), e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Moves all values held off the heap and in memory to the persistent disk store. Without
+     * this, only values which have been evicted from memory would survive a restart.
+     */
+    private void persist() {
+        if (tiers instanceof OffHeapStore) {
+            OffHeapStore.class.cast(tiers).flush();
+        }
+        int persisted = 0;
+        for (Object key : cache.getKeys()) {
+            final Element element = cache.getQuiet(key);
+            if (element != null && demote(element, persistentTier)) {
+                persisted++;
+            }
+        }
+        LOG.info("Persisted {} values of Ehcache [{}] to {}", new Object[] {persisted, name, persistentTier});
+    }
+    
+    /**
+     * Untags a key which has been evicted from memory, but didn't make it into or has been
+     * dropped by the secondary tiers, unless it has been stored again in the meantime.
+     */
+    private void dropped(Object key) {
+        if (cache.getQuiet(key) == null) {
+            tags.untag(key);
+        }
+    }
+    
+    /**
+     * Moves the value of the given key from the secondary tiers back into memory.
+     * 
+     * @return the promoted element, or null if there was no value in the secondary tiers
+     */
+    private Element promote(Serializable key) {
+        final StoredValue stored = tiers.take(key);
+        if (stored == null) {
+            return null;
+        } else if (stored.isExpired(System.currentTimeMillis())) {
+            dropped(key);
+            return null;
+        }
+        final Object value;
+        try {
+            value = Codecs.decode(codec, stored.getBytes(), 0, stored.getBytes().length);
+        } catch (IOException e) {
+            LOG.warn("Unable to decode stored value of {}: {}", key, e.getMessage());
+            return null;
+        }
+        final Element element = newElement(key, value, stored.getExpiresAt());
+        // a concurrent store wins over the promoted value
+        final Element existing = cache.putIfAbsent(element);
+        if (existing == null) {
+            schedule(element, stored.getExpiresAt());
+            return element;
+        } else {
+            return existing;
+        }
+    }
+    
+    /**
+     * Creates an element which expires at the given absolute time in millis.
+     */
+    private Element newElement(Serializable key, Object value, long expiresAt) {
+        final Element element = newElement(key, value);
+        if (expiresAt != Long.MAX_VALUE) {
+            final long remaining = expiresAt - System.currentTimeMillis();
+            element.setEternal(false);
+            element.setTimeToLive((int) Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(remaining + 999L)));
+        }
+        return element;
+    }
+    
+    private void promoteQuietly(Serializable key) {
+        if (tiers != null && !cache.isKeyInCache(key)) {
+            promote(key);
+        }
+    }
+    
+    /**
+     * Computes the absolute time in millis at which the given element expires
+     * if it is not accessed anymore.
+     */
+    private long expirationOf(Element element) {
+        final TimerWheel current = wheel;
+        final long deadline = current == null ? -1L : current.deadline(element.getObjectKey(), element);
+        if (deadline >= 0L) {
+            return deadline;
+        }
+        final CacheConfiguration configuration = cache.getCacheConfiguration();
+        if (element.isEternal() || configuration.isEternal()) {
+            return Long.MAX_VALUE;
+        }
+        final long timeToLive = element.getTimeToLive() > 0 ?
+            element.getTimeToLive() : configuration.getTimeToLiveSeconds();
+        final long timeToIdle = element.getTimeToIdle() > 0 ?
+            element.getTimeToIdle() : configuration.getTimeToIdleSeconds();
+        long expiresAt = Long.MAX_VALUE;
+        if (timeToLive > 0) {
+            expiresAt = element.getCreationTime() + TimeUnit.SECONDS.toMillis(timeToLive);
+        }
+        if (timeToIdle > 0) {
+            final long lastAccess = Math.max(element.getCreationTime(), element.getLastAccessTime());
+            expiresAt = Math.min(expiresAt, lastAccess + TimeUnit.SECONDS.toMillis(timeToIdle));
+        }
+        return expiresAt;
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <T> T read(Serializable key) {
+        awaitStartup();
         Preconditions.checkNotNull(key, "Key");
-        final Element element = cache.get(key);
-        return element == null ? null : (T) element.getObjectValue();
+        final Element element = get(key);
+        return element == null ? null : this.<T>valueOf(element);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(final Serializable key, final ValueLoader loader) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(loader, "Loader");
+        final Element element = get(key);
+        if (element == null) {
+            if (absentKeys != null && absentKeys.mightContain(key)) {
+                return null;
+            }
+            return (T) loads.load(key, new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    // another load may have completed between our miss and the registration of this one
+                    final Element loaded = cache.getQuiet(key);
+                    if (loaded != null) {
+                        return valueOf(loaded);
+                    }
+                    final Object value = loader.load(key);
+                    if (value != null) {
+                        write(newElement(key, value), expiresAt(timeToLiveMillis));
+                    } else if (negativeTimeToLiveMillis > 0L) {
+                        absent(key, negativeTimeToLiveMillis);
+                    }
+                    return value;
+                }
+
+            }, loaderTimeout, loaderTimeoutUnit);
+        } else {
+            if (refreshAhead != null) {
+                refreshIfDue(key, element, loader);
+            }
+            return this.<T>valueOf(element);
+        }
+    }
+    
+    @Override
+    public <T> T load(Serializable key) {
+        awaitStartup();
+        Preconditions.checkState(defaultLoader != null, "%s has no default loader, bind %s", name,
+            EhCacheServiceConfig.DEFAULT_LOADER);
+        return this.<T>read(key, defaultLoader);
+    }
+    
+    /**
+     * Schedules a reload of the given element if the configured fraction of its time to live has passed.
+     */
+    private void refreshIfDue(final Serializable key, Element element, final ValueLoader loader) {
+        final CacheConfiguration configuration = cache.getCacheConfiguration();
+        if (element.isEternal() || configuration.isEternal()) {
+            return;
+        }
+        final long timeToLive = TimeUnit.SECONDS.toMillis(element.getTimeToLive() > 0 ?
+            element.getTimeToLive() : configuration.getTimeToLiveSeconds());
+        if (timeToLive <= 0 || System.currentTimeMillis() - element.getCreationTime() < timeToLive * refreshFraction) {
+            return;
+        }
+        refreshAhead.refresh(key, new Callable<Object>() {
+            
+            @Override
+            public Object call() throws Exception {
+                final Object value = loader.load(key);
+                if (value != null) {
+                    // replace only, a concurrent remove must not be undone by the refresh
+                    if (cache.replace(newElement(key, value)) != null) {
+                        publish(key, CacheEvent.Type.PUT);
+                    }
+                }
+                return value;
+            }
+            
+        });
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<Serializable, T> readAll(Collection<? extends Serializable> keys) {
+        awaitStartup();
+        Preconditions.checkNotNull(keys, "Keys");
+        final long start = metrics == null ? 0L : System.nanoTime();
+        final Map<Serializable, T> values = Maps.newHashMapWithExpectedSize(keys.size());
+        List<Serializable> spilled = null;
+        
+        for (Serializable key : keys) {
+            Preconditions.checkNotNull(key, "Key");
+            if (diskReader != null && !cache.isElementInMemory(key)) {
+                if (cache.isElementOnDisk(key)) {
+                    if (spilled == null) {
+                        spilled = Lists.newArrayList();
+                    }
+                    spilled.add(key);
+                    continue;
+                } else if (tiers == null) {
+                    continue;
+                }
+            }
+            final Element element = lookup(key);
+            if (element != null && !isNegative(element)) {
+                values.put(key, this.<T>valueOf(element));
+            }
+        }
+        
+        if (spilled != null) {
+            this.<T>readAllFromDisk(spilled, values);
+        }
+        if (metrics != null) {
+            metrics.readAll(values.size(), keys.size() - values.size(), System.nanoTime() - start);
+        }
+        return values;
+    }
+    
+    /**
+     * Reads all given keys which have been spilled to disk. The keys are split into
+     * chunks which are read in parallel, so the disk reads do not queue up behind each other.
+     * Each key is looked up like a single read, including the near cache and expiry checks.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void readAllFromDisk(List<Serializable> keys, Map<Serializable, T> values) {
+        if (keys.size() == 1) {
+            final Serializable key = keys.get(0);
+            final Element element = lookup(key);
+            if (element != null && !isNegative(element)) {
+                values.put(key, this.<T>valueOf(element));
+            }
+            return;
+        }
+        
+        final int chunkSize = (keys.size() + DISK_READ_THREADS - 1) / DISK_READ_THREADS;
+        final List<Future<List<Element>>> futures = Lists.newArrayList();
+        for (final List<Serializable> chunk : Lists.partition(keys, chunkSize)) {
+            futures.add(diskReader.submit(new Callable<List<Element>>() {
+                
+                @Override
+                public List<Element> call() {
+                    final List<Element> elements = Lists.newArrayListWithCapacity(chunk.size());
+                    for (Serializable key : chunk) {
+                        final Element element = lookup(key);
+                        if (element != null && !isNegative(element)) {
+                            elements.add(element);
+                        }
+                    }
+                    return elements;
+                }
+                
+            }));
+        }
+        
+        try {
+            for (Future<List<Element>> future : futures) {
+                for (Element element : future.get()) {
+                    values.put((Serializable) element.getObjectKey(), this.<T>valueOf(element));
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new CacheException("Reading from disk store failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted while reading from disk store", e);
+        }
+    }
+    
+    @Override
+    public void storeAll(Map<? extends Serializable, ?> values) {
+        awaitStartup();
+        Preconditions.checkNotNull(values, "Values");
+        final long start = metrics == null ? 0L : System.nanoTime();
+        for (Map.Entry<? extends Serializable, ?> entry : values.entrySet()) {
+            Preconditions.checkNotNull(entry.getKey(), "Key");
+            stored(entry.getKey(), entry.getValue());
+            write(newElement(entry.getKey(), entry.getValue()), expiresAt(timeToLiveMillis));
+        }
+        if (metrics != null) {
+            metrics.storeAll(values.size(), System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public void storeAll(Map<? extends Serializable, ?> values, long maxAge, TimeUnit maxAgeUnit) {
+        awaitStartup();
+        Preconditions.checkNotNull(values, "Values");
+        Preconditions.checkNotNull(maxAgeUnit, "MaxAgeUnit");
+        final int timeToLive = toSeconds(maxAge, maxAgeUnit);
+        final long expiresAt = expiresAt(precise(maxAgeUnit.toMillis(maxAge)));
+        final long start = metrics == null ? 0L : System.nanoTime();
+        for (Map.Entry<? extends Serializable, ?> entry : values.entrySet()) {
+            Preconditions.checkNotNull(entry.getKey(), "Key");
+            final Element element = newElement(entry.getKey(), entry.getValue());
+            element.setEternal(false);
+            element.setTimeToLive(timeToLive);
+            stored(entry.getKey(), entry.getValue());
+            write(element, expiresAt);
+        }
+        if (metrics != null) {
+            metrics.storeAll(values.size(), System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public void removeAll(Collection<? extends Serializable> keys) {
+        awaitStartup();
+        Preconditions.checkNotNull(keys, "Keys");
+        final long start = metrics == null ? 0L : System.nanoTime();
+        for (Serializable key : keys) {
+            Preconditions.checkNotNull(key, "Key");
+            removed(key);
+            cache.remove(key);
+            if (tiers != null) {
+                tiers.remove(key);
+            }
+        }
+        if (metrics != null) {
+            metrics.removeAll(keys.size(), System.nanoTime() - start);
+        }
     }
     
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T remove(Serializable key) {
+        awaitStartup();
         Preconditions.checkNotNull(key, "Key");
-        final T value = this.<T>read(key);
-        cache.remove(key);
-        return value;
+        removed(key);
+        if (metrics == null) {
+            return this.<T>removeElement(key);
+        } else {
+            final long start = System.nanoTime();
+            final T value = this.<T>removeElement(key);
+            metrics.remove(System.nanoTime() - start);
+            return value;
+        }
+    }
+    
+    /**
+     * Removes the given key with a single lookup in memory and, if it wasn't there, in the tiers.
+     */
+    private <T> T removeElement(Serializable key) {
+        final Element[] removal = new Element[1];
+        removals.set(removal);
+        try {
+            cache.remove(key);
+        } finally {
+            removals.remove();
+        }
+        final Element element = removal[0];
+        // ehcache reports a synthetic element without a value if the key was not present
+        if (element == null || element.getObjectValue() == null) {
+            return tiers == null ? null : this.<T>removeFromTiers(key);
+        } else if (element.isExpired() || isNegative(element)) {
+            return null;
+        } else {
+            return this.<T>valueOf(element);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T removeFromTiers(Serializable key) {
+        final StoredValue stored = tiers.take(key);
+        if (stored == null) {
+            return null;
+        }
+        // the tag listener only sees keys which are in memory
+        tags.untag(key);
+        if (stored.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        try {
+            return (T) Codecs.decode(codec, stored.getBytes(), 0, stored.getBytes().length);
+        } catch (IOException e) {
+            LOG.warn("Unable to decode stored value of {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T putIfAbsent(Serializable key, Object value) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        promoteQuietly(key);
+        final Element element = newElement(key, value);
+        while (true) {
+            final Element existing = cache.putIfAbsent(element);
+            if (existing == null) {
+                putAbsent(key, value);
+                return null;
+            } else if (!isNegative(existing)) {
+                return this.<T>valueOf(existing);
+            } else if (cache.replace(existing, element)) {
+                // a negative entry counts as absent
+                putAbsent(key, value);
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Completes a {@link #putIfAbsent(Serializable, Object)} which actually stored the given value.
+     */
+    private void putAbsent(Serializable key, Object value) {
+        if (absentKeys != null) {
+            absentKeys.forget(key);
+        }
+        publish(key, CacheEvent.Type.PUT);
+        stored(key, value);
+    }
+    
+    @Override
+    public void storeAbsent(Serializable key) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        propagate(key);
+        absent(key, negativeTimeToLiveMillis > 0L ? negativeTimeToLiveMillis : timeToLiveMillis);
+    }
+    
+    @Override
+    public boolean isAbsent(Serializable key) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        final Element element = get(key);
+        if (element == null) {
+            return absentKeys != null && absentKeys.mightContain(key);
+        } else {
+            return isNegative(element);
+        }
+    }
+    
+    @Override
+    public boolean replace(Serializable key, Object oldValue, Object newValue) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        promoteQuietly(key);
+        final boolean replaced = cache.replace(newElement(key, oldValue), newElement(key, newValue));
+        if (replaced) {
+            publish(key, CacheEvent.Type.PUT);
+            stored(key, newValue);
+        }
+        return replaced;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T replace(Serializable key, Object value) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        promoteQuietly(key);
+        final Element element = newElement(key, value);
+        while (true) {
+            final Element existing = cache.getQuiet(key);
+            if (existing == null || isNegative(existing)) {
+                // a negative entry counts as absent
+                return null;
+            } else if (cache.replace(existing, element)) {
+                publish(key, CacheEvent.Type.PUT);
+                stored(key, value);
+                return this.<T>valueOf(existing);
+            }
+            // value changed in between, try again with the current one
+        }
+    }
+    
+    @Override
+    public boolean remove(Serializable key, Object value) {
+        awaitStartup();
+        Preconditions.checkNotNull(key, "Key");
+        promoteQuietly(key);
+        final boolean removed = cache.removeElement(newElement(key, value));
+        if (removed) {
+            removed(key);
+        }
+        return removed;
+    }
+    
+    @Override
+    public int invalidateTag(Serializable tag) {
+        awaitStartup();
+        Preconditions.checkNotNull(tag, "Tag");
+        final Set<Object> keys = tags.invalidate(tag);
+        for (Object key : keys) {
+            // the listener only sees keys which are in memory
+            tags.untag(key);
+            propagate(key);
+            cache.remove(key);
+            if (tiers != null) {
+                tiers.remove(key);
+            }
+        }
+        return keys.size();
+    }
+    
+    @Override
+    public void subscribe(CacheEventSubscriber subscriber) {
+        awaitStartup();
+        Preconditions.checkNotNull(subscriber, "Subscriber");
+        Preconditions.checkState(events != null, "Events of %s are disabled, set %s", name,
+            EhCacheServiceConfig.EVENT_BUFFER_SIZE);
+        events.subscribe(subscriber);
+    }
+    
+    @Override
+    public void unsubscribe(CacheEventSubscriber subscriber) {
+        awaitStartup();
+        if (events != null) {
+            events.unsubscribe(subscriber);
+        }
     }
     
     @Override
     public void clear() {
-        cache.removeAll();
+        awaitStartup();
+        if (bus != null) {
+            bus.invalidateAll();
+        }
+        clearLocally();
     }
     
     @Override
     public void dispose() {
-        manager.shutdown();
+        if (initialized) {
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (snapshotFile != null && cache != null && startupFailure == null) {
+            writeSnapshot();
+        }
+        if (diskReader != null) {
+            diskReader.shutdownNow();
+        }
+        if (refreshAhead != null) {
+            refreshAhead.shutdown();
+        }
+        synchronized (this) {
+            if (expiry != null) {
+                expiry.shutdownNow();
+            }
+        }
+        if (tierListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(tierListener);
+        }
+        if (tiers != null) {
+            if (persistentTier != null) {
+                persist();
+            }
+            tiers.close();
+        }
+        if (nearCacheListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(nearCacheListener);
+        }
+        synchronized (this) {
+            if (wheelListener != null) {
+                cache.getCacheEventNotificationService().unregisterListener(wheelListener);
+            }
+        }
+        if (tagListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(tagListener);
+        }
+        if (removalListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(removalListener);
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (bus != null) {
+            bus.close();
+        }
+        if (eventListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(eventListener);
+        }
+        if (events != null) {
+            events.close();
+        }
+        if (policyListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(policyListener);
+        }
+        if (budgetListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(budgetListener);
+        }
+        if (metricsListener != null) {
+            cache.getCacheEventNotificationService().unregisterListener(metricsListener);
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister metrics of {} from JMX: {}", name, e.getMessage());
+            }
+        }
+        if (owned) {
+            manager.removeCache(name);
+        }
+        managed.release();
     }
     
     @Override
@@ -382,8 +2647,31 @@ final class EhCacheService implements CacheService, Initializable, Disposable {
         return String.format("%s [%s]", EhCacheService.class.getSimpleName(), name);
     }
     
+    /**
+     * The value of negative entries.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private enum Absent {
+        
+        INSTANCE;
+        
+    }
+    
     Ehcache getCache() {
+        awaitStartup();
         return cache;
     }
     
+    CacheMetrics getMetrics() {
+        awaitStartup();
+        return metrics;
+    }
+    
+    int getWarmedUp() {
+        awaitStartup();
+        return warmedUp;
+    }
+    
 }
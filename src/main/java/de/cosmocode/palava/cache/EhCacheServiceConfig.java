@@ -27,6 +27,8 @@ final class EhCacheServiceConfig {
 
     public static final String CONFIG_FILE = PREFIX + "configFile";
     
+    public static final String STARTUP_THREADS = PREFIX + "startupThreads";
+    
     public static final String NAME = PREFIX + "name";
     
     public static final String ETERNAL = PREFIX + "eternal";
@@ -51,6 +53,8 @@ final class EhCacheServiceConfig {
     
     public static final String CACHE_MODE = PREFIX + "cacheMode";
     
+    public static final String EVICTION_POLICY = PREFIX + "evictionPolicy";
+    
     public static final String IS_TERRACOTTA_CLUSTERED = PREFIX + "isTerracottaClustered";
     
     public static final String TERRACOTTA_VALUE_MODE = PREFIX + "terracottaValueMode";
@@ -65,6 +69,96 @@ final class EhCacheServiceConfig {
     
     public static final String TIME_TO_LIVE_UNIT = PREFIX + "timeToLiveUnit";
     
+    public static final String LOADER_TIMEOUT = PREFIX + "loaderTimeout";
+    
+    public static final String LOADER_TIMEOUT_UNIT = PREFIX + "loaderTimeoutUnit";
+    
+    public static final String DEFAULT_LOADER = PREFIX + "defaultLoader";
+    
+    public static final String ASYNC_THREADS = PREFIX + "asyncThreads";
+    
+    public static final String ASYNC_QUEUE_SIZE = PREFIX + "asyncQueueSize";
+    
+    public static final String ASYNC_CALLER_RUNS = PREFIX + "asyncCallerRuns";
+    
+    public static final String METRICS_ENABLED = PREFIX + "metricsEnabled";
+    
+    public static final String CODEC = PREFIX + "codec";
+    
+    public static final String MAX_BYTES_OFF_HEAP = PREFIX + "maxBytesOffHeap";
+    
+    public static final String MAX_BYTES_IN_MEMORY = PREFIX + "maxBytesInMemory";
+    
+    public static final String MAX_BYTES_ON_DISK = PREFIX + "maxBytesOnDisk";
+    
+    public static final String DISK_STORE = PREFIX + "diskStore";
+    
+    public static final String DISK_SEGMENT_SIZE = PREFIX + "diskSegmentSize";
+    
+    public static final String DISK_STORE_PATHS = PREFIX + "diskStorePaths";
+    
+    public static final String DISK_FILTER_SIZE = PREFIX + "diskFilterSize";
+    
+    public static final String DISK_COMPRESSION = PREFIX + "diskCompression";
+    
+    public static final String DISK_COMPRESSION_THRESHOLD = PREFIX + "diskCompressionThreshold";
+    
+    public static final String SNAPSHOT_FILE = PREFIX + "snapshotFile";
+    
+    public static final String SNAPSHOT_SIZE = PREFIX + "snapshotSize";
+    
+    public static final String SNAPSHOT_KEYS_ONLY = PREFIX + "snapshotKeysOnly";
+    
+    public static final String WARM_UP_TIMEOUT = PREFIX + "warmUpTimeout";
+    
+    public static final String WARM_UP_TIMEOUT_UNIT = PREFIX + "warmUpTimeoutUnit";
+    
+    public static final String NEAR_CACHE_SIZE = PREFIX + "nearCacheSize";
+    
+    public static final String NEAR_CACHE_MAX_AGE = PREFIX + "nearCacheMaxAge";
+    
+    public static final String NEAR_CACHE_MAX_AGE_UNIT = PREFIX + "nearCacheMaxAgeUnit";
+    
+    public static final String EXPIRY_INTERVAL = PREFIX + "expiryInterval";
+    
+    public static final String EXPIRY_INTERVAL_UNIT = PREFIX + "expiryIntervalUnit";
+    
+    public static final String NEGATIVE_TIME_TO_LIVE = PREFIX + "negativeTimeToLive";
+    
+    public static final String NEGATIVE_TIME_TO_LIVE_UNIT = PREFIX + "negativeTimeToLiveUnit";
+    
+    public static final String ABSENT_FILTER_SIZE = PREFIX + "absentFilterSize";
+    
+    public static final String ABSENT_FILTER_FPP = PREFIX + "absentFilterFpp";
+    
+    public static final String EVENT_BUFFER_SIZE = PREFIX + "eventBufferSize";
+    
+    public static final String EVENT_INTERVAL = PREFIX + "eventInterval";
+    
+    public static final String EVENT_INTERVAL_UNIT = PREFIX + "eventIntervalUnit";
+    
+    public static final String INVALIDATION_TRANSPORT = PREFIX + "invalidationTransport";
+    
+    public static final String INVALIDATION_WINDOW = PREFIX + "invalidationWindow";
+    
+    public static final String INVALIDATION_WINDOW_UNIT = PREFIX + "invalidationWindowUnit";
+    
+    public static final String WRITER = PREFIX + "writer";
+    
+    public static final String WRITE_BATCH_SIZE = PREFIX + "writeBatchSize";
+    
+    public static final String WRITE_DELAY = PREFIX + "writeDelay";
+    
+    public static final String WRITE_DELAY_UNIT = PREFIX + "writeDelayUnit";
+    
+    public static final String WRITE_QUEUE_SIZE = PREFIX + "writeQueueSize";
+    
+    public static final String REFRESH_FRACTION = PREFIX + "refreshFraction";
+    
+    public static final String REFRESH_THREADS = PREFIX + "refreshThreads";
+    
+    public static final String REFRESH_QUEUE_SIZE = PREFIX + "refreshQueueSize";
+    
     private EhCacheServiceConfig() {
         
     }
@@ -23,16 +23,17 @@ import com.google.common.base.Preconditions;
 import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.PrivateModule;
 import com.google.inject.Singleton;
 import com.google.inject.name.Names;
 
 import de.cosmocode.palava.core.inject.AbstractRebindModule;
 import de.cosmocode.palava.core.inject.Config;
 import de.cosmocode.palava.core.inject.RebindModule;
-import net.sf.ehcache.CacheManager;
 
 /**
- * <p> Binds the EhCacheService to the {@link CacheService}.
+ * <p> Binds the EhCacheService to the {@link CacheService}, the {@link ExtendedCacheService}
+ * and the {@link AsyncCacheService}, and a {@link LongCacheService} of the same configuration.
  * </p>
  * <p> Look at the constructor ({@link #EhCacheServiceModule()})
  * for all configuration parameters.
@@ -46,6 +47,19 @@ import net.sf.ehcache.CacheManager;
  */
 public final class EhCacheServiceModule implements Module {
     
+    /**
+     * Binds the {@link ManagedCacheManager} shared by all caches. Guice installs
+     * the same module instance only once, however many caches are registered.
+     */
+    private static final Module MANAGER = new Module() {
+        
+        @Override
+        public void configure(Binder binder) {
+            binder.bind(ManagedCacheManager.class).in(Singleton.class);
+        }
+        
+    };
+    
     /**
      * Binds the EhCacheService to the {@link CacheService}.
      * 
@@ -53,6 +67,12 @@ public final class EhCacheServiceModule implements Module {
      * <ul>
      *   <li>cache.ehcache.name (a unique name for the cache)</li>
      * </ul>
+     * <p>Optional parameters shared by all caches are:</p>
+     * <ul>
+     *   <li>cache.ehcache.configFile (path of the ehcache xml, defaults to the ehcache.xml on the classpath)</li>
+     *   <li>cache.ehcache.startupThreads (int, threads used to start caches in parallel, defaults to 0, which
+     *   starts every cache in the thread which initializes it, so startup failures surface right away)</li>
+     * </ul>
      * <p>Optional parameters are:</p>
      * <ul>
      *   <li>cache.ehcache.clearOnFlush (boolean)</li>
@@ -66,6 +86,7 @@ public final class EhCacheServiceModule implements Module {
      *   <li>cache.ehcache.maxElementsOnDisk (int)</li>
      *   <li>cache.ehcache.overflowToDisk (boolean)</li>
      *   <li>cache.ehcache.cacheMode (one of LRU, LFU, FIFO)</li>
+     *   <li>cache.ehcache.evictionPolicy (one of LRU, LFU, FIFO, TINY_LFU, overrides cacheMode)</li>
      *   <li>cache.ehcache.isTerracottaClustered (boolean)</li>
      *   <li>cache.ehcache.terracottaValueMode (one of SERIALIZATION, IDENTITY)</li>
      *   <li>cache.ehcache.terracottaCoherentReads (boolean)</li>
@@ -73,7 +94,57 @@ public final class EhCacheServiceModule implements Module {
      *   <li>cache.ehcache.timeToIdleUnit (TimeUnit)</li>
      *   <li>cache.ehcache.timeToLive (long)</li>
      *   <li>cache.ehcache.timeToLiveUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.loaderTimeout (long)</li>
+     *   <li>cache.ehcache.loaderTimeoutUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.asyncThreads (int)</li>
+     *   <li>cache.ehcache.asyncQueueSize (int)</li>
+     *   <li>cache.ehcache.asyncCallerRuns (boolean)</li>
+     *   <li>cache.ehcache.metricsEnabled (boolean, defaults to true)</li>
+     *   <li>cache.ehcache.codec (java, compact or the class name of a {@link Codec})</li>
+     *   <li>cache.ehcache.maxBytesOffHeap (long, requires overflowToDisk to be false)</li>
+     *   <li>cache.ehcache.maxBytesInMemory (long, estimated)</li>
+     *   <li>cache.ehcache.maxBytesOnDisk (long, requires the mapped disk store)</li>
+     *   <li>cache.ehcache.diskStore (ehcache or mapped)</li>
+     *   <li>cache.ehcache.diskSegmentSize (int, bytes per segment of the mapped disk store)</li>
+     *   <li>cache.ehcache.diskStorePaths (comma separated directories to shard the mapped disk store across)</li>
+     *   <li>cache.ehcache.diskFilterSize (int, expected keys on disk, 0 disables the disk store filter)</li>
+     *   <li>cache.ehcache.diskCompression (boolean, compress values in the mapped disk store)</li>
+     *   <li>cache.ehcache.diskCompressionThreshold (int, bytes below which values are written raw)</li>
+     *   <li>cache.ehcache.snapshotFile (String, path of the hot set snapshot)</li>
+     *   <li>cache.ehcache.snapshotSize (int, number of entries in the snapshot)</li>
+     *   <li>cache.ehcache.snapshotKeysOnly (boolean, requires a default loader)</li>
+     *   <li>cache.ehcache.warmUpTimeout (long)</li>
+     *   <li>cache.ehcache.warmUpTimeoutUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.nearCacheSize (int, elements per thread, 0 disables the near cache)</li>
+     *   <li>cache.ehcache.nearCacheMaxAge (long)</li>
+     *   <li>cache.ehcache.nearCacheMaxAgeUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.expiryInterval (long, how often entries with sub-second precision are expired)</li>
+     *   <li>cache.ehcache.expiryIntervalUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.negativeTimeToLive (long, 0 disables caching of loader misses)</li>
+     *   <li>cache.ehcache.negativeTimeToLiveUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.absentFilterSize (int, absent keys per bloom filter, 0 stores negative entries)</li>
+     *   <li>cache.ehcache.absentFilterFpp (double, false positive probability of the bloom filter)</li>
+     *   <li>cache.ehcache.eventBufferSize (int, buffered events for subscribers, 0 disables events)</li>
+     *   <li>cache.ehcache.eventInterval (long, delay between two event deliveries)</li>
+     *   <li>cache.ehcache.eventIntervalUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.invalidationTransport (String, e.g. multicast://239.1.2.3:7600, tcp://host:port?peers=...
+     *     or local://channel, propagates invalidations to other nodes)</li>
+     *   <li>cache.ehcache.invalidationWindow (long, delay between two batches of invalidations)</li>
+     *   <li>cache.ehcache.invalidationWindowUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.writeBatchSize (int, maximum keys per call of the {@link CacheWriter})</li>
+     *   <li>cache.ehcache.writeDelay (long, time changes are collected before they are written)</li>
+     *   <li>cache.ehcache.writeDelayUnit (TimeUnit)</li>
+     *   <li>cache.ehcache.writeQueueSize (int, maximum pending keys before stores block)</li>
+     *   <li>cache.ehcache.refreshFraction (double, 0 disables refresh-ahead)</li>
+     *   <li>cache.ehcache.refreshThreads (int)</li>
+     *   <li>cache.ehcache.refreshQueueSize (int)</li>
      * </ul>
+     * <p>A default {@link ValueLoader}, which is used by {@link ExtendedCacheService#load(java.io.Serializable)}
+     * and loads the values of a keys-only snapshot, can be bound using
+     * {@code @Named("cache.ehcache.defaultLoader")}, a write-behind {@link CacheWriter}
+     * using {@code @Named("cache.ehcache.writer")}.</p>
+     * <p>The {@link LongCacheService} uses timeToLive, timeToIdle, eternal, maxElementsInMemory,
+     * cacheMode and evictionPolicy and ignores all other parameters.</p>
      */
     public EhCacheServiceModule() {
         
@@ -81,7 +152,25 @@ public final class EhCacheServiceModule implements Module {
     
     @Override
     public void configure(final Binder binder) {
-        binder.bind(CacheService.class).to(EhCacheService.class).in(Singleton.class);
+        binder.install(MANAGER);
+        binder.install(new PrivateModule() {
+            
+            @Override
+            protected void configure() {
+                bind(ExtendedCacheService.class).annotatedWith(Backing.class).to(
+                    EhCacheService.class).in(Singleton.class);
+                bind(ExtendedCacheService.class).to(Key.get(ExtendedCacheService.class, Backing.class));
+                bind(CacheService.class).to(Key.get(ExtendedCacheService.class, Backing.class));
+                bind(AsyncCacheService.class).to(EhAsyncCacheService.class).in(Singleton.class);
+                bind(LongCacheService.class).to(PrimitiveLongCacheService.class).in(Singleton.class);
+                
+                expose(CacheService.class);
+                expose(ExtendedCacheService.class);
+                expose(AsyncCacheService.class);
+                expose(LongCacheService.class);
+            }
+            
+        });
     }
     
     /**
@@ -95,7 +184,60 @@ public final class EhCacheServiceModule implements Module {
     public static RebindModule annotatedWith(Class<? extends Annotation> annotation, String prefix) {
         Preconditions.checkNotNull(annotation, "Annotation");
         Preconditions.checkNotNull(prefix, "Prefix");
-        return new AnnotatedModule(annotation, prefix);
+        return shared(new AnnotatedModule(annotation, prefix, null, null));
+    }
+    
+    /**
+     * Creates a {@link RebindModule} which can be used to register one or more eh caches
+     * which load missing values and the values of keys-only snapshots using the given default loader.
+     * 
+     * @since 3.0
+     * @param annotation the binding annotation
+     * @param prefix the configuration prefix/name
+     * @param loader the default loader type
+     * @return a new {@link RebindModule}
+     */
+    public static RebindModule annotatedWith(Class<? extends Annotation> annotation, String prefix,
+        Class<? extends ValueLoader> loader) {
+        Preconditions.checkNotNull(annotation, "Annotation");
+        Preconditions.checkNotNull(prefix, "Prefix");
+        Preconditions.checkNotNull(loader, "Loader");
+        return shared(new AnnotatedModule(annotation, prefix, loader, null));
+    }
+    
+    /**
+     * Creates a {@link RebindModule} which can be used to register one or more eh caches
+     * which write stored and removed keys behind using the given writer.
+     * 
+     * @since 3.0
+     * @param annotation the binding annotation
+     * @param prefix the configuration prefix/name
+     * @param loader the default loader type, may be null
+     * @param writer the writer type
+     * @return a new {@link RebindModule}
+     */
+    public static RebindModule annotatedWith(Class<? extends Annotation> annotation, String prefix,
+        Class<? extends ValueLoader> loader, Class<? extends CacheWriter> writer) {
+        Preconditions.checkNotNull(annotation, "Annotation");
+        Preconditions.checkNotNull(prefix, "Prefix");
+        Preconditions.checkNotNull(writer, "Writer");
+        return shared(new AnnotatedModule(annotation, prefix, loader, writer));
+    }
+    
+    /**
+     * Installs the given private module together with the binding of the shared {@link ManagedCacheManager},
+     * which has to live outside of the private module to be shared with the other caches.
+     */
+    private static RebindModule shared(final RebindModule module) {
+        return new RebindModule() {
+            
+            @Override
+            public void configure(Binder binder) {
+                binder.install(MANAGER);
+                binder.install(module);
+            }
+            
+        };
     }
     
     /**
@@ -109,11 +251,16 @@ public final class EhCacheServiceModule implements Module {
         private final Class<? extends Annotation> annotation;
         private final String name;
         private final Config config;
+        private final Class<? extends ValueLoader> loader;
+        private final Class<? extends CacheWriter> writer;
         
-        public AnnotatedModule(Class<? extends Annotation> annotation, String prefix) {
+        public AnnotatedModule(Class<? extends Annotation> annotation, String prefix,
+            Class<? extends ValueLoader> loader, Class<? extends CacheWriter> writer) {
             this.annotation = annotation;
             this.name = prefix;
             this.config = new Config(prefix);
+            this.loader = loader;
+            this.writer = writer;
         }
         
         @Override
@@ -157,6 +304,9 @@ public final class EhCacheServiceModule implements Module {
             bind(CacheMode.class).annotatedWith(Names.named(EhCacheServiceConfig.CACHE_MODE)).to(
                 Key.get(CacheMode.class, Names.named(config.prefixed(EhCacheServiceConfig.CACHE_MODE))));
 
+            bind(EvictionPolicy.class).annotatedWith(Names.named(EhCacheServiceConfig.EVICTION_POLICY)).to(
+                Key.get(EvictionPolicy.class, Names.named(config.prefixed(EhCacheServiceConfig.EVICTION_POLICY))));
+
             bind(boolean.class).annotatedWith(Names.named(EhCacheServiceConfig.IS_TERRACOTTA_CLUSTERED)).to(
                 Key.get(boolean.class, Names.named(config.prefixed(EhCacheServiceConfig.IS_TERRACOTTA_CLUSTERED))));
 
@@ -177,16 +327,161 @@ public final class EhCacheServiceModule implements Module {
 
             bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.TIME_TO_LIVE_UNIT)).to(
                 Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.TIME_TO_LIVE_UNIT))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.LOADER_TIMEOUT)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.LOADER_TIMEOUT))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.LOADER_TIMEOUT_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.LOADER_TIMEOUT_UNIT))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.ASYNC_THREADS)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.ASYNC_THREADS))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.ASYNC_QUEUE_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.ASYNC_QUEUE_SIZE))));
+
+            bind(boolean.class).annotatedWith(Names.named(EhCacheServiceConfig.ASYNC_CALLER_RUNS)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(EhCacheServiceConfig.ASYNC_CALLER_RUNS))));
+
+            bind(boolean.class).annotatedWith(Names.named(EhCacheServiceConfig.METRICS_ENABLED)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(EhCacheServiceConfig.METRICS_ENABLED))));
+
+            bind(String.class).annotatedWith(Names.named(EhCacheServiceConfig.CODEC)).to(
+                Key.get(String.class, Names.named(config.prefixed(EhCacheServiceConfig.CODEC))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.MAX_BYTES_OFF_HEAP)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.MAX_BYTES_OFF_HEAP))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.MAX_BYTES_IN_MEMORY)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.MAX_BYTES_IN_MEMORY))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.MAX_BYTES_ON_DISK)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.MAX_BYTES_ON_DISK))));
+
+            bind(String.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_STORE)).to(
+                Key.get(String.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_STORE))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_SEGMENT_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_SEGMENT_SIZE))));
+
+            bind(String.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_STORE_PATHS)).to(
+                Key.get(String.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_STORE_PATHS))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_FILTER_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_FILTER_SIZE))));
+
+            bind(boolean.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_COMPRESSION)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_COMPRESSION))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.DISK_COMPRESSION_THRESHOLD)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.DISK_COMPRESSION_THRESHOLD))));
+
+            bind(String.class).annotatedWith(Names.named(EhCacheServiceConfig.SNAPSHOT_FILE)).to(
+                Key.get(String.class, Names.named(config.prefixed(EhCacheServiceConfig.SNAPSHOT_FILE))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.SNAPSHOT_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.SNAPSHOT_SIZE))));
+
+            bind(boolean.class).annotatedWith(Names.named(EhCacheServiceConfig.SNAPSHOT_KEYS_ONLY)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(EhCacheServiceConfig.SNAPSHOT_KEYS_ONLY))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.WARM_UP_TIMEOUT)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.WARM_UP_TIMEOUT))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.WARM_UP_TIMEOUT_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.WARM_UP_TIMEOUT_UNIT))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.NEAR_CACHE_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.NEAR_CACHE_SIZE))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.NEAR_CACHE_MAX_AGE_UNIT))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.EXPIRY_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.EXPIRY_INTERVAL))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.EXPIRY_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.EXPIRY_INTERVAL_UNIT))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.NEGATIVE_TIME_TO_LIVE_UNIT))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.ABSENT_FILTER_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.ABSENT_FILTER_SIZE))));
+
+            bind(double.class).annotatedWith(Names.named(EhCacheServiceConfig.ABSENT_FILTER_FPP)).to(
+                Key.get(double.class, Names.named(config.prefixed(EhCacheServiceConfig.ABSENT_FILTER_FPP))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.EVENT_BUFFER_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.EVENT_BUFFER_SIZE))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.EVENT_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.EVENT_INTERVAL))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.EVENT_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.EVENT_INTERVAL_UNIT))));
+
+            bind(String.class).annotatedWith(Names.named(EhCacheServiceConfig.INVALIDATION_TRANSPORT)).to(
+                Key.get(String.class, Names.named(config.prefixed(EhCacheServiceConfig.INVALIDATION_TRANSPORT))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.INVALIDATION_WINDOW)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.INVALIDATION_WINDOW))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.INVALIDATION_WINDOW_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.INVALIDATION_WINDOW_UNIT))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.WRITE_BATCH_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.WRITE_BATCH_SIZE))));
+
+            bind(long.class).annotatedWith(Names.named(EhCacheServiceConfig.WRITE_DELAY)).to(
+                Key.get(long.class, Names.named(config.prefixed(EhCacheServiceConfig.WRITE_DELAY))));
+
+            bind(TimeUnit.class).annotatedWith(Names.named(EhCacheServiceConfig.WRITE_DELAY_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(EhCacheServiceConfig.WRITE_DELAY_UNIT))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.WRITE_QUEUE_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.WRITE_QUEUE_SIZE))));
+
+            bind(double.class).annotatedWith(Names.named(EhCacheServiceConfig.REFRESH_FRACTION)).to(
+                Key.get(double.class, Names.named(config.prefixed(EhCacheServiceConfig.REFRESH_FRACTION))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.REFRESH_THREADS)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.REFRESH_THREADS))));
+
+            bind(int.class).annotatedWith(Names.named(EhCacheServiceConfig.REFRESH_QUEUE_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(EhCacheServiceConfig.REFRESH_QUEUE_SIZE))));
         }
         
         @Override
         protected void bindings() {
-            bind(CacheService.class).annotatedWith(annotation).to(EhCacheService.class).in(Singleton.class);
+            if (loader != null) {
+                bind(ValueLoader.class).annotatedWith(Names.named(EhCacheServiceConfig.DEFAULT_LOADER)).to(loader);
+            }
+            if (writer != null) {
+                bind(CacheWriter.class).annotatedWith(Names.named(EhCacheServiceConfig.WRITER)).to(writer);
+            }
+            bind(ExtendedCacheService.class).annotatedWith(Backing.class).to(
+                EhCacheService.class).in(Singleton.class);
+            bind(ExtendedCacheService.class).annotatedWith(annotation).to(
+                Key.get(ExtendedCacheService.class, Backing.class));
+            bind(CacheService.class).annotatedWith(annotation).to(Key.get(ExtendedCacheService.class, Backing.class));
+            bind(AsyncCacheService.class).annotatedWith(annotation).to(EhAsyncCacheService.class).in(Singleton.class);
+            bind(LongCacheService.class).annotatedWith(annotation).to(
+                PrimitiveLongCacheService.class).in(Singleton.class);
         }
 
         @Override
         protected void expose() {
             expose(CacheService.class).annotatedWith(annotation);
+            expose(ExtendedCacheService.class).annotatedWith(annotation);
+            expose(AsyncCacheService.class).annotatedWith(annotation);
+            expose(LongCacheService.class).annotatedWith(annotation);
         }
         
     }
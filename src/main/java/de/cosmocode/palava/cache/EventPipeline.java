@@ -0,0 +1,235 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects {@link CacheEvent}s in a lock-free ring buffer and delivers them in
+ * coalesced batches to {@link CacheEventSubscriber}s on a background thread.
+ * <p>
+ *   Publishers claim a slot using a single compare-and-set, write key and type into
+ *   preallocated arrays and mark the slot as published. Publishing never blocks and
+ *   does not allocate. If the buffer is full, the event is dropped and counted.
+ * </p>
+ * <p>
+ *   The background thread wakes up once per interval, drains all published slots
+ *   and merges the events of the same key, the last one wins.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class EventPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventPipeline.class);
+    
+    private final String name;
+    
+    private final int capacity;
+    
+    private final int mask;
+    
+    private final long intervalNanos;
+    
+    private final Object[] keys;
+    
+    private final CacheEvent.Type[] types;
+    
+    // sequence + 1 of the event in each slot, 0 while the slot has never been published
+    private final AtomicLongArray published;
+    
+    private final AtomicLong claimed = new AtomicLong();
+    
+    private final AtomicLong consumed = new AtomicLong();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private final List<CacheEventSubscriber> subscribers = new CopyOnWriteArrayList<CacheEventSubscriber>();
+    
+    private volatile boolean running;
+    
+    private Thread thread;
+    
+    /**
+     * Creates a new pipeline.
+     * 
+     * @param name the name of the cache
+     * @param capacity the minimum number of buffered events, rounded up to the next power of two
+     * @param interval the delay between two deliveries
+     * @param intervalUnit the unit of interval
+     */
+    EventPipeline(String name, int capacity, long interval, TimeUnit intervalUnit) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive, but was %s", capacity);
+        Preconditions.checkArgument(capacity <= 1 << 30, "Capacity must not exceed 2^30, but was %s", capacity);
+        Preconditions.checkArgument(interval > 0, "Interval must be positive, but was %s", interval);
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.intervalNanos = intervalUnit.toNanos(interval);
+        this.keys = new Object[this.capacity];
+        this.types = new CacheEvent.Type[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+    }
+    
+    /**
+     * Starts the delivery thread.
+     */
+    void start() {
+        running = true;
+        thread = new DaemonThreadFactory(name + "-events").newThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                while (running) {
+                    drain();
+                    LockSupport.parkNanos(EventPipeline.this, intervalNanos);
+                }
+                // publishers may still have been active while stopping
+                drain();
+            }
+            
+        });
+        thread.start();
+    }
+    
+    /**
+     * Publishes an event.
+     * 
+     * @param key the key which changed
+     * @param type the kind of change
+     * @return false if the buffer was full and the event has been dropped
+     */
+    boolean publish(Object key, CacheEvent.Type type) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        final int index = (int) sequence & mask;
+        keys[index] = key;
+        types[index] = type;
+        published.lazySet(index, sequence + 1);
+        return true;
+    }
+    
+    /**
+     * Drains all published events and delivers them as one batch.
+     * Called by the delivery thread only.
+     */
+    void drain() {
+        long next = consumed.get();
+        Map<Object, CacheEvent.Type> batch = null;
+        for (int i = 0; i < capacity; i++) {
+            final int index = (int) next & mask;
+            if (published.get(index) != next + 1) {
+                break;
+            }
+            final Object key = keys[index];
+            final CacheEvent.Type type = types[index];
+            keys[index] = null;
+            consumed.lazySet(++next);
+            if (batch == null) {
+                batch = Maps.newLinkedHashMap();
+            }
+            // keeps the position of the first event, but the type of the last one
+            batch.put(key, type);
+        }
+        if (batch != null && !subscribers.isEmpty()) {
+            deliver(batch);
+        }
+    }
+    
+    private void deliver(Map<Object, CacheEvent.Type> batch) {
+        final List<CacheEvent> events = Lists.newArrayListWithCapacity(batch.size());
+        for (Map.Entry<Object, CacheEvent.Type> entry : batch.entrySet()) {
+            events.add(new CacheEvent((Serializable) entry.getKey(), entry.getValue()));
+        }
+        final List<CacheEvent> unmodifiable = Collections.unmodifiableList(events);
+        for (CacheEventSubscriber subscriber : subscribers) {
+            try {
+                subscriber.onEvents(unmodifiable);
+            } catch (RuntimeException e) {
+                LOG.warn("Subscriber {} of {} failed: {}", new Object[] {
+                    subscriber, name, e.getMessage()
+                });
+            }
+        }
+    }
+    
+    void subscribe(CacheEventSubscriber subscriber) {
+        subscribers.add(Preconditions.checkNotNull(subscriber, "Subscriber"));
+    }
+    
+    void unsubscribe(CacheEventSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+    
+    /**
+     * Returns the number of events which have been dropped, because the buffer was full.
+     * 
+     * @return the number of dropped events
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Stops the delivery thread, after delivering all pending events.
+     */
+    void close() {
+        running = false;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0L) {
+            LOG.warn("{} dropped {} events, consider a larger buffer", this, dropped.get());
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, capacity=%s, interval=%sns]", EventPipeline.class.getSimpleName(),
+            name, capacity, intervalNanos);
+    }
+
+}
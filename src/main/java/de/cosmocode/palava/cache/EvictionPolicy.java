@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+/**
+ * Eviction policies of the memory store of an {@link EhCacheService}. In addition to
+ * the policies of {@link CacheMode}, which map to the policies of ehcache, this
+ * offers {@link #TINY_LFU}.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public enum EvictionPolicy {
+
+    LRU,
+    
+    LFU,
+    
+    FIFO,
+    
+    /**
+     * Scan-resistant W-TinyLFU: a small LRU admission window in front of a segmented
+     * main region, guarded by a frequency sketch. Requires maxElementsInMemory to be set.
+     */
+    TINY_LFU;
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CacheService} which provides operations beyond the plain
+ * store/read/remove contract.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface ExtendedCacheService extends CacheService {
+
+    /**
+     * Reads the value for the given key and loads it using the specified loader
+     * if it is not present. Concurrent callers asking for the same missing key
+     * share a single invocation of the loader and wait for its result.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @param loader the loader used in case of a cache miss
+     * @return the cached or loaded value, or null if the loader returned null
+     * @throws NullPointerException if key or loader is null
+     * @throws net.sf.ehcache.CacheException if the loader failed or the wait for
+     *         a concurrent load timed out
+     */
+    <T> T read(Serializable key, ValueLoader loader);
+
+    /**
+     * Reads the value for the given key and loads it using the configured default loader
+     * if it is not present. Behaves like {@link #read(Serializable, ValueLoader)} otherwise.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return the cached or loaded value, or null if the loader returned null
+     * @throws NullPointerException if key is null
+     * @throws IllegalStateException if there is no default loader
+     * @throws net.sf.ehcache.CacheException if the loader failed or the wait for
+     *         a concurrent load timed out
+     */
+    <T> T load(Serializable key);
+
+    /**
+     * Reads the values for all given keys. Keys which are not cached
+     * are not contained in the returned map.
+     *
+     * @param <T> the generic value type
+     * @param keys the cache keys
+     * @return a map of all cached keys and their values
+     * @throws NullPointerException if keys is null or contains null
+     */
+    <T> Map<Serializable, T> readAll(Collection<? extends Serializable> keys);
+
+    /**
+     * Stores all given key/value pairs using the default max age.
+     *
+     * @param values the key/value pairs to store
+     * @throws NullPointerException if values is null or contains a null key
+     */
+    void storeAll(Map<? extends Serializable, ?> values);
+
+    /**
+     * Stores all given key/value pairs using the specified max age.
+     *
+     * @param values the key/value pairs to store
+     * @param maxAge the max age of all stored values
+     * @param maxAgeUnit the unit of maxAge
+     * @throws NullPointerException if values is null, contains a null key or maxAgeUnit is null
+     */
+    void storeAll(Map<? extends Serializable, ?> values, long maxAge, TimeUnit maxAgeUnit);
+
+    /**
+     * Removes all given keys.
+     *
+     * @param keys the keys to remove
+     * @throws NullPointerException if keys is null or contains null
+     */
+    void removeAll(Collection<? extends Serializable> keys);
+
+    /**
+     * Stores the given value if, and only if, no value is currently associated with the given key.
+     * This operation is atomic.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @param value the value to store
+     * @return the value which was already associated with key, or null if value has been stored
+     * @throws NullPointerException if key is null
+     */
+    <T> T putIfAbsent(Serializable key, Object value);
+
+    /**
+     * Replaces the value of the given key if, and only if, it is currently equal to oldValue.
+     * This operation is atomic.
+     *
+     * @param key the cache key
+     * @param oldValue the expected current value
+     * @param newValue the value to store
+     * @return true if the value has been replaced, false otherwise
+     * @throws NullPointerException if key is null
+     */
+    boolean replace(Serializable key, Object oldValue, Object newValue);
+
+    /**
+     * Replaces the value of the given key if, and only if, there is currently a value associated with it.
+     * This operation is atomic.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @param value the value to store
+     * @return the replaced value, or null if there was no value and nothing has been stored
+     * @throws NullPointerException if key is null
+     */
+    <T> T replace(Serializable key, Object value);
+
+    /**
+     * Removes the given key if, and only if, its current value is equal to the given one.
+     * This operation is atomic.
+     *
+     * @param key the cache key
+     * @param value the expected current value
+     * @return true if the key has been removed, false otherwise
+     * @throws NullPointerException if key is null
+     */
+    boolean remove(Serializable key, Object value);
+
+    /**
+     * Records that there is no value for the given key. Reads of this key return null,
+     * without calling a loader, until the negative entry expires or a value is stored.
+     *
+     * @param key the cache key
+     * @throws NullPointerException if key is null
+     */
+    void storeAbsent(Serializable key);
+
+    /**
+     * Checks whether the given key is known to have no value, either because of
+     * {@link #storeAbsent(Serializable)} or because a loader returned null.
+     *
+     * @param key the cache key
+     * @return true if key is known to be absent, false if it has a value or nothing is known about it
+     * @throws NullPointerException if key is null
+     */
+    boolean isAbsent(Serializable key);
+
+    /**
+     * Stores the given value and associates the key with the given tags. Storing the key again
+     * replaces its tags, replace operations keep them.
+     *
+     * @param key the cache key
+     * @param value the value
+     * @param tags the tags of key, may be empty
+     * @throws NullPointerException if key or tags is null
+     */
+    void store(Serializable key, Object value, Collection<? extends Serializable> tags);
+
+    /**
+     * Stores the given value with a maximum age and associates the key with the given tags.
+     *
+     * @param key the cache key
+     * @param value the value
+     * @param maxAge the maximum age of the value
+     * @param maxAgeUnit the unit of maxAge
+     * @param tags the tags of key, may be empty
+     * @throws NullPointerException if key, maxAgeUnit or tags is null
+     */
+    void store(Serializable key, Object value, long maxAge, TimeUnit maxAgeUnit,
+        Collection<? extends Serializable> tags);
+
+    /**
+     * Removes all keys which have been stored with the given tag. Keys are tracked in an index,
+     * so the cost of this operation depends on the number of tagged keys, not on the size of the cache.
+     * Tags are neither part of the hot set snapshot nor of persistent disk stores.
+     *
+     * @param tag the tag
+     * @return the number of keys which have been tagged with tag
+     * @throws NullPointerException if tag is null
+     */
+    int invalidateTag(Serializable tag);
+
+    /**
+     * Registers a subscriber which receives batches of the changes of this cache on a background thread.
+     * Events of the same key are merged within a batch. Publishing never blocks callers of this cache,
+     * events are dropped if the subscribers can't keep up.
+     *
+     * @param subscriber the subscriber
+     * @throws NullPointerException if subscriber is null
+     * @throws IllegalStateException if events are disabled for this cache
+     */
+    void subscribe(CacheEventSubscriber subscriber);
+
+    /**
+     * Removes a subscriber previously registered using {@link #subscribe(CacheEventSubscriber)}.
+     *
+     * @param subscriber the subscriber
+     */
+    void unsubscribe(CacheEventSubscriber subscriber);
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A count-min sketch estimating the access frequency of keys with 4 bit counters.
+ * Once the number of increments reaches ten times the maximum size, all counters
+ * are halved, so the sketch adapts to changing access patterns.
+ * 
+ * <p>
+ *   This class is not thread-safe.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    
+    private static final long RESET_MASK = 0x7777777777777777L;
+    
+    private static final int MAX_COUNT = 15;
+    
+    private final long[] table;
+    
+    private final int mask;
+    
+    private final int sampleSize;
+    
+    private int additions;
+    
+    /**
+     * Creates a sketch for the given number of keys.
+     * 
+     * @param maximumSize the number of keys which should be tracked accurately
+     */
+    FrequencySketch(int maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "Maximum size must be positive, but was %s", maximumSize);
+        // 16 counters per long, 4 counters per key
+        final int length = Integer.highestOneBit(Math.max(1, maximumSize / 4 - 1)) << 1;
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = maximumSize <= Integer.MAX_VALUE / 10 ? maximumSize * 10 : Integer.MAX_VALUE;
+    }
+    
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+    
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+    
+    /**
+     * Records an access of the given key.
+     * 
+     * @param key the key
+     */
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        // each depth uses another counter (of 16) within its long
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int depth = 0; depth < 4; depth++) {
+            final int index = indexOf(hash, depth);
+            final int offset = (start + depth) << 2;
+            final long value = table[index];
+            if (((value >>> offset) & MAX_COUNT) < MAX_COUNT) {
+                table[index] = value + (1L << offset);
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+    
+    /**
+     * Estimates how often the given key has been accessed.
+     * 
+     * @param key the key
+     * @return the estimated frequency, between 0 and 15
+     */
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int depth = 0; depth < 4; depth++) {
+            final int offset = (start + depth) << 2;
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, depth)] >>> offset) & MAX_COUNT));
+        }
+        return frequency;
+    }
+    
+    /**
+     * Halves all counters.
+     */
+    void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+}
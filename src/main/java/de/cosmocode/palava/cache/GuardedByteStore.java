@@ -0,0 +1,219 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ByteStore} which keeps a {@link CountingBloomFilter} of the keys in a disk store,
+ * so lookups of keys which have never been spilled skip the disk entirely.
+ * <p>
+ *   A persistent filter is written next to the disk store on close and deleted once it
+ *   has been read, so a crash never leaves a stale filter behind. A non-empty store
+ *   without a filter can't be guarded and is cleared on open. Persistent filters
+ *   require stable key hash codes, as for strings and numbers.
+ * </p>
+ * <p>
+ *   Keys which the guarded store drops on its own, e.g. expired ones or those of a dropped
+ *   segment, are removed from the filter as well, so its counts never go stale.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class GuardedByteStore implements ByteStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GuardedByteStore.class);
+    
+    private static final double FPP = 0.01;
+    
+    private final ByteStore store;
+    
+    private final File file;
+    
+    private final CacheMetrics metrics;
+    
+    private final CountingBloomFilter filter;
+    
+    private final List<ByteStoreListener> listeners = new CopyOnWriteArrayList<ByteStoreListener>();
+    
+    /**
+     * Creates a new guard.
+     * 
+     * @param store the guarded store
+     * @param expectedKeys the number of keys the filter is sized for
+     * @param file the file the filter is persisted in, null for a non-persistent store
+     * @param metrics the metrics to record skipped reads in, may be null
+     */
+    GuardedByteStore(ByteStore store, int expectedKeys, File file, CacheMetrics metrics) {
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.file = file;
+        this.metrics = metrics;
+        final CountingBloomFilter persisted = file == null ? null : read(file);
+        if (persisted == null) {
+            if (store.size() > 0) {
+                LOG.info("Clearing {}, there is no filter of its keys", store);
+                store.clear();
+            }
+            this.filter = new CountingBloomFilter(expectedKeys, FPP);
+        } else {
+            this.filter = persisted;
+        }
+        store.addListener(new ByteStoreListener() {
+            
+            @Override
+            public void dropped(Object key) {
+                filter.remove(key);
+                for (ByteStoreListener listener : listeners) {
+                    listener.dropped(key);
+                }
+            }
+            
+        });
+    }
+    
+    private static CountingBloomFilter read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return CountingBloomFilter.readFrom(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read filter {}: {}", file, e.getMessage());
+            return null;
+        } finally {
+            if (!file.delete()) {
+                LOG.warn("Unable to delete filter {}", file);
+            }
+        }
+    }
+    
+    private void write() throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        final DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            filter.writeTo(output);
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + file);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Unable to rename " + temporary + " to " + file);
+        }
+    }
+    
+    @Override
+    public boolean put(Object key, byte[] value, long expiresAt) {
+        // a replaced value must not be counted twice
+        if (filter.mightContain(key) && store.remove(key)) {
+            filter.remove(key);
+        }
+        // added first, a concurrent take must not miss the value
+        filter.add(key);
+        if (store.put(key, value, expiresAt)) {
+            return true;
+        } else {
+            filter.remove(key);
+            return false;
+        }
+    }
+    
+    @Override
+    public StoredValue take(Object key) {
+        if (!filter.mightContain(key)) {
+            if (metrics != null) {
+                metrics.diskRead(true);
+            }
+            return null;
+        }
+        if (metrics != null) {
+            metrics.diskRead(false);
+        }
+        final StoredValue value = store.take(key);
+        if (value != null) {
+            filter.remove(key);
+        }
+        return value;
+    }
+    
+    @Override
+    public boolean remove(Object key) {
+        if (filter.mightContain(key) && store.remove(key)) {
+            filter.remove(key);
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    @Override
+    public void clear() {
+        store.clear();
+        filter.clear();
+    }
+    
+    @Override
+    public int size() {
+        return store.size();
+    }
+    
+    @Override
+    public void addListener(ByteStoreListener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "Listener"));
+    }
+    
+    @Override
+    public void close() {
+        store.close();
+        if (file != null) {
+            try {
+                write();
+            } catch (IOException e) {
+                LOG.warn("Unable to write filter {}: {}", file, e.getMessage());
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, %s]", GuardedByteStore.class.getSimpleName(), store, filter);
+    }
+
+}
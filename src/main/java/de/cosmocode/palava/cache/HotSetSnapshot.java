@@ -0,0 +1,238 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A file holding the most frequently accessed entries of a cache, used
+ * to warm up a cache after a restart.
+ * 
+ * <p>
+ *   Keys and values are stored in their encoded form, so decoding can be done
+ *   in parallel by the caller. If the snapshot holds keys only, the values are
+ *   expected to be loaded again.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class HotSetSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HotSetSnapshot.class);
+    
+    private static final int MAGIC = 0x50434853;
+    
+    private static final int VERSION = 1;
+    
+    private static final Comparator<Element> BY_HITS = new Comparator<Element>() {
+        
+        @Override
+        public int compare(Element left, Element right) {
+            final long l = left.getHitCount();
+            final long r = right.getHitCount();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+        
+    };
+    
+    private final File file;
+    
+    private final Codec codec;
+    
+    HotSetSnapshot(File file, Codec codec) {
+        this.file = Preconditions.checkNotNull(file, "File");
+        this.codec = Preconditions.checkNotNull(codec, "Codec");
+    }
+    
+    /**
+     * Selects the elements with the highest hit counts which are currently held in memory.
+     * 
+     * @param cache the cache
+     * @param size the maximum number of elements
+     * @return the hottest elements, most frequently accessed first
+     */
+    static List<Element> hottest(Ehcache cache, int size) {
+        if (size <= 0) {
+            return Collections.emptyList();
+        }
+        final PriorityQueue<Element> queue = new PriorityQueue<Element>(size + 1, BY_HITS);
+        for (Object key : cache.getKeys()) {
+            if (!cache.isElementInMemory(key)) {
+                continue;
+            }
+            final Element element = cache.getQuiet(key);
+            if (element == null || element.isExpired()) {
+                continue;
+            }
+            if (queue.size() < size) {
+                queue.add(element);
+            } else if (BY_HITS.compare(element, queue.peek()) > 0) {
+                queue.poll();
+                queue.add(element);
+            }
+        }
+        final List<Element> elements = Lists.newArrayList(queue);
+        Collections.sort(elements, Collections.reverseOrder(BY_HITS));
+        return elements;
+    }
+    
+    /**
+     * Writes the given entries. The file is replaced atomically, so a crash
+     * while writing leaves the previous snapshot, if any.
+     * 
+     * @param entries the entries to write
+     * @param keysOnly whether values should be omitted
+     * @throws IOException if writing failed
+     */
+    void write(List<Entry> entries, boolean keysOnly) throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        final DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(Codecs.nameOf(codec));
+            output.writeBoolean(keysOnly);
+            output.writeInt(entries.size());
+            for (Entry entry : entries) {
+                output.writeInt(entry.key.length);
+                output.write(entry.key);
+                output.writeLong(entry.expiresAt);
+                if (!keysOnly) {
+                    output.writeInt(entry.value.length);
+                    output.write(entry.value);
+                }
+            }
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + file);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Unable to rename " + temporary + " to " + file);
+        }
+    }
+    
+    /**
+     * Reads and deletes the snapshot, so a stale snapshot is never loaded twice.
+     * 
+     * @return all entries, values are null if the snapshot holds keys only;
+     *         an empty list if there is no snapshot or it has been written using another codec
+     * @throws IOException if reading failed
+     */
+    List<Entry> read() throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                LOG.warn("Ignoring snapshot {} of an unknown format", file);
+                return Collections.emptyList();
+            }
+            final String name = input.readUTF();
+            if (!name.equals(Codecs.nameOf(codec))) {
+                LOG.warn("Ignoring snapshot {} written using codec {}", file, name);
+                return Collections.emptyList();
+            }
+            final boolean keysOnly = input.readBoolean();
+            final int size = input.readInt();
+            final List<Entry> entries = Lists.newArrayListWithCapacity(size);
+            for (int i = 0; i < size; i++) {
+                final byte[] key = new byte[input.readInt()];
+                input.readFully(key);
+                final long expiresAt = input.readLong();
+                final byte[] value;
+                if (keysOnly) {
+                    value = null;
+                } else {
+                    value = new byte[input.readInt()];
+                    input.readFully(value);
+                }
+                entries.add(new Entry(key, value, expiresAt));
+            }
+            return entries;
+        } finally {
+            input.close();
+            if (!file.delete()) {
+                LOG.warn("Unable to delete snapshot {}", file);
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [file=%s, codec=%s]", HotSetSnapshot.class.getSimpleName(), file, codec);
+    }
+    
+    /**
+     * A single encoded entry of a snapshot.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    static final class Entry {
+        
+        private final byte[] key;
+        
+        private final byte[] value;
+        
+        private final long expiresAt;
+        
+        Entry(byte[] key, byte[] value, long expiresAt) {
+            this.key = Preconditions.checkNotNull(key, "Key");
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+        
+        byte[] getKey() {
+            return key;
+        }
+        
+        byte[] getValue() {
+            return value;
+        }
+        
+        long getExpiresAt() {
+            return expiresAt;
+        }
+        
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.sf.ehcache.CacheException;
+
+/**
+ * Keeps track of running loads per key and makes sure that at most one
+ * load per key is in progress at any given time. Callers which arrive while
+ * a load for their key is running wait for its result instead of starting their own.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class InFlightLoads {
+
+    private final ConcurrentMap<Object, FutureTask<Object>> loads = new ConcurrentHashMap<Object, FutureTask<Object>>();
+
+    /**
+     * Runs the given callable for the specified key, unless another thread is already
+     * loading the same key, in which case this method waits for the result of that load.
+     * The timeout only bounds the wait. The thread which runs the callable returns its
+     * result however long it took, a hanging callable has to be bounded by itself.
+     *
+     * @param key the key being loaded
+     * @param callable the actual load, only invoked if no other load for key is running
+     * @param timeout the maximum time to wait for a concurrent load
+     * @param timeoutUnit the unit of timeout
+     * @return the loaded value
+     * @throws CacheException if the load failed, the wait timed out or the current thread was interrupted
+     */
+    Object load(Object key, Callable<Object> callable, long timeout, TimeUnit timeoutUnit) {
+        final FutureTask<Object> task = new FutureTask<Object>(callable);
+        final FutureTask<Object> running = loads.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loads.remove(key, task);
+            }
+            return await(key, task, timeout, timeoutUnit);
+        } else {
+            return await(key, running, timeout, timeoutUnit);
+        }
+    }
+
+    /**
+     * Checks whether a load for the given key is currently in progress.
+     *
+     * @param key the key
+     * @return true if the key is being loaded right now, false otherwise
+     */
+    boolean isLoading(Object key) {
+        return loads.containsKey(key);
+    }
+
+    private Object await(Object key, FutureTask<Object> task, long timeout, TimeUnit timeoutUnit) {
+        try {
+            return task.get(timeout, timeoutUnit);
+        } catch (ExecutionException e) {
+            throw new CacheException(String.format("Loading %s failed", key), e.getCause());
+        } catch (TimeoutException e) {
+            throw new CacheException(String.format("Timed out after %s %s waiting for %s to be loaded",
+                timeout, timeoutUnit, key), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException(String.format("Interrupted while waiting for %s to be loaded", key), e);
+        }
+    }
+
+}
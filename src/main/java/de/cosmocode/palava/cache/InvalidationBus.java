@@ -0,0 +1,267 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Propagates the invalidations of a single cache to the caches of the same name on
+ * all other nodes. Keys are collected in a set, which removes duplicates, and sent in
+ * batches once per window using an {@link InvalidationTransport}. Received invalidations
+ * are applied to a {@link Target}, messages of this bus itself are ignored.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class InvalidationBus implements InvalidationTransport.Receiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+    
+    private static final int MAGIC = 0x50434956;
+    
+    private static final int ALL = -1;
+    
+    // fits into a single datagram, including the header
+    private static final int MAX_MESSAGE_SIZE = 60 * 1024;
+    
+    private static final Random RANDOM = new Random();
+    
+    private final String name;
+    
+    private final InvalidationTransport transport;
+    
+    private final Codec codec;
+    
+    private final Target target;
+    
+    private final long node = RANDOM.nextLong();
+    
+    private final Set<Object> pending = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    
+    private final AtomicBoolean pendingAll = new AtomicBoolean();
+    
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Creates a new bus.
+     * 
+     * @param name the name of the cache
+     * @param transport the shared transport
+     * @param codec the codec used to encode keys
+     * @param target the local cache received invalidations are applied to
+     */
+    InvalidationBus(String name, InvalidationTransport transport, Codec codec, Target target) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+        this.transport = Preconditions.checkNotNull(transport, "Transport");
+        this.codec = Preconditions.checkNotNull(codec, "Codec");
+        this.target = Preconditions.checkNotNull(target, "Target");
+    }
+    
+    /**
+     * Registers this bus at its transport and starts sending invalidations once per window.
+     * 
+     * @param window the delay between two batches
+     * @param windowUnit the unit of window
+     * @throws IOException if the transport could not be opened
+     */
+    void start(long window, TimeUnit windowUnit) throws IOException {
+        transport.addReceiver(this);
+        executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "-invalidation"));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to send invalidations of {}: {}", name, e.getMessage());
+                }
+            }
+            
+        }, window, window, windowUnit);
+    }
+    
+    /**
+     * Invalidates the given key on all other nodes with the next batch.
+     * 
+     * @param key the key
+     */
+    void invalidate(Object key) {
+        pending.add(key);
+    }
+    
+    /**
+     * Clears the caches of all other nodes with the next batch.
+     */
+    void invalidateAll() {
+        pendingAll.set(true);
+    }
+    
+    /**
+     * Sends all pending invalidations.
+     */
+    void flush() {
+        if (pendingAll.getAndSet(false)) {
+            send(ALL, Lists.<byte[]>newArrayList());
+        }
+        final List<byte[]> batch = Lists.newArrayList();
+        int size = 0;
+        final Iterator<Object> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final Object key = iterator.next();
+            iterator.remove();
+            final byte[] encoded;
+            try {
+                encoded = Codecs.encode(codec, key);
+            } catch (IOException e) {
+                LOG.warn("Unable to encode key {} of {}, invalidating everything: {}", new Object[] {
+                    key, name, e.getMessage()
+                });
+                send(ALL, Lists.<byte[]>newArrayList());
+                continue;
+            }
+            if (encoded.length + 4 > MAX_MESSAGE_SIZE - headerSize()) {
+                LOG.warn("Key {} of {} is too large, invalidating everything", key, name);
+                send(ALL, Lists.<byte[]>newArrayList());
+                continue;
+            }
+            if (size + encoded.length + 4 > MAX_MESSAGE_SIZE - headerSize()) {
+                send(batch.size(), batch);
+                batch.clear();
+                size = 0;
+            }
+            batch.add(encoded);
+            size += encoded.length + 4;
+        }
+        if (!batch.isEmpty()) {
+            send(batch.size(), batch);
+        }
+    }
+    
+    private int headerSize() {
+        // magic, node, name (at most 3 bytes per char) and count
+        return 4 + 8 + 2 + name.length() * 3 + 4;
+    }
+    
+    private void send(int count, List<byte[]> keys) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(MAGIC);
+            output.writeLong(node);
+            output.writeUTF(name);
+            output.writeInt(count);
+            for (byte[] key : keys) {
+                output.writeInt(key.length);
+                output.write(key);
+            }
+            output.flush();
+            transport.send(bytes.toByteArray());
+        } catch (IOException e) {
+            LOG.warn("Unable to send invalidations of {} using {}: {}", new Object[] {
+                name, transport, e.getMessage()
+            });
+        }
+    }
+    
+    @Override
+    public void receive(byte[] message) {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        try {
+            if (input.readInt() != MAGIC || input.readLong() == node || !name.equals(input.readUTF())) {
+                return;
+            }
+            final int count = input.readInt();
+            if (count == ALL) {
+                target.invalidateAll();
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                final byte[] key = new byte[input.readInt()];
+                input.readFully(key);
+                target.invalidate(Codecs.decode(codec, key, 0, key.length));
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read invalidations of {}: {}", name, e.getMessage());
+        }
+    }
+    
+    /**
+     * Sends all pending invalidations and unregisters this bus from its transport.
+     */
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        transport.removeReceiver(this);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, %s]", InvalidationBus.class.getSimpleName(), name, transport);
+    }
+    
+    /**
+     * The local cache received invalidations are applied to.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    interface Target {
+        
+        /**
+         * Removes the given key without propagating the removal.
+         * 
+         * @param key the key
+         */
+        void invalidate(Object key);
+        
+        /**
+         * Removes all keys without propagating the removal.
+         */
+        void invalidateAll();
+        
+    }
+
+}
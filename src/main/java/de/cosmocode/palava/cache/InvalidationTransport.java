@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+
+/**
+ * Carries invalidation messages between the nodes of a cluster. Implementations are
+ * shared by all caches of a node and deliver every message to the receivers of all other
+ * nodes. The sending node may receive its own messages. Delivery is best effort.
+ * <p>
+ *   Custom implementations need a public no-arg constructor and are selected using
+ *   their fully qualified class name in {@link EhCacheServiceConfig#INVALIDATION_TRANSPORT}.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Sends the given message to all nodes.
+     *
+     * @param message the message
+     * @throws IOException if sending failed
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Registers a receiver. The first receiver opens the transport.
+     *
+     * @param receiver the receiver
+     * @throws IOException if opening the transport failed
+     */
+    void addReceiver(Receiver receiver) throws IOException;
+
+    /**
+     * Removes a receiver. Removing the last receiver closes the transport.
+     *
+     * @param receiver the receiver
+     */
+    void removeReceiver(Receiver receiver);
+
+    /**
+     * Receives the messages of an {@link InvalidationTransport}.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    interface Receiver {
+
+        /**
+         * Handles a single message. Called on a thread of the transport.
+         *
+         * @param message the message
+         */
+        void receive(byte[] message);
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Static registry of {@link InvalidationTransport}s, which shares one transport
+ * between all caches configured with the same address.
+ * <p>
+ *   Supported addresses are
+ * </p>
+ * <ul>
+ *   <li>multicast://group:port, e.g. multicast://239.1.2.3:7600</li>
+ *   <li>tcp://host:port?peers=host:port,host:port, listens on host:port and sends to all peers</li>
+ *   <li>local://channel, delivers to all caches of the same channel within this JVM</li>
+ *   <li>the fully qualified class name of a custom implementation</li>
+ * </ul>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class InvalidationTransports {
+
+    private static final ConcurrentMap<String, InvalidationTransport> REGISTRY =
+        new ConcurrentHashMap<String, InvalidationTransport>();
+    
+    private InvalidationTransports() {
+        
+    }
+    
+    /**
+     * Returns the transport for the given address.
+     * 
+     * @param address the transport address
+     * @return the shared transport
+     * @throws IllegalArgumentException if address is malformed or there is no such transport
+     */
+    static InvalidationTransport forAddress(String address) {
+        Preconditions.checkNotNull(address, "Address");
+        final InvalidationTransport transport = REGISTRY.get(address);
+        if (transport != null) {
+            return transport;
+        }
+        final InvalidationTransport created = create(address);
+        final InvalidationTransport existing = REGISTRY.putIfAbsent(address, created);
+        return existing == null ? created : existing;
+    }
+    
+    private static InvalidationTransport create(String address) {
+        if (!address.contains("://")) {
+            return instantiate(address);
+        }
+        final URI uri = URI.create(address);
+        if ("local".equals(uri.getScheme())) {
+            return new LocalTransport(uri.getAuthority());
+        }
+        Preconditions.checkArgument(uri.getHost() != null && uri.getPort() >= 0,
+            "%s requires host and port", address);
+        if ("multicast".equals(uri.getScheme())) {
+            try {
+                return new MulticastTransport(InetAddress.getByName(uri.getHost()), uri.getPort());
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Unknown multicast group in " + address, e);
+            }
+        } else if ("tcp".equals(uri.getScheme())) {
+            return new TcpTransport(new InetSocketAddress(uri.getHost(), uri.getPort()), peersOf(uri));
+        } else {
+            throw new IllegalArgumentException("Unknown invalidation transport " + address);
+        }
+    }
+    
+    private static List<InetSocketAddress> peersOf(URI uri) {
+        final String query = uri.getQuery();
+        if (query == null || !query.startsWith("peers=")) {
+            return Collections.emptyList();
+        }
+        final List<InetSocketAddress> peers = Lists.newArrayList();
+        for (String peer : query.substring("peers=".length()).split(",")) {
+            final int colon = peer.lastIndexOf(':');
+            Preconditions.checkArgument(colon > 0, "Peer %s of %s requires host and port", peer, uri);
+            peers.add(new InetSocketAddress(peer.substring(0, colon).trim(),
+                Integer.parseInt(peer.substring(colon + 1).trim())));
+        }
+        return peers;
+    }
+    
+    private static InvalidationTransport instantiate(String name) {
+        try {
+            final Class<?> type = Class.forName(name, true, Thread.currentThread().getContextClassLoader());
+            return InvalidationTransport.class.cast(type.newInstance());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown invalidation transport " + name, e);
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create invalidation transport " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create invalidation transport " + name, e);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException(name + " is not a " + InvalidationTransport.class.getName(), e);
+        }
+    }
+
+}
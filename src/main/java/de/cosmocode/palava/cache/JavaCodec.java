@@ -0,0 +1,70 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A {@link Codec} which uses plain java serialization, prefixed by the length of the serialized form.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class JavaCodec implements Codec {
+
+    static final JavaCodec INSTANCE = new JavaCodec();
+    
+    private JavaCodec() {
+        
+    }
+    
+    @Override
+    public void encode(Object value, DataOutput output) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        stream.writeObject(value);
+        stream.close();
+        output.writeInt(bytes.size());
+        output.write(bytes.toByteArray());
+    }
+    
+    @Override
+    public Object decode(DataInput input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        final ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            stream.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return Codecs.JAVA;
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock-free histogram for latencies in nanoseconds. Values are recorded into
+ * logarithmic buckets which are each split into {@value #SUB_BUCKETS} linear sub buckets,
+ * so any reported percentile is accurate to within 12.5% of the recorded value.
+ * Like the {@link StripedCounter}, concurrent threads record into separate stripes,
+ * which are summed up when reading.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    private static final int BUCKETS = Long.SIZE * SUB_BUCKETS;
+    
+    // each stripe takes 4k, so the number of stripes is capped
+    private static final int STRIPES = Math.min(16, StripedCounter.STRIPES);
+    
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    
+    /**
+     * Records a single value.
+     * 
+     * @param nanos the value in nanoseconds, negative values are treated as 0
+     */
+    void record(long nanos) {
+        record(nanos, 1L);
+    }
+    
+    /**
+     * Records the same value several times, e.g. the average duration of each operation of a batch.
+     * 
+     * @param nanos the value in nanoseconds, negative values are treated as 0
+     * @param times the number of times the value is recorded
+     */
+    void record(long nanos, long times) {
+        final int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * BUCKETS;
+        counts.addAndGet(stripe + indexOf(Math.max(0L, nanos)), times);
+    }
+    
+    private long countOf(int index) {
+        long count = 0L;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            count += counts.get(stripe * BUCKETS + index);
+        }
+        return count;
+    }
+    
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+    
+    /**
+     * Returns the number of recorded values.
+     * 
+     * @return the count of all values
+     */
+    long count() {
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += countOf(i);
+        }
+        return count;
+    }
+    
+    /**
+     * Computes the given percentile over all values recorded so far.
+     * 
+     * @param percentile the percentile, between 0.0 and 1.0
+     * @return the upper bound of the bucket containing the percentile in nanoseconds, or 0 if
+     *         nothing has been recorded yet
+     */
+    long percentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0 && percentile <= 1.0,
+            "Percentile must be between 0.0 and 1.0, but was %s", percentile);
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = countOf(i);
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long target = Math.max(1L, (long) Math.ceil(percentile * total));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+    
+    /**
+     * Discards all recorded values.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+    }
+
+}
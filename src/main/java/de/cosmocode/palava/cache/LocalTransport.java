@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+/**
+ * An {@link InvalidationTransport} which delivers messages to all receivers within
+ * the same JVM, synchronously in the sending thread. Every receiver represents a node,
+ * which allows to test a cluster of any size on a single machine.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class LocalTransport extends AbstractInvalidationTransport {
+
+    private final String channel;
+    
+    LocalTransport(String channel) {
+        this.channel = channel;
+    }
+    
+    @Override
+    public void send(byte[] message) {
+        deliver(message);
+    }
+    
+    @Override
+    protected void open() {
+        
+    }
+    
+    @Override
+    protected void close() {
+        
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s]", LocalTransport.class.getSimpleName(), channel);
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of values keyed by primitive longs, e.g. numeric database ids, which
+ * neither boxes keys nor wraps entries. It expires and evicts entries like the
+ * {@link CacheService} of the same configuration, but keeps its own entries.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface LongCacheService {
+
+    /**
+     * Reads the value for the given key.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return the cached value or null if there is none or it has expired
+     */
+    <T> T read(long key);
+
+    /**
+     * Stores the given value using the default max age. Storing null removes the key.
+     *
+     * @param key the cache key
+     * @param value the value
+     */
+    void store(long key, Object value);
+
+    /**
+     * Stores the given value using the specified max age. Storing null removes the key.
+     *
+     * @param key the cache key
+     * @param value the value
+     * @param maxAge the max age
+     * @param maxAgeUnit the unit of maxAge
+     * @throws NullPointerException if maxAgeUnit is null
+     * @throws IllegalArgumentException if maxAge is negative
+     */
+    void store(long key, Object value, long maxAge, TimeUnit maxAgeUnit);
+
+    /**
+     * Removes the given key.
+     *
+     * @param <T> the generic value type
+     * @param key the cache key
+     * @return the removed value or null if there was none or it had expired
+     */
+    <T> T remove(long key);
+
+    /**
+     * Removes all keys.
+     */
+    void clear();
+
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An open addressing hash table of primitive long keys which expires entries
+ * like ehcache does, after an absolute time and/or after being idle, and evicts
+ * them by sampling like the memory store of ehcache.
+ * <p>
+ * Keys, timestamps and eviction ranks are kept in parallel primitive arrays and
+ * collisions are resolved by linear probing, so neither reads nor writes allocate.
+ * Removals shift the following entries back instead of leaving tombstones.
+ * </p>
+ * <p>
+ * The table is split into segments by hash, each of them synchronized. A bounded table
+ * distributes its maximum size across the segments, evicts within a full segment and
+ * never resizes. An unbounded table drops expired entries of a segment before it grows.
+ * Otherwise expired entries are only dropped when they are accessed or sampled for eviction.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class LongHashTable {
+
+    // the number of entries ehcache samples to find an eviction victim
+    static final int SAMPLE_SIZE = 30;
+    
+    private static final int MAX_SEGMENTS = 16;
+    
+    // bounded tables use fewer segments rather than segments of fewer entries
+    private static final int MIN_SEGMENT_SIZE = 64;
+    
+    private static final int INITIAL_LENGTH = 16;
+    
+    private static final int MAX_LENGTH = 1 << 30;
+    
+    private final Segment[] segments;
+    
+    private final int segmentMask;
+    
+    private final EvictionPolicy policy;
+    
+    private final long timeToIdle;
+    
+    /**
+     * Creates a table.
+     * 
+     * @param maximumSize the maximum number of entries, 0 for unbounded
+     * @param policy the eviction policy, {@link EvictionPolicy#TINY_LFU} falls back to LFU
+     * @param timeToIdle the number of millis after the last access at which entries expire, 0 for never
+     */
+    LongHashTable(int maximumSize, EvictionPolicy policy, long timeToIdle) {
+        Preconditions.checkArgument(maximumSize >= 0, "Maximum size must not be negative, but was %s", maximumSize);
+        Preconditions.checkNotNull(policy, "Policy");
+        Preconditions.checkArgument(timeToIdle >= 0, "Time to idle must not be negative, but was %s", timeToIdle);
+        this.policy = policy == EvictionPolicy.TINY_LFU ? EvictionPolicy.LFU : policy;
+        this.timeToIdle = timeToIdle;
+        
+        final int count = maximumSize == 0 ? MAX_SEGMENTS :
+            Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[count];
+        this.segmentMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            // spreads the remainder across the first segments
+            final int size = maximumSize / count + (i < maximumSize % count ? 1 : 0);
+            segments[i] = new Segment(size, i);
+        }
+    }
+    
+    /**
+     * Returns the value of the given key, recording the access.
+     * 
+     * @param key the key
+     * @param now the current time in millis
+     * @return the value or null if there is none or it has expired
+     */
+    Object get(long key, long now) {
+        final long hash = hash(key);
+        return segmentFor(hash).get(key, hash, now);
+    }
+    
+    /**
+     * Associates the given value with the key, replacing and resetting any previous entry.
+     * 
+     * @param key the key
+     * @param value the value, must not be null
+     * @param expiresAt the absolute time in millis at which the value expires, {@link Long#MAX_VALUE} for never
+     * @param now the current time in millis
+     */
+    void put(long key, Object value, long expiresAt, long now) {
+        Preconditions.checkNotNull(value, "Value");
+        final long hash = hash(key);
+        segmentFor(hash).put(key, hash, value, expiresAt, now);
+    }
+    
+    /**
+     * Removes the given key.
+     * 
+     * @param key the key
+     * @param now the current time in millis
+     * @return the removed value or null if there was none or it had expired
+     */
+    Object remove(long key, long now) {
+        final long hash = hash(key);
+        return segmentFor(hash).remove(key, hash, now);
+    }
+    
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+    
+    /**
+     * Returns the number of entries, including expired entries which have not been dropped yet.
+     * 
+     * @return the number of entries
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    private Segment segmentFor(long hash) {
+        // the top bits select the segment, the bottom bits the slot within it
+        return segments[(int) (hash >>> 60) & segmentMask];
+    }
+    
+    /**
+     * Mixes all bits of the given key, using the finalizer of MurmurHash3.
+     * 
+     * @param key the key
+     * @return the hash
+     */
+    static long hash(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    /**
+     * A single segment of the table. Free slots are those without a value.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private final class Segment {
+        
+        // the maximum number of entries, 0 for unbounded
+        private final int maximumSize;
+        
+        private long[] keys;
+        
+        private Object[] values;
+        
+        private long[] expiresAt;
+        
+        private long[] accessedAt;
+        
+        // entries with the lowest rank are evicted first
+        private long[] ranks;
+        
+        private int size;
+        
+        private int threshold;
+        
+        // orders accesses and insertions for LRU and FIFO
+        private long sequence;
+        
+        // xorshift state picking the start of each eviction sample
+        private int seed;
+        
+        Segment(int maximumSize, int index) {
+            this.maximumSize = maximumSize;
+            this.seed = 0x9e3779b9 * (index + 1);
+            // bounded segments are sized to never exceed a load factor of 0.75
+            allocate(maximumSize == 0 ? INITIAL_LENGTH : lengthFor(maximumSize));
+        }
+        
+        private int lengthFor(int entries) {
+            final long length = Math.max(INITIAL_LENGTH, Long.highestOneBit(entries * 4L / 3L) << 1);
+            return (int) Math.min(MAX_LENGTH, length);
+        }
+        
+        private void allocate(int length) {
+            keys = new long[length];
+            values = new Object[length];
+            expiresAt = new long[length];
+            accessedAt = new long[length];
+            ranks = new long[length];
+            threshold = length / 4 * 3;
+        }
+        
+        synchronized Object get(long key, long hash, long now) {
+            final int index = indexOf(key, hash);
+            if (index < 0) {
+                return null;
+            } else if (isExpired(index, now)) {
+                delete(index);
+                return null;
+            }
+            accessedAt[index] = now;
+            if (policy == EvictionPolicy.LRU) {
+                ranks[index] = ++sequence;
+            } else if (policy == EvictionPolicy.LFU) {
+                ranks[index]++;
+            }
+            return values[index];
+        }
+        
+        synchronized void put(long key, long hash, Object value, long expires, long now) {
+            int index = indexOf(key, hash);
+            if (index < 0) {
+                makeRoom(now);
+                index = (int) hash & (keys.length - 1);
+                while (values[index] != null) {
+                    index = (index + 1) & (keys.length - 1);
+                }
+                keys[index] = key;
+                size++;
+            }
+            values[index] = value;
+            expiresAt[index] = expires;
+            accessedAt[index] = now;
+            ranks[index] = policy == EvictionPolicy.LFU ? 0L : ++sequence;
+        }
+        
+        synchronized Object remove(long key, long hash, long now) {
+            final int index = indexOf(key, hash);
+            if (index < 0) {
+                return null;
+            }
+            final Object value = isExpired(index, now) ? null : values[index];
+            delete(index);
+            return value;
+        }
+        
+        synchronized void clear() {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        private int indexOf(long key, long hash) {
+            final int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (values[index] != null) {
+                if (keys[index] == key) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+        
+        private boolean isExpired(int index, long now) {
+            return now >= expiresAt[index] || timeToIdle > 0L && now - accessedAt[index] >= timeToIdle;
+        }
+        
+        /**
+         * Ensures there is room for one more entry, by evicting in a bounded segment
+         * or by dropping expired entries and growing in an unbounded one.
+         */
+        private void makeRoom(long now) {
+            if (maximumSize > 0) {
+                if (size >= maximumSize) {
+                    evict(now);
+                }
+            } else if (size >= threshold) {
+                purge(now);
+                if (size >= threshold / 2 && keys.length < MAX_LENGTH) {
+                    resize(keys.length * 2);
+                }
+            }
+        }
+        
+        /**
+         * Evicts an expired entry or the entry with the lowest rank among a sample
+         * of entries, starting at a random slot.
+         */
+        private void evict(long now) {
+            final int mask = keys.length - 1;
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int index = seed & mask;
+            int victim = -1;
+            int sampled = 0;
+            while (sampled < SAMPLE_SIZE && sampled < size) {
+                if (values[index] != null) {
+                    if (isExpired(index, now)) {
+                        victim = index;
+                        break;
+                    } else if (victim < 0 || ranks[index] < ranks[victim]) {
+                        victim = index;
+                    }
+                    sampled++;
+                }
+                index = (index + 1) & mask;
+            }
+            delete(victim);
+        }
+        
+        private void purge(long now) {
+            int index = 0;
+            while (index < keys.length) {
+                if (values[index] != null && isExpired(index, now)) {
+                    // the hole may have been filled by a following entry, which needs a look too
+                    delete(index);
+                } else {
+                    index++;
+                }
+            }
+        }
+        
+        private void resize(int length) {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final long[] oldExpiresAt = expiresAt;
+            final long[] oldAccessedAt = accessedAt;
+            final long[] oldRanks = ranks;
+            allocate(length);
+            final int mask = length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null) {
+                    continue;
+                }
+                int index = (int) hash(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                expiresAt[index] = oldExpiresAt[i];
+                accessedAt[index] = oldAccessedAt[i];
+                ranks[index] = oldRanks[i];
+            }
+        }
+        
+        /**
+         * Deletes the entry at the given slot and shifts following entries of the same
+         * probe sequence back, so lookups never have to skip deleted slots.
+         */
+        private void delete(int index) {
+            final int mask = keys.length - 1;
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (values[next] != null) {
+                final int home = (int) hash(keys[next]) & mask;
+                // the entry may move if the hole lies between its home slot and its current slot
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    expiresAt[hole] = expiresAt[next];
+                    accessedAt[hole] = accessedAt[next];
+                    ranks[hole] = ranks[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+        }
+        
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Owns the {@link CacheManager} shared by all {@link EhCacheService}s. The manager is
+ * created by the first service which acquires it and shut down once the last service
+ * released it, so disposing a single cache no longer affects the others.
+ * Every instance creates a private manager instead of the JVM-wide singleton of ehcache,
+ * so the reference count of one instance can't shut down the caches of another.
+ * Services can start up on a shared pool, which allows dozens of caches
+ * (and their disk stores) to be initialized in parallel.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+@Singleton
+final class ManagedCacheManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ManagedCacheManager.class);
+    
+    /**
+     * Shared instance for services which are created without an injector.
+     */
+    static final ManagedCacheManager DEFAULT = new ManagedCacheManager();
+    
+    private String configFile;
+    
+    private int startupThreads;
+    
+    private CacheManager manager;
+    
+    private ThreadPoolExecutor startup;
+    
+    private int references;
+    
+    @Inject
+    ManagedCacheManager() {
+        
+    }
+    
+    /**
+     * Sets the ehcache xml configuration the manager is created from. Defaults
+     * to the ehcache.xml found on the classpath.
+     * 
+     * @param configFile the path of the configuration file
+     */
+    @Inject(optional = true)
+    void setConfigFile(@Named(EhCacheServiceConfig.CONFIG_FILE) String configFile) {
+        this.configFile = Preconditions.checkNotNull(configFile, "ConfigFile");
+    }
+    
+    /**
+     * Sets the number of threads used to start caches in parallel. 0 (the default) starts
+     * every cache in the thread which initializes it. Otherwise initialization returns
+     * before the cache has been started and startup failures are reported by the first operation.
+     * 
+     * @param startupThreads the number of threads, non-negative
+     */
+    @Inject(optional = true)
+    void setStartupThreads(@Named(EhCacheServiceConfig.STARTUP_THREADS) int startupThreads) {
+        Preconditions.checkArgument(startupThreads >= 0,
+            "Startup threads must not be negative, but was %s", startupThreads);
+        this.startupThreads = startupThreads;
+    }
+    
+    /**
+     * Acquires a reference to the shared manager, creating it if necessary. Every call
+     * has to be balanced by a call to {@link #release()}.
+     * 
+     * @return the cache manager
+     */
+    synchronized CacheManager acquire() {
+        if (references == 0) {
+            final Configuration configuration;
+            if (configFile == null) {
+                configuration = ConfigurationFactory.parseConfiguration();
+            } else {
+                LOG.info("Creating ehcache manager from {}", configFile);
+                configuration = ConfigurationFactory.parseConfiguration(new File(configFile));
+            }
+            manager = new CacheManager(configuration);
+            if (startupThreads > 0) {
+                startup = new ThreadPoolExecutor(startupThreads, startupThreads, 10L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("ehcache-startup"));
+                startup.allowCoreThreadTimeOut(true);
+            }
+        }
+        references++;
+        return manager;
+    }
+    
+    /**
+     * Runs the startup of a single cache, on the shared startup pool if there is one.
+     * 
+     * @param task the startup task
+     */
+    void startup(Runnable task) {
+        Preconditions.checkNotNull(task, "Task");
+        final ThreadPoolExecutor executor;
+        synchronized (this) {
+            Preconditions.checkState(references > 0, "%s has not been acquired", this);
+            executor = startup;
+        }
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+    
+    /**
+     * Releases a reference acquired using {@link #acquire()}. The last release
+     * shuts down the manager.
+     */
+    synchronized void release() {
+        Preconditions.checkState(references > 0, "%s has not been acquired", this);
+        references--;
+        if (references == 0) {
+            if (startup != null) {
+                startup.shutdown();
+                startup = null;
+            }
+            manager.shutdown();
+            manager = null;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s]", ManagedCacheManager.class.getSimpleName(),
+            configFile == null ? "ehcache.xml" : configFile);
+    }
+
+}
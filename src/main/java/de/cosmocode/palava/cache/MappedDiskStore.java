@@ -0,0 +1,694 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.CacheException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A persistent {@link ByteStore} built on memory mapped files.
+ * 
+ * <p>
+ *   Records are appended to a log which consists of fixed size segment files.
+ *   Each record holds the encoded key, the encoded value and the expiration time.
+ *   An open addressing hash table, which lives in a separate mapped index file, maps
+ *   64 bit hashes of the encoded keys to record locations. Lookups compare the
+ *   encoded key bytes, so keys must have a deterministic encoding.
+ * </p>
+ * <p>
+ *   Opening an existing store only maps the index and the segments, no entry is read.
+ *   The index is marked dirty while the store is open. If the previous instance was not
+ *   closed properly, the existing files are discarded. Segments which consist of mostly
+ *   garbage are compacted in the background by copying their live records to the end of the log.
+ *   If a size limit is configured, the oldest segment is dropped once the limit is reached.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class MappedDiskStore implements ByteStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedDiskStore.class);
+    
+    private static final String INDEX_FILE = "index.dat";
+    
+    private static final int MAGIC = 0x50434548;
+    private static final int VERSION = 1;
+    
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CLEAN_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int SIZE_OFFSET = 16;
+    private static final int USED_OFFSET = 20;
+    private static final int SEGMENT_SIZE_OFFSET = 24;
+    private static final int TAIL_SEGMENT_OFFSET = 28;
+    private static final int TAIL_POSITION_OFFSET = 32;
+    private static final int HEADER_SIZE = 64;
+    
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = 1L;
+    
+    // int keyLength, int valueLength, long expiresAt
+    private static final int RECORD_HEADER_SIZE = 16;
+    
+    private static final long COMPACTION_INTERVAL_SECONDS = 30L;
+    
+    private final File directory;
+    
+    private final Codec codec;
+    
+    private final boolean persistent;
+    
+    private final int segmentSize;
+    
+    private final long maxBytes;
+    
+    private final SortedMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    
+    private final ScheduledExecutorService compactor;
+    
+    private final List<ByteStoreListener> listeners = new CopyOnWriteArrayList<ByteStoreListener>();
+    
+    private MappedByteBuffer index;
+    
+    private int capacity;
+    
+    private int size;
+    
+    // live slots plus tombstones
+    private int used;
+    
+    private int tailSegment;
+    
+    private int tailPosition;
+    
+    /**
+     * Opens the store in the given directory.
+     * 
+     * @param directory the directory holding the index and the segment files
+     * @param codec the codec used to encode keys
+     * @param segmentSize the size of a single segment file in bytes
+     * @param maxBytes the maximum number of bytes of all segments, 0 for no limit
+     * @param persistent whether existing contents are reused and kept on close
+     * @throws CacheException if the directory can't be created or the files can't be mapped
+     */
+    MappedDiskStore(File directory, Codec codec, int segmentSize, long maxBytes, boolean persistent) {
+        this.directory = Preconditions.checkNotNull(directory, "Directory");
+        this.codec = Preconditions.checkNotNull(codec, "Codec");
+        Preconditions.checkArgument(segmentSize > RECORD_HEADER_SIZE, "Segment size too small: %s", segmentSize);
+        Preconditions.checkArgument(maxBytes == 0 || maxBytes >= 2L * segmentSize,
+            "Max bytes must be 0 or at least two segments, but was %s", maxBytes);
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.persistent = persistent;
+        
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new CacheException("Unable to create disk store directory " + directory);
+        }
+        try {
+            if (!persistent || !open()) {
+                create();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Unable to open disk store in " + directory, e);
+        }
+        
+        compactor = Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory(directory.getName() + "-compactor"));
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LOG.warn("Compaction of {} failed: {}", MappedDiskStore.this.directory, e.getMessage());
+                }
+            }
+            
+        }, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != length) {
+                raf.setLength(length);
+            }
+            // the mapping stays valid after the channel has been closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            raf.close();
+        }
+    }
+    
+    private File segmentFile(int id) {
+        return new File(directory, String.format("segment-%08d.dat", id));
+    }
+    
+    private boolean open() throws IOException {
+        final File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        final MappedByteBuffer existing = map(indexFile, indexFile.length());
+        if (existing.getInt(MAGIC_OFFSET) != MAGIC || existing.getInt(VERSION_OFFSET) != VERSION ||
+            existing.getInt(CLEAN_OFFSET) != 1 || existing.getInt(SEGMENT_SIZE_OFFSET) != segmentSize) {
+            LOG.info("Discarding incompatible or not properly closed disk store in {}", directory);
+            return false;
+        }
+        
+        index = existing;
+        capacity = index.getInt(CAPACITY_OFFSET);
+        size = index.getInt(SIZE_OFFSET);
+        used = index.getInt(USED_OFFSET);
+        tailSegment = index.getInt(TAIL_SEGMENT_OFFSET);
+        tailPosition = index.getInt(TAIL_POSITION_OFFSET);
+        
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.startsWith("segment-") && name.endsWith(".dat")) {
+                    final int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+                    segments.put(id, new Segment(id, map(file, segmentSize)));
+                }
+            }
+        }
+        if (!segments.containsKey(tailSegment)) {
+            LOG.info("Discarding disk store in {} because its tail segment is missing", directory);
+            segments.clear();
+            return false;
+        }
+        
+        // live bytes per segment are derived from the index, entries are not deserialized
+        for (int slot = 0; slot < capacity; slot++) {
+            final long hash = index.getLong(slotOffset(slot));
+            if (hash != EMPTY && hash != TOMBSTONE) {
+                final long location = index.getLong(slotOffset(slot) + 8);
+                final Segment segment = segments.get(segmentOf(location));
+                if (segment == null) {
+                    segments.clear();
+                    return false;
+                }
+                segment.liveBytes += recordLength(segment.buffer, positionOf(location));
+            }
+        }
+        
+        markDirty();
+        LOG.info("Opened disk store in {} with {} entries in {} segments", new Object[] {
+            directory, size, segments.size()
+        });
+        return true;
+    }
+    
+    private void create() throws IOException {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().equals(INDEX_FILE) || file.getName().startsWith("segment-")) {
+                    delete(file);
+                }
+            }
+        }
+        segments.clear();
+        index = newIndex(new File(directory, INDEX_FILE), INITIAL_CAPACITY);
+        capacity = INITIAL_CAPACITY;
+        size = 0;
+        used = 0;
+        tailSegment = 0;
+        tailPosition = 0;
+        segments.put(0, new Segment(0, map(segmentFile(0), segmentSize)));
+        writeHeader();
+        markDirty();
+    }
+    
+    private MappedByteBuffer newIndex(File file, int slots) throws IOException {
+        delete(file);
+        final MappedByteBuffer buffer = map(file, HEADER_SIZE + (long) slots * SLOT_SIZE);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, slots);
+        buffer.putInt(SEGMENT_SIZE_OFFSET, segmentSize);
+        return buffer;
+    }
+    
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete {}", file);
+        }
+    }
+    
+    private void markDirty() {
+        index.putInt(CLEAN_OFFSET, 0);
+        index.force();
+    }
+    
+    private void writeHeader() {
+        index.putInt(CAPACITY_OFFSET, capacity);
+        index.putInt(SIZE_OFFSET, size);
+        index.putInt(USED_OFFSET, used);
+        index.putInt(TAIL_SEGMENT_OFFSET, tailSegment);
+        index.putInt(TAIL_POSITION_OFFSET, tailPosition);
+    }
+    
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+    
+    private static long location(int segment, int position) {
+        return ((long) segment << 32) | (position & 0xFFFFFFFFL);
+    }
+    
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+    
+    private static int positionOf(long location) {
+        return (int) location;
+    }
+    
+    private static int recordLength(ByteBuffer buffer, int position) {
+        return RECORD_HEADER_SIZE + buffer.getInt(position) + buffer.getInt(position + 4);
+    }
+    
+    /**
+     * 64 bit FNV-1a, never {@link #EMPTY} or {@link #TOMBSTONE}.
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY || hash == TOMBSTONE ? hash + 2 : hash;
+    }
+    
+    private byte[] encodeKey(Object key) {
+        try {
+            return Codecs.encode(codec, key);
+        } catch (IOException e) {
+            throw new CacheException("Unable to encode key " + key, e);
+        }
+    }
+    
+    /**
+     * Finds the slot of the given key.
+     * 
+     * @return the slot index, or -1 if the key is not present
+     */
+    private int find(byte[] key, long hash) {
+        final int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            final long stored = index.getLong(slotOffset(slot));
+            if (stored == EMPTY) {
+                return -1;
+            } else if (stored == hash && keyEquals(index.getLong(slotOffset(slot) + 8), key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    private boolean keyEquals(long location, byte[] key) {
+        final ByteBuffer buffer = segments.get(segmentOf(location)).buffer;
+        final int position = positionOf(location);
+        if (buffer.getInt(position) != key.length) {
+            return false;
+        }
+        final int start = position + RECORD_HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void insert(long hash, long location) throws IOException {
+        if ((used + 1) * 2 > capacity) {
+            rehash(size * 4 > capacity ? capacity * 2 : capacity);
+        }
+        final int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            final long stored = index.getLong(slotOffset(slot));
+            if (stored == EMPTY || stored == TOMBSTONE) {
+                if (stored == EMPTY) {
+                    used++;
+                }
+                index.putLong(slotOffset(slot), hash);
+                index.putLong(slotOffset(slot) + 8, location);
+                size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    private void rehash(int newCapacity) throws IOException {
+        final File file = new File(directory, INDEX_FILE + ".tmp");
+        final MappedByteBuffer rehashed = newIndex(file, newCapacity);
+        final int mask = newCapacity - 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            final long hash = index.getLong(slotOffset(slot));
+            if (hash == EMPTY || hash == TOMBSTONE) {
+                continue;
+            }
+            int target = (int) hash & mask;
+            while (rehashed.getLong(slotOffset(target)) != EMPTY) {
+                target = (target + 1) & mask;
+            }
+            rehashed.putLong(slotOffset(target), hash);
+            rehashed.putLong(slotOffset(target) + 8, index.getLong(slotOffset(slot) + 8));
+        }
+        final File indexFile = new File(directory, INDEX_FILE);
+        delete(indexFile);
+        if (!file.renameTo(indexFile)) {
+            throw new IOException("Unable to rename " + file + " to " + indexFile);
+        }
+        index = rehashed;
+        capacity = newCapacity;
+        used = size;
+        writeHeader();
+        markDirty();
+    }
+    
+    private void tombstone(int slot) {
+        final long location = index.getLong(slotOffset(slot) + 8);
+        final Segment segment = segments.get(segmentOf(location));
+        segment.liveBytes -= recordLength(segment.buffer, positionOf(location));
+        index.putLong(slotOffset(slot), TOMBSTONE);
+        size--;
+    }
+    
+    /**
+     * Appends a record to the tail of the log.
+     * 
+     * @return the location of the record
+     */
+    private long append(byte[] key, byte[] value, long expiresAt) throws IOException {
+        final int length = RECORD_HEADER_SIZE + key.length + value.length;
+        if (tailPosition + length > segmentSize) {
+            roll();
+        }
+        final Segment segment = segments.get(tailSegment);
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(tailPosition);
+        buffer.putInt(key.length);
+        buffer.putInt(value.length);
+        buffer.putLong(expiresAt);
+        buffer.put(key);
+        buffer.put(value);
+        segment.liveBytes += length;
+        final long location = location(tailSegment, tailPosition);
+        tailPosition += length;
+        return location;
+    }
+    
+    private void roll() throws IOException {
+        if (maxBytes > 0) {
+            while ((long) (segments.size() + 1) * segmentSize > maxBytes) {
+                drop(segments.firstKey());
+            }
+        }
+        tailSegment++;
+        tailPosition = 0;
+        segments.put(tailSegment, new Segment(tailSegment, map(segmentFile(tailSegment), segmentSize)));
+    }
+    
+    /**
+     * Drops the given segment including all entries stored in it.
+     */
+    private void drop(int id) {
+        for (int slot = 0; slot < capacity; slot++) {
+            final long hash = index.getLong(slotOffset(slot));
+            if (hash != EMPTY && hash != TOMBSTONE && segmentOf(index.getLong(slotOffset(slot) + 8)) == id) {
+                dropped(slot);
+                tombstone(slot);
+            }
+        }
+        segments.remove(id);
+        delete(segmentFile(id));
+    }
+    
+    @Override
+    public boolean put(Object key, byte[] value, long expiresAt) {
+        final byte[] encodedKey = encodeKey(key);
+        if (RECORD_HEADER_SIZE + encodedKey.length + value.length > segmentSize) {
+            return false;
+        }
+        final long hash = hash(encodedKey);
+        synchronized (this) {
+            try {
+                final int existing = find(encodedKey, hash);
+                if (existing >= 0) {
+                    tombstone(existing);
+                }
+                insert(hash, append(encodedKey, value, expiresAt));
+                writeHeader();
+                return true;
+            } catch (IOException e) {
+                LOG.warn("Unable to write {} to disk store {}: {}", new Object[] {key, directory, e.getMessage()});
+                return false;
+            }
+        }
+    }
+    
+    @Override
+    public StoredValue take(Object key) {
+        final byte[] encodedKey = encodeKey(key);
+        final long hash = hash(encodedKey);
+        final StoredValue value;
+        synchronized (this) {
+            final int slot = find(encodedKey, hash);
+            if (slot < 0) {
+                return null;
+            }
+            final long location = index.getLong(slotOffset(slot) + 8);
+            final ByteBuffer buffer = segments.get(segmentOf(location)).buffer.duplicate();
+            buffer.position(positionOf(location));
+            final int keyLength = buffer.getInt();
+            final byte[] bytes = new byte[buffer.getInt()];
+            final long expiresAt = buffer.getLong();
+            buffer.position(buffer.position() + keyLength);
+            buffer.get(bytes);
+            tombstone(slot);
+            writeHeader();
+            value = new StoredValue(bytes, expiresAt);
+        }
+        return value;
+    }
+    
+    @Override
+    public boolean remove(Object key) {
+        final byte[] encodedKey = encodeKey(key);
+        final long hash = hash(encodedKey);
+        synchronized (this) {
+            final int slot = find(encodedKey, hash);
+            if (slot < 0) {
+                return false;
+            }
+            tombstone(slot);
+            writeHeader();
+            return true;
+        }
+    }
+    
+    @Override
+    public synchronized void clear() {
+        try {
+            create();
+        } catch (IOException e) {
+            throw new CacheException("Unable to clear disk store in " + directory, e);
+        }
+    }
+    
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+    
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+    
+    /**
+     * Compacts the oldest segment which is less than half full, if any.
+     * 
+     * @return true if a segment has been compacted, false otherwise
+     * @throws IOException if writing the live records failed
+     */
+    synchronized boolean compact() throws IOException {
+        if (index == null) {
+            return false;
+        } else if (maxBytes > 0 && (long) (segments.size() + 1) * segmentSize > maxBytes) {
+            // copying could force the oldest segment out while it is being compacted
+            return false;
+        }
+        for (Segment segment : segments.values()) {
+            if (segment.id != tailSegment && segment.liveBytes * 2 < segmentSize) {
+                compact(segment);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void compact(Segment segment) throws IOException {
+        final long now = System.currentTimeMillis();
+        int moved = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            final long hash = index.getLong(slotOffset(slot));
+            if (hash == EMPTY || hash == TOMBSTONE) {
+                continue;
+            }
+            final long location = index.getLong(slotOffset(slot) + 8);
+            if (segmentOf(location) != segment.id) {
+                continue;
+            }
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(positionOf(location));
+            final byte[] key = new byte[buffer.getInt()];
+            final byte[] value = new byte[buffer.getInt()];
+            final long expiresAt = buffer.getLong();
+            if (expiresAt <= now) {
+                dropped(slot);
+                tombstone(slot);
+                continue;
+            }
+            buffer.get(key);
+            buffer.get(value);
+            segment.liveBytes -= RECORD_HEADER_SIZE + key.length + value.length;
+            // appending never rehashes, so the slot stays valid
+            index.putLong(slotOffset(slot) + 8, append(key, value, expiresAt));
+            moved++;
+        }
+        segments.remove(segment.id);
+        delete(segmentFile(segment.id));
+        writeHeader();
+        LOG.debug("Compacted segment {} of {}, moved {} records", new Object[] {segment.id, directory, moved});
+    }
+    
+    @Override
+    public void addListener(ByteStoreListener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "Listener"));
+    }
+    
+    /**
+     * Notifies all listeners about the key of the given live slot, which is about to be dropped.
+     */
+    private void dropped(int slot) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final long location = index.getLong(slotOffset(slot) + 8);
+        final ByteBuffer buffer = segments.get(segmentOf(location)).buffer.duplicate();
+        buffer.position(positionOf(location));
+        final byte[] encodedKey = new byte[buffer.getInt()];
+        buffer.position(buffer.position() + RECORD_HEADER_SIZE - 4);
+        buffer.get(encodedKey);
+        final Object key;
+        try {
+            key = Codecs.decode(codec, encodedKey, 0, encodedKey.length);
+        } catch (IOException e) {
+            LOG.warn("Unable to decode dropped key of {}: {}", directory, e.getMessage());
+            return;
+        }
+        for (ByteStoreListener listener : listeners) {
+            listener.dropped(key);
+        }
+    }
+    
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        synchronized (this) {
+            if (index == null) {
+                return;
+            }
+            if (persistent) {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+                writeHeader();
+                index.putInt(CLEAN_OFFSET, 1);
+                index.force();
+            }
+            index = null;
+            segments.clear();
+            if (!persistent) {
+                final File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        delete(file);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [directory=%s, segmentSize=%s, maxBytes=%s, persistent=%s]",
+            MappedDiskStore.class.getSimpleName(), directory, segmentSize, maxBytes, persistent);
+    }
+    
+    /**
+     * A single mapped segment file.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Segment {
+        
+        private final int id;
+        private final MappedByteBuffer buffer;
+        private long liveBytes;
+        
+        Segment(int id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+        
+    }
+
+}
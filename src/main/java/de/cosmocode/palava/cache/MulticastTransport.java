@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link InvalidationTransport} which sends every message as a single UDP datagram
+ * to a multicast group. Lost datagrams are not retransmitted.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class MulticastTransport extends AbstractInvalidationTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MulticastTransport.class);
+    
+    static final int MAX_DATAGRAM_SIZE = 65507;
+    
+    private final InetAddress group;
+    
+    private final int port;
+    
+    private volatile MulticastSocket socket;
+    
+    MulticastTransport(InetAddress group, int port) {
+        this.group = Preconditions.checkNotNull(group, "Group");
+        Preconditions.checkArgument(group.isMulticastAddress(), "%s is no multicast address", group);
+        this.port = port;
+    }
+    
+    @Override
+    public void send(byte[] message) throws IOException {
+        Preconditions.checkArgument(message.length <= MAX_DATAGRAM_SIZE,
+            "Message of %s bytes exceeds the maximum datagram size", message.length);
+        final MulticastSocket current = socket;
+        Preconditions.checkState(current != null, "%s is not open", this);
+        current.send(new DatagramPacket(message, message.length, group, port));
+    }
+    
+    @Override
+    protected void open() throws IOException {
+        final MulticastSocket opened = new MulticastSocket(port);
+        opened.joinGroup(group);
+        socket = opened;
+        final Thread thread = new DaemonThreadFactory(toString()).newThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+                final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                while (!opened.isClosed()) {
+                    try {
+                        packet.setLength(buffer.length);
+                        opened.receive(packet);
+                        final int offset = packet.getOffset();
+                        deliver(Arrays.copyOfRange(buffer, offset, offset + packet.getLength()));
+                    } catch (IOException e) {
+                        if (!opened.isClosed()) {
+                            LOG.warn("Unable to receive from {}: {}", group, e.getMessage());
+                        }
+                    }
+                }
+            }
+            
+        });
+        thread.start();
+    }
+    
+    @Override
+    protected void close() {
+        final MulticastSocket current = socket;
+        socket = null;
+        try {
+            current.leaveGroup(group);
+        } catch (IOException e) {
+            LOG.warn("Unable to leave {}: {}", group, e.getMessage());
+        } finally {
+            current.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s:%s]", MulticastTransport.class.getSimpleName(), group.getHostAddress(), port);
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Element;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A small per-thread cache of elements in front of an ehcache instance, which lets
+ * extremely hot keys be read without touching the locks of the memory store.
+ * 
+ * <p>
+ *   Each thread owns a direct mapped table of elements, so reads neither lock nor
+ *   contend. Writes increment a version per key stripe; entries which have been
+ *   cached under an older version are ignored. Callers take the version before reading
+ *   the backing cache, so a concurrent write can't be hidden by a stale entry.
+ *   Changes which bypass {@link #invalidate(Object)} become visible after max age at the latest.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class NearCache {
+
+    private static final int STRIPES = 1024;
+    
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    
+    private final int mask;
+    
+    private final long maxAgeNanos;
+    
+    private final ThreadLocal<Entry[]> tables;
+    
+    /**
+     * Creates a near cache.
+     * 
+     * @param size the number of entries per thread, rounded up to the next power of two
+     * @param maxAge the maximum time an entry is served without looking at the backing cache
+     * @param maxAgeUnit the unit of maxAge
+     */
+    NearCache(int size, long maxAge, TimeUnit maxAgeUnit) {
+        Preconditions.checkArgument(size > 0, "Size must be positive, but was %s", size);
+        Preconditions.checkArgument(maxAge > 0, "Max age must be positive, but was %s", maxAge);
+        final int length = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.mask = length - 1;
+        this.maxAgeNanos = maxAgeUnit.toNanos(maxAge);
+        this.tables = new ThreadLocal<Entry[]>() {
+            
+            @Override
+            protected Entry[] initialValue() {
+                return new Entry[length];
+            }
+            
+        };
+    }
+    
+    private static int spread(Object key) {
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Returns the current version of the given key. Must be called before
+     * reading the element which will be passed to {@link #put(Object, Element, long)}.
+     * 
+     * @param key the key
+     * @return the current version
+     */
+    long version(Object key) {
+        return versions.get(spread(key) & (STRIPES - 1));
+    }
+    
+    /**
+     * Looks up the given key in the table of the current thread.
+     * 
+     * @param key the key
+     * @return the cached element, or null if there is no valid entry
+     */
+    Element get(Object key) {
+        final int hash = spread(key);
+        final Entry entry = tables.get()[hash & mask];
+        if (entry == null || !entry.key.equals(key)) {
+            return null;
+        } else if (entry.version != versions.get(hash & (STRIPES - 1))) {
+            return null;
+        } else if (System.nanoTime() - entry.loadedAt > maxAgeNanos) {
+            return null;
+        } else {
+            return entry.element;
+        }
+    }
+    
+    /**
+     * Caches the given element in the table of the current thread.
+     * 
+     * @param key the key
+     * @param element the element read from the backing cache
+     * @param version the version taken before the element has been read
+     */
+    void put(Object key, Element element, long version) {
+        tables.get()[spread(key) & mask] = new Entry(key, element, version, System.nanoTime());
+    }
+    
+    /**
+     * Invalidates the given key in the tables of all threads.
+     * Must be called after the backing cache has been modified.
+     * 
+     * @param key the key
+     */
+    void invalidate(Object key) {
+        versions.incrementAndGet(spread(key) & (STRIPES - 1));
+    }
+    
+    /**
+     * Invalidates all entries in the tables of all threads.
+     */
+    void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [size=%s, maxAge=%sms]", NearCache.class.getSimpleName(),
+            mask + 1, TimeUnit.NANOSECONDS.toMillis(maxAgeNanos));
+    }
+    
+    /**
+     * A cached element.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Entry {
+        
+        private final Object key;
+        
+        private final Element element;
+        
+        private final long version;
+        
+        private final long loadedAt;
+        
+        Entry(Object key, Element element, long version, long loadedAt) {
+            this.key = key;
+            this.element = element;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+        
+    }
+
+}
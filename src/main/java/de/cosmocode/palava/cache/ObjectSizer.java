@@ -0,0 +1,244 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Estimates the retained heap size of object graphs.
+ * 
+ * <p>
+ *   The layout of each class (shallow size and reference fields) is computed
+ *   once and cached. Large arrays and collections are sampled, i.e. only a bounded
+ *   number of their elements is measured and the result is extrapolated. The number
+ *   of objects visited per estimate is bounded as well, so sizing a huge graph stays cheap
+ *   at the cost of accuracy. Layouts assume a 64 bit JVM with compressed references.
+ * </p>
+ * <p>
+ *   Classes whose fields can't be accessed reflectively only contribute their shallow size.
+ *   Enums and classes are considered shared and contribute nothing.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class ObjectSizer {
+
+    private static final int OBJECT_HEADER = 12;
+    
+    private static final int ARRAY_HEADER = 16;
+    
+    private static final int REFERENCE = 4;
+    
+    private static final int ALIGNMENT = 8;
+    
+    // approximate per element overhead of collection nodes and map entries
+    private static final int COLLECTION_ELEMENT = REFERENCE + 16;
+    
+    private static final int MAP_ENTRY = REFERENCE + 32;
+    
+    private static final int SAMPLES = 16;
+    
+    private static final int MAX_VISITS = 256;
+    
+    private static final Field[] NO_FIELDS = new Field[0];
+    
+    private final ConcurrentMap<Class<?>, Shape> shapes = new ConcurrentHashMap<Class<?>, Shape>();
+    
+    /**
+     * Estimates the number of bytes retained by the given object.
+     * 
+     * @param root the object, may be null
+     * @return the estimated size in bytes
+     */
+    long sizeOf(Object root) {
+        if (root == null) {
+            return 0L;
+        }
+        return new Visit().measure(root);
+    }
+    
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+    
+    private static int sizeOfType(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        } else {
+            return REFERENCE;
+        }
+    }
+    
+    private Shape shapeOf(Class<?> type) {
+        final Shape cached = shapes.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        long size = OBJECT_HEADER;
+        final List<Field> references = Lists.newArrayList();
+        boolean accessible = true;
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                size += sizeOfType(field.getType());
+                if (!field.getType().isPrimitive() && accessible) {
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch (RuntimeException e) {
+                        // module boundaries or a security manager, count this class shallow only
+                        accessible = false;
+                    }
+                }
+            }
+        }
+        final Shape shape = new Shape(align(size), accessible ? references.toArray(NO_FIELDS) : NO_FIELDS);
+        shapes.putIfAbsent(type, shape);
+        return shape;
+    }
+    
+    /**
+     * A class layout.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Shape {
+        
+        private final long size;
+        
+        private final Field[] references;
+        
+        Shape(long size, Field[] references) {
+            this.size = size;
+            this.references = references;
+        }
+        
+    }
+    
+    /**
+     * A single estimate, tracking visited objects.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private final class Visit {
+        
+        private final Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        
+        private long measure(Object object) {
+            if (object == null || object instanceof Class<?> || object instanceof Enum<?>) {
+                return 0L;
+            } else if (visited.put(object, Boolean.TRUE) != null) {
+                return 0L;
+            }
+            
+            final Class<?> type = object.getClass();
+            if (object instanceof String) {
+                final int length = String.class.cast(object).length();
+                return shapeOf(String.class).size + align(ARRAY_HEADER + 2L * length);
+            } else if (type.isArray()) {
+                return measureArray(object, type.getComponentType());
+            } else if (object instanceof Collection<?>) {
+                final Collection<?> collection = Collection.class.cast(object);
+                return shapeOf(type).size + (long) COLLECTION_ELEMENT * collection.size() +
+                    measureSampled(collection.iterator(), collection.size());
+            } else if (object instanceof Map<?, ?>) {
+                final Map<?, ?> map = Map.class.cast(object);
+                return shapeOf(type).size + (long) MAP_ENTRY * map.size() +
+                    measureSampledEntries(map.entrySet().iterator(), map.size());
+            } else {
+                final Shape shape = shapeOf(type);
+                long size = shape.size;
+                if (visited.size() < MAX_VISITS) {
+                    for (Field field : shape.references) {
+                        try {
+                            size += measure(field.get(object));
+                        } catch (IllegalAccessException e) {
+                            continue;
+                        }
+                    }
+                }
+                return size;
+            }
+        }
+        
+        private long measureArray(Object array, Class<?> componentType) {
+            final int length = Array.getLength(array);
+            final long shallow = align(ARRAY_HEADER + (long) sizeOfType(componentType) * length);
+            if (componentType.isPrimitive() || length == 0) {
+                return shallow;
+            }
+            final Object[] elements = (Object[]) array;
+            final int step = Math.max(1, length / SAMPLES);
+            long sampled = 0L;
+            int count = 0;
+            for (int i = 0; i < length && visited.size() < MAX_VISITS; i += step) {
+                sampled += measure(elements[i]);
+                count++;
+            }
+            return shallow + extrapolate(sampled, count, length);
+        }
+        
+        private long measureSampled(Iterator<?> iterator, int size) {
+            long sampled = 0L;
+            int count = 0;
+            while (count < SAMPLES && iterator.hasNext() && visited.size() < MAX_VISITS) {
+                sampled += measure(iterator.next());
+                count++;
+            }
+            return extrapolate(sampled, count, size);
+        }
+        
+        private long measureSampledEntries(Iterator<? extends Map.Entry<?, ?>> iterator, int size) {
+            long sampled = 0L;
+            int count = 0;
+            while (count < SAMPLES && iterator.hasNext() && visited.size() < MAX_VISITS) {
+                final Map.Entry<?, ?> entry = iterator.next();
+                sampled += measure(entry.getKey()) + measure(entry.getValue());
+                count++;
+            }
+            return extrapolate(sampled, count, size);
+        }
+        
+        private long extrapolate(long sampled, int count, int size) {
+            return count == 0 ? 0L : sampled * size / count;
+        }
+        
+    }
+
+}
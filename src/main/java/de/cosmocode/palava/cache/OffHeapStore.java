@@ -0,0 +1,447 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link ByteStore} which keeps values in direct {@link ByteBuffer} slabs.
+ * 
+ * <p>
+ *   Slabs are allocated lazily up to the configured limit. Each slab is split into
+ *   chunks whose sizes are powers of two, starting at {@value #MIN_CHUNK_SHIFT} bits, and
+ *   which are aligned to their own size. Freed chunks are kept in one free list per size
+ *   class. Larger free chunks are split on demand and freed chunks are merged with their
+ *   free buddy again, so evicting small values eventually makes room for large ones.
+ * </p>
+ * <p>
+ *   If there is no space left, the least recently stored values are evicted and handed to
+ *   the next tier, if there is one. Values taken out of this store are expected to be
+ *   promoted to the heap, so insertion order equals recency.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class OffHeapStore implements ByteStore {
+
+    private static final int MIN_CHUNK_SHIFT = 6;
+    
+    private static final int MAX_SLAB_SHIFT = 26;
+    
+    private final long maxBytes;
+    
+    private final int slabShift;
+    
+    private final int slabSize;
+    
+    private final ByteStore next;
+    
+    private final List<ByteBuffer> slabs = Lists.newArrayList();
+    
+    // free chunk addresses per size class, indexed by shift
+    private final AddressStack[] free;
+    
+    private final Map<Object, Slot> slots = new LinkedHashMap<Object, Slot>();
+    
+    private final List<ByteStoreListener> listeners = new CopyOnWriteArrayList<ByteStoreListener>();
+    
+    private int bump;
+    
+    private long usedBytes;
+    
+    private long evictions;
+    
+    /**
+     * Creates a new off-heap store.
+     * 
+     * @param maxBytes the maximum number of bytes allocated outside of the heap
+     * @param next the tier which receives evicted values, may be null
+     */
+    OffHeapStore(long maxBytes, ByteStore next) {
+        Preconditions.checkArgument(maxBytes >= 1L << MIN_CHUNK_SHIFT,
+            "Max bytes must be at least %s, but was %s", 1L << MIN_CHUNK_SHIFT, maxBytes);
+        this.maxBytes = maxBytes;
+        this.slabShift = Math.min(MAX_SLAB_SHIFT, 63 - Long.numberOfLeadingZeros(maxBytes));
+        this.slabSize = 1 << slabShift;
+        this.next = next;
+        this.free = new AddressStack[slabShift + 1];
+        for (int i = MIN_CHUNK_SHIFT; i <= slabShift; i++) {
+            free[i] = new AddressStack();
+        }
+        this.bump = slabSize;
+    }
+    
+    private static int shiftOf(int length) {
+        return Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, length) - 1));
+    }
+    
+    @Override
+    public boolean put(Object key, byte[] value, long expiresAt) {
+        final int shift = shiftOf(value.length);
+        synchronized (this) {
+            release(slots.remove(key));
+            if (shift <= slabShift) {
+                final long address = allocate(shift);
+                if (address >= 0) {
+                    bufferAt(address).put(value);
+                    slots.put(key, new Slot(address, shift, value.length, expiresAt));
+                    usedBytes += 1 << shift;
+                    return true;
+                }
+            }
+        }
+        return next != null && next.put(key, value, expiresAt);
+    }
+    
+    @Override
+    public StoredValue take(Object key) {
+        final StoredValue value;
+        synchronized (this) {
+            final Slot slot = slots.remove(key);
+            if (slot == null) {
+                value = null;
+            } else {
+                final byte[] bytes = new byte[slot.length];
+                bufferAt(slot.address).get(bytes);
+                release(slot);
+                value = new StoredValue(bytes, slot.expiresAt);
+            }
+        }
+        if (value == null) {
+            return next == null ? null : next.take(key);
+        } else {
+            return value;
+        }
+    }
+    
+    @Override
+    public boolean remove(Object key) {
+        final Slot slot;
+        synchronized (this) {
+            slot = slots.remove(key);
+            release(slot);
+        }
+        final boolean removed = next != null && next.remove(key);
+        return slot != null || removed;
+    }
+    
+    @Override
+    public void clear() {
+        synchronized (this) {
+            slots.clear();
+            for (int i = MIN_CHUNK_SHIFT; i <= slabShift; i++) {
+                free[i].clear();
+            }
+            // keep the slabs, but start filling them from the beginning again
+            for (int i = 0; i < slabs.size() - 1; i++) {
+                free[slabShift].push(address(i, 0));
+            }
+            bump = slabs.isEmpty() ? slabSize : 0;
+            usedBytes = 0L;
+        }
+        if (next != null) {
+            next.clear();
+        }
+    }
+    
+    @Override
+    public synchronized int size() {
+        return slots.size();
+    }
+    
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+    
+    synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+    
+    synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    /**
+     * Moves all unexpired values to the next tier, e.g. before a persistent next tier is closed.
+     */
+    void flush() {
+        if (next == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final Iterator<Map.Entry<Object, Slot>> iterator = slots.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Object, Slot> entry = iterator.next();
+                iterator.remove();
+                final Slot slot = entry.getValue();
+                if (slot.expiresAt <= now || !moveToNext(entry.getKey(), slot)) {
+                    dropped(entry.getKey());
+                }
+                release(slot);
+            }
+        }
+    }
+    
+    @Override
+    public void addListener(ByteStoreListener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "Listener"));
+        if (next != null) {
+            next.addListener(listener);
+        }
+    }
+    
+    private void dropped(Object key) {
+        for (ByteStoreListener listener : listeners) {
+            listener.dropped(key);
+        }
+    }
+    
+    @Override
+    public void close() {
+        synchronized (this) {
+            slots.clear();
+            slabs.clear();
+            for (int i = MIN_CHUNK_SHIFT; i <= slabShift; i++) {
+                free[i].clear();
+            }
+            bump = slabSize;
+            usedBytes = 0L;
+        }
+        if (next != null) {
+            next.close();
+        }
+    }
+    
+    private static long address(int slab, int offset) {
+        return ((long) slab << 32) | offset;
+    }
+    
+    private ByteBuffer bufferAt(long address) {
+        final ByteBuffer buffer = slabs.get((int) (address >>> 32)).duplicate();
+        buffer.position((int) address);
+        return buffer;
+    }
+    
+    private void release(Slot slot) {
+        if (slot == null) {
+            return;
+        }
+        free(slot.address, slot.shift);
+        usedBytes -= 1 << slot.shift;
+    }
+    
+    private void free(long address, int shift) {
+        long chunk = address;
+        int size = shift;
+        // merge with the buddy chunk as long as it is free as well
+        while (size < slabShift && free[size].remove(chunk ^ (1L << size))) {
+            chunk &= ~(1L << size);
+            size++;
+        }
+        free[size].push(chunk);
+    }
+    
+    private long allocate(int shift) {
+        while (true) {
+            long address = allocateFree(shift);
+            if (address >= 0) {
+                return address;
+            }
+            address = allocateFresh(shift);
+            if (address >= 0) {
+                return address;
+            }
+            if (!evictEldest()) {
+                return -1L;
+            }
+        }
+    }
+    
+    private long allocateFree(int shift) {
+        if (!free[shift].isEmpty()) {
+            return free[shift].pop();
+        }
+        for (int larger = shift + 1; larger <= slabShift; larger++) {
+            if (!free[larger].isEmpty()) {
+                final long address = free[larger].pop();
+                // split the larger chunk into halves until it fits
+                for (int half = larger - 1; half >= shift; half--) {
+                    free[half].push(address + (1L << half));
+                }
+                return address;
+            }
+        }
+        return -1L;
+    }
+    
+    private long allocateFresh(int shift) {
+        final int chunk = 1 << shift;
+        // chunks are aligned to their size, which keeps the address of their buddy computable
+        final int aligned = (bump + chunk - 1) & -chunk;
+        if (aligned + chunk > slabSize) {
+            if ((long) (slabs.size() + 1) * slabSize > maxBytes) {
+                if (bump < slabSize) {
+                    // no more slabs, the tail may still be merged with freed chunks
+                    releaseTail(slabSize);
+                    return allocateFree(shift);
+                }
+                return -1L;
+            }
+            releaseTail(slabSize);
+            slabs.add(ByteBuffer.allocateDirect(slabSize));
+            bump = 0;
+        } else {
+            releaseTail(aligned);
+        }
+        final long address = address(slabs.size() - 1, bump);
+        bump += chunk;
+        return address;
+    }
+    
+    /**
+     * Hands the unused part of the current slab up to the given offset to the free lists,
+     * split into the largest chunks which are aligned to their own size.
+     */
+    private void releaseTail(int offset) {
+        if (slabs.isEmpty()) {
+            return;
+        }
+        final int slab = slabs.size() - 1;
+        while (bump < offset) {
+            final int shift = Math.min(Integer.numberOfTrailingZeros(bump),
+                31 - Integer.numberOfLeadingZeros(offset - bump));
+            free(address(slab, bump), shift);
+            bump += 1 << shift;
+        }
+    }
+    
+    private boolean moveToNext(Object key, Slot slot) {
+        final byte[] bytes = new byte[slot.length];
+        bufferAt(slot.address).get(bytes);
+        return next.put(key, bytes, slot.expiresAt);
+    }
+    
+    private boolean evictEldest() {
+        final Iterator<Map.Entry<Object, Slot>> iterator = slots.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        final Map.Entry<Object, Slot> eldest = iterator.next();
+        iterator.remove();
+        final Slot slot = eldest.getValue();
+        if (next == null || slot.expiresAt <= System.currentTimeMillis() || !moveToNext(eldest.getKey(), slot)) {
+            dropped(eldest.getKey());
+        }
+        release(slot);
+        evictions++;
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [maxBytes=%s, slabSize=%s]", OffHeapStore.class.getSimpleName(), maxBytes, slabSize);
+    }
+    
+    /**
+     * Location and metadata of a single stored value.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Slot {
+        
+        private final long address;
+        private final int shift;
+        private final int length;
+        private final long expiresAt;
+        
+        Slot(long address, int shift, int length, long expiresAt) {
+            this.address = address;
+            this.shift = shift;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+        
+    }
+    
+    /**
+     * A growable stack of primitive addresses which supports removing any address,
+     * used to find and merge free buddies.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class AddressStack {
+        
+        private long[] addresses = new long[16];
+        private int size;
+        
+        // position of each address in the stack
+        private final Map<Long, Integer> positions = Maps.newHashMap();
+        
+        void push(long address) {
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+            }
+            positions.put(address, size);
+            addresses[size++] = address;
+        }
+        
+        long pop() {
+            final long address = addresses[--size];
+            positions.remove(address);
+            return address;
+        }
+        
+        boolean remove(long address) {
+            final Integer position = positions.remove(address);
+            if (position == null) {
+                return false;
+            }
+            // move the top address into the gap
+            final long top = addresses[--size];
+            if (position != size) {
+                addresses[position] = top;
+                positions.put(top, position);
+            }
+            return true;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        void clear() {
+            size = 0;
+            positions.clear();
+        }
+        
+    }
+
+}
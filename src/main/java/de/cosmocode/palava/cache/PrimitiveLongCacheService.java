@@ -0,0 +1,189 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Initializable;
+
+/**
+ * A {@link LongCacheService} backed by a {@link LongHashTable}. It reads the
+ * time to live, time to idle, eternal, maxElementsInMemory and eviction policy
+ * settings of the {@link EhCacheService} of the same module, with the same defaults.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class PrimitiveLongCacheService implements LongCacheService, Initializable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrimitiveLongCacheService.class);
+    
+    private final String name;
+    
+    /*
+     * Start configuration parameters.
+     */
+    
+    private long timeToLive = 600L;
+    
+    private TimeUnit timeToLiveUnit = TimeUnit.SECONDS;
+    
+    private long timeToIdle = 600L;
+    
+    private TimeUnit timeToIdleUnit = TimeUnit.SECONDS;
+    
+    private boolean eternal;
+    
+    private int maxElementsInMemory;
+    
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    
+    /*
+     * End configuration parameters.
+     */
+    
+    private long timeToLiveMillis;
+    
+    private LongHashTable table;
+    
+    @Inject
+    PrimitiveLongCacheService(@Named(EhCacheServiceConfig.NAME) String name) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+    }
+    
+    @Inject(optional = true)
+    void setTimeToLive(@Named(EhCacheServiceConfig.TIME_TO_LIVE) long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    @Inject(optional = true)
+    void setTimeToLiveUnit(@Named(EhCacheServiceConfig.TIME_TO_LIVE_UNIT) TimeUnit timeToLiveUnit) {
+        this.timeToLiveUnit = timeToLiveUnit;
+    }
+
+    @Inject(optional = true)
+    void setTimeToIdle(@Named(EhCacheServiceConfig.TIME_TO_IDLE) long timeToIdle) {
+        this.timeToIdle = timeToIdle;
+    }
+
+    @Inject(optional = true)
+    void setTimeToIdleUnit(@Named(EhCacheServiceConfig.TIME_TO_IDLE_UNIT) TimeUnit timeToIdleUnit) {
+        this.timeToIdleUnit = timeToIdleUnit;
+    }
+    
+    /**
+     * Sets whether entries never expire, which overrides time to live and time to idle.
+     * @param eternal the new eternal value
+     */
+    @Inject(optional = true)
+    void setEternal(@Named(EhCacheServiceConfig.ETERNAL) boolean eternal) {
+        this.eternal = eternal;
+    }
+    
+    /**
+     * Sets the maximum number of entries. 0 (the default) means unlimited.
+     * @param maxElementsInMemory the maximum number of entries
+     */
+    @Inject(optional = true)
+    void setMaxElementsInMemory(@Named(EhCacheServiceConfig.MAX_ELEMENTS_IN_MEMORY) int maxElementsInMemory) {
+        Preconditions.checkArgument(maxElementsInMemory >= 0,
+            "Max elements in memory must not be negative, but was %s", maxElementsInMemory);
+        this.maxElementsInMemory = maxElementsInMemory;
+    }
+    
+    /**
+     * Sets the eviction policy using the cache mode.
+     * @param cacheMode the cache mode
+     */
+    @Inject(optional = true)
+    void setMemoryStoreEvictionPolicy(@Named(EhCacheServiceConfig.CACHE_MODE) CacheMode cacheMode) {
+        this.evictionPolicy = EvictionPolicy.valueOf(cacheMode.name());
+    }
+    
+    /**
+     * Sets the eviction policy, overriding the cache mode. {@link EvictionPolicy#TINY_LFU}
+     * falls back to sampled LFU.
+     * @param evictionPolicy the eviction policy
+     */
+    @Inject(optional = true)
+    void setEvictionPolicy(@Named(EhCacheServiceConfig.EVICTION_POLICY) EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = Preconditions.checkNotNull(evictionPolicy, "EvictionPolicy");
+    }
+    
+    @Override
+    public void initialize() {
+        timeToLiveMillis = eternal ? 0L : timeToLiveUnit.toMillis(timeToLive);
+        final long timeToIdleMillis = eternal ? 0L : timeToIdleUnit.toMillis(timeToIdle);
+        table = new LongHashTable(maxElementsInMemory, evictionPolicy, timeToIdleMillis);
+        LOG.info("Long cache [{}]: [maxElementsInMemory={}, evictionPolicy={}, timeToLive={}ms, timeToIdle={}ms]",
+            new Object[] {
+                name, maxElementsInMemory, evictionPolicy, timeToLiveMillis, timeToIdleMillis
+            });
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(long key) {
+        return (T) table.get(key, System.currentTimeMillis());
+    }
+    
+    @Override
+    public void store(long key, Object value) {
+        put(key, value, timeToLiveMillis);
+    }
+    
+    @Override
+    public void store(long key, Object value, long maxAge, TimeUnit maxAgeUnit) {
+        Preconditions.checkArgument(maxAge >= 0, "Max age must not be negative, but was %s", maxAge);
+        Preconditions.checkNotNull(maxAgeUnit, "MaxAge TimeUnit");
+        put(key, value, maxAgeUnit.toMillis(maxAge));
+    }
+    
+    private void put(long key, Object value, long timeToLive) {
+        final long now = System.currentTimeMillis();
+        if (value == null) {
+            table.remove(key, now);
+        } else {
+            table.put(key, value, timeToLive > 0L ? now + timeToLive : Long.MAX_VALUE, now);
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T remove(long key) {
+        return (T) table.remove(key, System.currentTimeMillis());
+    }
+    
+    @Override
+    public void clear() {
+        table.clear();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s]", PrimitiveLongCacheService.class.getSimpleName(), name);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs background reloads of entries which are about to expire. At most one
+ * reload per key is scheduled at any given time. Reloads which don't fit into
+ * the bounded queue are dropped, the entry will then simply expire and be loaded
+ * on the next miss.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class RefreshAhead {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshAhead.class);
+    
+    private final ConcurrentMap<Object, Boolean> running = new ConcurrentHashMap<Object, Boolean>();
+    
+    private final ThreadPoolExecutor executor;
+    
+    RefreshAhead(String name, int threads, int queueSize) {
+        Preconditions.checkArgument(threads > 0, "Threads must be positive, but was %s", threads);
+        Preconditions.checkArgument(queueSize > 0, "Queue size must be positive, but was %s", queueSize);
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory(name + "-refresh"),
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Schedules the given reload, unless a reload of the same key is already pending.
+     * 
+     * @param key the key being reloaded
+     * @param reload the reload
+     * @return true if the reload has been scheduled, false otherwise
+     */
+    boolean refresh(final Object key, final Callable<?> reload) {
+        if (running.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        reload.call();
+                    } catch (Exception e) {
+                        LOG.warn("Refreshing {} failed: {}", key, e.getMessage());
+                    } finally {
+                        running.remove(key);
+                    }
+                }
+                
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            running.remove(key);
+            LOG.debug("Refresh queue is full, skipping refresh of {}", key);
+            return false;
+        }
+    }
+    
+    /**
+     * Checks whether a reload of the given key is pending.
+     * 
+     * @param key the key
+     * @return true if the key is being reloaded right now, false otherwise
+     */
+    boolean isRefreshing(Object key) {
+        return running.containsKey(key);
+    }
+    
+    /**
+     * Stops all pending reloads.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [threads=%s, queueSize=%s]", RefreshAhead.class.getSimpleName(),
+            executor.getMaximumPoolSize(), executor.getQueue().remainingCapacity() + executor.getQueue().size());
+    }
+
+}
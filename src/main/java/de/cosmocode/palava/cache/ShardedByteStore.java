@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link ByteStore} which splits keys across several stores by hash, e.g.
+ * one store per disk, so reads, writes and compaction of different shards run
+ * on different devices. Keys are routed by their hash code, which therefore
+ * must be stable across restarts if the shards are persistent, as it is for
+ * strings and numbers. Changing the number of shards makes existing persistent entries unreachable.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class ShardedByteStore implements ByteStore {
+
+    private final List<ByteStore> shards;
+    
+    ShardedByteStore(List<? extends ByteStore> shards) {
+        Preconditions.checkArgument(!shards.isEmpty(), "Shards must not be empty");
+        this.shards = ImmutableList.copyOf(shards);
+    }
+    
+    private ByteStore shardOf(Object key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return shards.get((hash & Integer.MAX_VALUE) % shards.size());
+    }
+    
+    @Override
+    public boolean put(Object key, byte[] value, long expiresAt) {
+        return shardOf(key).put(key, value, expiresAt);
+    }
+    
+    @Override
+    public StoredValue take(Object key) {
+        return shardOf(key).take(key);
+    }
+    
+    @Override
+    public boolean remove(Object key) {
+        return shardOf(key).remove(key);
+    }
+    
+    @Override
+    public void clear() {
+        for (ByteStore shard : shards) {
+            shard.clear();
+        }
+    }
+    
+    @Override
+    public int size() {
+        int size = 0;
+        for (ByteStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+    
+    @Override
+    public void addListener(ByteStoreListener listener) {
+        for (ByteStore shard : shards) {
+            shard.addListener(listener);
+        }
+    }
+    
+    @Override
+    public void close() {
+        for (ByteStore shard : shards) {
+            shard.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s %s", ShardedByteStore.class.getSimpleName(), shards);
+    }
+
+}
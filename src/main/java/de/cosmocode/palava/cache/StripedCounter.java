@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads concurrent increments over several cells,
+ * indexed by the calling thread, to avoid contention on a single atomic value.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class StripedCounter {
+
+    // each cell occupies its own cache line: 8 longs * 8 bytes = 64 bytes
+    private static final int PADDING = 8;
+    
+    static final int STRIPES = stripes();
+    
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    
+    private static int stripes() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+    
+    /**
+     * Increments this counter by one.
+     */
+    void increment() {
+        add(1L);
+    }
+    
+    /**
+     * Adds the given delta to this counter.
+     * 
+     * @param delta the delta
+     */
+    void add(long delta) {
+        final int index = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+        cells.addAndGet(index, delta);
+    }
+    
+    /**
+     * Sums up all cells. The result is not an atomic snapshot if there are concurrent updates.
+     * 
+     * @return the current sum
+     */
+    long get() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+    
+    /**
+     * Resets this counter to zero.
+     */
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maps tags to the keys which have been stored with them, and keys back to their tags,
+ * so a whole group of keys can be invalidated without scanning the cache.
+ * <p>
+ *   Each tag owns a group of keys. A group which became empty, or has been invalidated,
+ *   is closed and removed, keys joining a closed group retry with a fresh one.
+ *   Concurrent stores of the same key with different tags may leave the key in more groups
+ *   than its current tags, invalidation may therefore remove too much, but never too little.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class TagIndex {
+
+    private final ConcurrentMap<Object, Object[]> tagsByKey = new ConcurrentHashMap<Object, Object[]>();
+    
+    private final ConcurrentMap<Object, Group> groups = new ConcurrentHashMap<Object, Group>();
+    
+    /**
+     * Replaces the tags of the given key.
+     * 
+     * @param key the key
+     * @param tags the new tags, may be empty
+     */
+    void tag(Object key, Object[] tags) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkNotNull(tags, "Tags");
+        final Object[] previous = tags.length == 0 ? tagsByKey.remove(key) : tagsByKey.put(key, tags.clone());
+        if (previous != null) {
+            for (Object tag : previous) {
+                if (!contains(tags, tag)) {
+                    leave(tag, key);
+                }
+            }
+        }
+        for (Object tag : tags) {
+            Preconditions.checkNotNull(tag, "Tag");
+            join(tag, key);
+        }
+    }
+    
+    /**
+     * Removes all tags of the given key.
+     * 
+     * @param key the key
+     */
+    void untag(Object key) {
+        final Object[] previous = tagsByKey.remove(key);
+        if (previous != null) {
+            for (Object tag : previous) {
+                leave(tag, key);
+            }
+        }
+    }
+    
+    /**
+     * Removes the given tag and returns all keys which have been stored with it.
+     * The keys themselves keep their other tags until they are untagged.
+     * 
+     * @param tag the tag
+     * @return the keys of tag, empty if there are none
+     */
+    Set<Object> invalidate(Object tag) {
+        Preconditions.checkNotNull(tag, "Tag");
+        final Group group = groups.remove(tag);
+        return group == null ? Collections.<Object>emptySet() : group.close();
+    }
+    
+    /**
+     * Removes all tags.
+     */
+    void clear() {
+        for (Object tag : groups.keySet()) {
+            invalidate(tag);
+        }
+        tagsByKey.clear();
+    }
+    
+    /**
+     * Returns the number of tags with at least one key.
+     * 
+     * @return the number of tags
+     */
+    int size() {
+        return groups.size();
+    }
+    
+    private void join(Object tag, Object key) {
+        while (true) {
+            Group group = groups.get(tag);
+            if (group == null) {
+                final Group created = new Group();
+                group = groups.putIfAbsent(tag, created);
+                if (group == null) {
+                    group = created;
+                }
+            }
+            if (group.add(key)) {
+                return;
+            }
+            // closed in between
+            groups.remove(tag, group);
+        }
+    }
+    
+    private void leave(Object tag, Object key) {
+        final Group group = groups.get(tag);
+        if (group != null && group.remove(key)) {
+            groups.remove(tag, group);
+        }
+    }
+    
+    private static boolean contains(Object[] tags, Object tag) {
+        for (Object candidate : tags) {
+            if (candidate.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The keys of a single tag.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Group {
+        
+        private Set<Object> keys = new HashSet<Object>();
+        
+        private boolean closed;
+        
+        /**
+         * Adds the given key.
+         * 
+         * @return false if this group is closed
+         */
+        synchronized boolean add(Object key) {
+            if (closed) {
+                return false;
+            }
+            keys.add(key);
+            return true;
+        }
+        
+        /**
+         * Removes the given key and closes this group if it became empty.
+         * 
+         * @return true if this group has been closed by this call
+         */
+        synchronized boolean remove(Object key) {
+            if (closed || !keys.remove(key) || !keys.isEmpty()) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+        
+        /**
+         * Closes this group.
+         * 
+         * @return the keys of this group
+         */
+        synchronized Set<Object> close() {
+            closed = true;
+            final Set<Object> closedKeys = keys;
+            keys = Collections.emptySet();
+            return closedKeys;
+        }
+        
+    }
+
+}
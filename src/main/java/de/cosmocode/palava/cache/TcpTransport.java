@@ -0,0 +1,233 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * An {@link InvalidationTransport} which sends messages over one TCP connection per peer.
+ * Messages are framed by their length. Connections are established lazily and
+ * re-established on the next message after a failure, messages sent while a peer
+ * is unreachable are lost.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class TcpTransport extends AbstractInvalidationTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpTransport.class);
+    
+    private static final int CONNECT_TIMEOUT = 1000;
+    
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    
+    private final InetSocketAddress address;
+    
+    private final List<Peer> peers;
+    
+    private final Set<Socket> accepted = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    
+    private volatile ServerSocket server;
+    
+    private final DaemonThreadFactory threads;
+    
+    TcpTransport(InetSocketAddress address, List<InetSocketAddress> peers) {
+        this.address = Preconditions.checkNotNull(address, "Address");
+        Preconditions.checkNotNull(peers, "Peers");
+        final List<Peer> list = Lists.newArrayListWithCapacity(peers.size());
+        for (InetSocketAddress peer : peers) {
+            list.add(new Peer(peer));
+        }
+        this.peers = ImmutableList.copyOf(list);
+        this.threads = new DaemonThreadFactory("invalidation-tcp-" + address.getPort());
+    }
+    
+    @Override
+    public void send(byte[] message) {
+        for (Peer peer : peers) {
+            peer.send(message);
+        }
+    }
+    
+    /**
+     * Returns the port this transport listens on.
+     * 
+     * @return the local port, -1 if not open
+     */
+    int getLocalPort() {
+        final ServerSocket current = server;
+        return current == null ? -1 : current.getLocalPort();
+    }
+    
+    @Override
+    protected void open() throws IOException {
+        final ServerSocket opened = new ServerSocket();
+        opened.setReuseAddress(true);
+        opened.bind(address);
+        server = opened;
+        threads.newThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                while (!opened.isClosed()) {
+                    try {
+                        read(opened.accept());
+                    } catch (IOException e) {
+                        if (!opened.isClosed()) {
+                            LOG.warn("Unable to accept connection on {}: {}", address, e.getMessage());
+                        }
+                    }
+                }
+            }
+            
+        }).start();
+    }
+    
+    private void read(final Socket socket) {
+        accepted.add(socket);
+        threads.newThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                try {
+                    final DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                    while (true) {
+                        final int length = input.readInt();
+                        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+                            throw new IOException("Illegal message length " + length);
+                        }
+                        final byte[] message = new byte[length];
+                        input.readFully(message);
+                        deliver(message);
+                    }
+                } catch (EOFException e) {
+                    LOG.debug("{} closed the connection", socket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    if (!socket.isClosed()) {
+                        LOG.warn("Unable to read from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                    }
+                } finally {
+                    accepted.remove(socket);
+                    closeQuietly(socket);
+                }
+            }
+            
+        }).start();
+    }
+    
+    @Override
+    protected void close() {
+        final ServerSocket current = server;
+        server = null;
+        try {
+            current.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close {}: {}", address, e.getMessage());
+        }
+        for (Socket socket : accepted) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.debug("Unable to close {}: {}", socket, e.getMessage());
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, peers=%s]", TcpTransport.class.getSimpleName(), address, peers);
+    }
+    
+    /**
+     * The outgoing connection to a single peer.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Peer {
+        
+        private final InetSocketAddress address;
+        
+        private Socket socket;
+        
+        private DataOutputStream output;
+        
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+        
+        synchronized void send(byte[] message) {
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address, CONNECT_TIMEOUT);
+                    output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+                output.writeInt(message.length);
+                output.write(message);
+                output.flush();
+            } catch (IOException e) {
+                LOG.warn("Unable to send invalidation to {}: {}", address, e.getMessage());
+                close();
+            }
+        }
+        
+        synchronized void close() {
+            if (socket != null) {
+                closeQuietly(socket);
+                socket = null;
+                output = null;
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return address.toString();
+        }
+        
+    }
+
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A hierarchical timer wheel which tracks the expiration of cache entries with
+ * millisecond precision. Every level consists of 64 buckets, each bucket of level n
+ * spans 64^n milliseconds. Entries are moved to lower levels when their bucket comes
+ * due, which makes scheduling, cancelling and expiring O(1) amortized.
+ * <p>
+ * Entries may expire after an absolute time and/or after being idle for a fixed
+ * duration. Accesses only record the time of access, the idle deadline is
+ * checked lazily when the bucket of an entry comes due.
+ * </p>
+ * <p>
+ * Keys are split by hash across independent shards, each with its own lock, so
+ * concurrent writers rarely contend. Lookups are lock-free. Advancing skips all
+ * ticks without a due bucket, so a long pause costs at most a few bucket scans.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class TimerWheel {
+
+    private static final int BITS = 6;
+    
+    private static final int BUCKETS = 1 << BITS;
+    
+    private static final int MASK = BUCKETS - 1;
+    
+    // 64^6 millis, roughly two years, later deadlines are parked in the last level
+    private static final int LEVELS = 6;
+    
+    private static final long SPAN = 1L << (BITS * LEVELS);
+    
+    private static final int MAX_SHARDS = 16;
+    
+    private final Shard[] shards;
+    
+    TimerWheel(long now) {
+        this(Math.min(MAX_SHARDS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1)), now);
+    }
+    
+    /**
+     * Creates a wheel.
+     * 
+     * @param shards the number of shards, rounded up to the next power of two
+     * @param now the current time in millis
+     */
+    TimerWheel(int shards, long now) {
+        Preconditions.checkArgument(shards > 0, "Shards must be positive, but was %s", shards);
+        this.shards = new Shard[shards == 1 ? 1 : Integer.highestOneBit(shards - 1) << 1];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(now);
+        }
+    }
+    
+    private Shard shardOf(Object key) {
+        final int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+    
+    /**
+     * Schedules the expiration of the given value, replacing any previous schedule of the same key.
+     * 
+     * @param key the key
+     * @param value the value, compared by identity
+     * @param expiresAt the absolute time in millis at which the value expires, {@link Long#MAX_VALUE} for never
+     * @param timeToIdle the number of millis after the last access at which the value expires, 0 for never
+     * @param now the current time in millis
+     */
+    void schedule(Object key, Object value, long expiresAt, long timeToIdle, long now) {
+        Preconditions.checkNotNull(key, "Key");
+        Preconditions.checkArgument(timeToIdle >= 0, "Time to idle must not be negative, but was %s", timeToIdle);
+        shardOf(key).schedule(key, value, expiresAt, timeToIdle, now);
+    }
+    
+    /**
+     * Records an access of the given value and checks whether it expired.
+     * 
+     * @param key the key
+     * @param value the value, compared by identity
+     * @param now the current time in millis
+     * @return false if the value expired, true otherwise
+     */
+    boolean access(Object key, Object value, long now) {
+        final Node node = shardOf(key).nodes.get(key);
+        if (node == null || node.value != value) {
+            return true;
+        } else if (node.deadline() <= now) {
+            return false;
+        } else {
+            if (node.timeToIdle > 0L) {
+                node.lastAccess = now;
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Returns the time at which the given value expires if it is not accessed anymore.
+     * 
+     * @param key the key
+     * @param value the value, compared by identity
+     * @return the absolute time in millis or -1 if the given value is not scheduled
+     */
+    long deadline(Object key, Object value) {
+        final Node node = shardOf(key).nodes.get(key);
+        return node == null || node.value != value ? -1L : node.deadline();
+    }
+    
+    /**
+     * Cancels the expiration of the given value.
+     * 
+     * @param key the key
+     * @param value the value, compared by identity
+     */
+    void cancel(Object key, Object value) {
+        shardOf(key).cancel(key, value);
+    }
+    
+    /**
+     * Cancels all scheduled expirations.
+     */
+    void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+    
+    /**
+     * Advances the wheel to the given time and removes all values which expired until then.
+     * 
+     * @param now the current time in millis
+     * @return the expired values
+     */
+    List<Object> advance(long now) {
+        List<Object> expired = null;
+        for (Shard shard : shards) {
+            expired = shard.advance(now, expired);
+        }
+        return expired == null ? Collections.<Object>emptyList() : expired;
+    }
+    
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.nodes.size();
+        }
+        return size;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [shards=%s, size=%s]", TimerWheel.class.getSimpleName(), shards.length, size());
+    }
+    
+    /**
+     * A single wheel, responsible for the keys of one hash range.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Shard {
+        
+        private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<Object, Node>();
+        
+        private final Node[][] wheel = new Node[LEVELS][BUCKETS];
+        
+        // the last tick which has been processed
+        private long time;
+        
+        Shard(long now) {
+            this.time = now;
+            for (Node[] buckets : wheel) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    final Node head = new Node(null, null, 0L, 0L, 0L);
+                    head.previous = head;
+                    head.next = head;
+                    buckets[i] = head;
+                }
+            }
+        }
+        
+        synchronized void schedule(Object key, Object value, long expiresAt, long timeToIdle, long now) {
+            final Node previous;
+            if (expiresAt == Long.MAX_VALUE && timeToIdle == 0L) {
+                previous = nodes.remove(key);
+            } else {
+                final Node node = new Node(key, value, expiresAt, timeToIdle, now);
+                previous = nodes.put(key, node);
+                link(node, time + 1);
+            }
+            if (previous != null) {
+                unlink(previous);
+            }
+        }
+        
+        synchronized void cancel(Object key, Object value) {
+            final Node node = nodes.get(key);
+            if (node != null && node.value == value) {
+                nodes.remove(key);
+                unlink(node);
+            }
+        }
+        
+        synchronized void clear() {
+            nodes.clear();
+            for (Node[] buckets : wheel) {
+                for (Node head : buckets) {
+                    head.previous = head;
+                    head.next = head;
+                }
+            }
+        }
+        
+        synchronized List<Object> advance(long now, List<Object> expired) {
+            List<Object> result = expired;
+            while (time < now) {
+                time = next(now);
+                cascade(1);
+                final Node head = wheel[0][(int) (time & MASK)];
+                Node node = head.next;
+                while (node != head) {
+                    final Node next = node.next;
+                    unlink(node);
+                    if (node.deadline() <= time) {
+                        nodes.remove(node.key, node);
+                        if (result == null) {
+                            result = Lists.newArrayList();
+                        }
+                        result.add(node.value);
+                    } else {
+                        // accessed in between or parked in the last level
+                        link(node, time + 1);
+                    }
+                    node = next;
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * Finds the next tick at which a bucket of any level comes due. Every level is
+         * scanned for at most one rotation, all ticks in between are empty and can be skipped.
+         * 
+         * @param limit the latest tick to return
+         * @return the next due tick or limit, whichever comes first
+         */
+        private long next(long limit) {
+            long next = limit;
+            for (int level = 0; level < LEVELS; level++) {
+                final int shift = BITS * level;
+                // buckets of this level come due at multiples of 64^level
+                long due = ((time >>> shift) + 1) << shift;
+                for (int i = 0; i < BUCKETS && due < next; i++) {
+                    final Node head = wheel[level][(int) ((due >>> shift) & MASK)];
+                    if (head.next != head) {
+                        next = due;
+                        break;
+                    }
+                    due += 1L << shift;
+                }
+            }
+            return next;
+        }
+        
+        /**
+         * Moves the nodes of the current bucket of the given level down, if all lower levels wrapped around.
+         */
+        private void cascade(int level) {
+            if (level == LEVELS || (time & ((1L << (BITS * level)) - 1)) != 0) {
+                return;
+            }
+            cascade(level + 1);
+            final Node head = wheel[level][(int) ((time >>> (BITS * level)) & MASK)];
+            Node node = head.next;
+            while (node != head) {
+                final Node next = node.next;
+                unlink(node);
+                // the current bucket of level 0 is processed right after cascading
+                link(node, time);
+                node = next;
+            }
+        }
+        
+        private void link(Node node, long earliest) {
+            final long deadline = Math.max(earliest, Math.min(node.deadline(), time + SPAN - 1));
+            final long delta = deadline - time;
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+                level++;
+            }
+            final Node head = wheel[level][(int) ((deadline >>> (BITS * level)) & MASK)];
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+        }
+        
+        private void unlink(Node node) {
+            if (node.next != null) {
+                node.previous.next = node.next;
+                node.next.previous = node.previous;
+                node.previous = null;
+                node.next = null;
+            }
+        }
+        
+    }
+    
+    /**
+     * A scheduled value, doubly linked into its bucket.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Node {
+        
+        private final Object key;
+        
+        private final Object value;
+        
+        private final long expiresAt;
+        
+        private final long timeToIdle;
+        
+        private volatile long lastAccess;
+        
+        private Node previous;
+        
+        private Node next;
+        
+        Node(Object key, Object value, long expiresAt, long timeToIdle, long lastAccess) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.timeToIdle = timeToIdle;
+            this.lastAccess = lastAccess;
+        }
+        
+        long deadline() {
+            return timeToIdle == 0L ? expiresAt : Math.min(expiresAt, lastAccess + timeToIdle);
+        }
+        
+    }
+
+}
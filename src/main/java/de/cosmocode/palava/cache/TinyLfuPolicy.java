@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The W-TinyLFU admission and eviction policy.
+ * 
+ * <p>
+ *   New keys enter a small LRU admission window (1% of the maximum size). Keys leaving the
+ *   window compete with the eldest key of the probation segment of the main region: the key
+ *   with the higher estimated frequency stays, the other one is evicted. Keys accessed while on
+ *   probation are moved to the protected segment (80% of the main region). Frequencies are
+ *   tracked by a {@link FrequencySketch}, so keys touched only once by a scan rarely displace
+ *   the working set.
+ * </p>
+ * <p>
+ *   Accesses are recorded only if the policy lock is free at that moment, so readers never
+ *   block on each other. Losing a few accesses under contention doesn't affect the hit ratio much.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class TinyLfuPolicy {
+
+    private final Lock lock = new ReentrantLock();
+    
+    private final FrequencySketch sketch;
+    
+    private final int maximumSize;
+    
+    private final int maximumWindow;
+    
+    private final int maximumProtected;
+    
+    private final LinkedHashMap<Object, Boolean> window = new LinkedHashMap<Object, Boolean>(16, 0.75f, true);
+    
+    private final LinkedHashMap<Object, Boolean> probation = new LinkedHashMap<Object, Boolean>(16, 0.75f, true);
+    
+    private final LinkedHashMap<Object, Boolean> protect = new LinkedHashMap<Object, Boolean>(16, 0.75f, true);
+    
+    TinyLfuPolicy(int maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "Maximum size must be positive, but was %s", maximumSize);
+        this.maximumSize = maximumSize;
+        this.maximumWindow = Math.max(1, maximumSize / 100);
+        this.maximumProtected = (maximumSize - maximumWindow) * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+    
+    /**
+     * Records a read of the given key, unless another thread holds the policy lock.
+     * 
+     * @param key the key
+     */
+    void onAccess(Object key) {
+        if (lock.tryLock()) {
+            try {
+                access(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    private void access(Object key) {
+        sketch.increment(key);
+        if (window.get(key) != null || protect.get(key) != null) {
+            return;
+        } else if (probation.remove(key) != null) {
+            protect.put(key, Boolean.TRUE);
+            if (protect.size() > maximumProtected) {
+                final Object demoted = eldest(protect);
+                protect.remove(demoted);
+                probation.put(demoted, Boolean.TRUE);
+            }
+        }
+    }
+    
+    /**
+     * Records that the given key has been stored.
+     * 
+     * @param key the key
+     * @return the key which has to be evicted, or null if the cache has still room
+     */
+    Object onInsert(Object key) {
+        lock.lock();
+        try {
+            if (window.containsKey(key) || probation.containsKey(key) || protect.containsKey(key)) {
+                access(key);
+                return null;
+            }
+            sketch.increment(key);
+            window.put(key, Boolean.TRUE);
+            if (window.size() <= maximumWindow) {
+                return null;
+            }
+            final Object candidate = eldest(window);
+            window.remove(candidate);
+            if (window.size() + probation.size() + protect.size() < maximumSize) {
+                probation.put(candidate, Boolean.TRUE);
+                return null;
+            }
+            final LinkedHashMap<Object, Boolean> segment = probation.isEmpty() ? protect : probation;
+            final Object victim = eldest(segment);
+            if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                segment.remove(victim);
+                probation.put(candidate, Boolean.TRUE);
+                return victim;
+            } else {
+                return candidate;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static Object eldest(LinkedHashMap<Object, Boolean> segment) {
+        final Iterator<Object> iterator = segment.keySet().iterator();
+        return iterator.next();
+    }
+    
+    /**
+     * Records that the given key is no longer in the cache.
+     * 
+     * @param key the key
+     */
+    void onRemove(Object key) {
+        lock.lock();
+        try {
+            if (window.remove(key) == null && probation.remove(key) == null) {
+                protect.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Forgets all keys. Frequencies are kept.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            window.clear();
+            probation.clear();
+            protect.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    int size() {
+        lock.lock();
+        try {
+            return window.size() + probation.size() + protect.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [maximumSize=%s, window=%s, protected=%s]", TinyLfuPolicy.class.getSimpleName(),
+            maximumSize, maximumWindow, maximumProtected);
+    }
+
+}
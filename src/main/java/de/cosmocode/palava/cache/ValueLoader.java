@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+
+/**
+ * Loads the value for a key which could not be found in a cache.
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+public interface ValueLoader {
+
+    /**
+     * Loads the value associated with the given key.
+     *
+     * @param key the key which was not found in the cache
+     * @return the loaded value, or null if there is no value for the given key
+     * @throws Exception if loading failed
+     */
+    Object load(Serializable key) throws Exception;
+
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects the dirty keys of a cache and hands them to a {@link CacheWriter}
+ * in batches on a background thread.
+ * <p>
+ *   Each key is pending at most once, a later write or delete replaces the earlier one
+ *   but keeps its position. A single thread writes one batch after the other, so the
+ *   writes of a single key never overtake each other. A failed batch is put back in front
+ *   of the queue, unless a key has been changed again in between, and retried with an
+ *   increasing delay. Callers block while the maximum number of keys is pending.
+ * </p>
+ *
+ * @since 3.0
+ * @author Willi Schoenborn
+ */
+final class WriteBehindQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+    
+    private static final int MAX_BACKOFF = 64;
+    
+    // the delay between retries if there is no write delay, keeps a failing writer from spinning
+    private static final long MIN_RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    // attempts to write the remaining keys while closing
+    private static final int CLOSE_ATTEMPTS = 3;
+    
+    private final String name;
+    
+    private final CacheWriter writer;
+    
+    private final int batchSize;
+    
+    private final long delayNanos;
+    
+    private final int maxQueueSize;
+    
+    private final Lock lock = new ReentrantLock();
+    
+    private final Condition notFull = lock.newCondition();
+    
+    private final Condition ready = lock.newCondition();
+    
+    // guarded by lock
+    private Map<Serializable, Operation> pending = Maps.newLinkedHashMap();
+    
+    // guarded by lock
+    private boolean closed;
+    
+    private Thread thread;
+    
+    /**
+     * Creates a new queue.
+     * 
+     * @param name the name of the cache
+     * @param writer the writer
+     * @param batchSize the maximum number of keys per batch
+     * @param delay the time dirty keys are collected before they are written
+     * @param delayUnit the unit of delay
+     * @param maxQueueSize the maximum number of pending keys
+     */
+    WriteBehindQueue(String name, CacheWriter writer, int batchSize, long delay, TimeUnit delayUnit,
+        int maxQueueSize) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+        this.writer = Preconditions.checkNotNull(writer, "Writer");
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive, but was %s", batchSize);
+        Preconditions.checkArgument(delay >= 0, "Delay must not be negative, but was %s", delay);
+        Preconditions.checkArgument(maxQueueSize > 0, "Max queue size must be positive, but was %s", maxQueueSize);
+        this.batchSize = batchSize;
+        this.delayNanos = delayUnit.toNanos(delay);
+        this.maxQueueSize = maxQueueSize;
+    }
+    
+    /**
+     * Starts the writer thread.
+     */
+    void start() {
+        thread = new DaemonThreadFactory(name + "-write-behind").newThread(new Runnable() {
+            
+            @Override
+            public void run() {
+                int failures = 0;
+                List<Operation> batch;
+                while ((batch = next(failures)) != null) {
+                    failures = write(batch) ? 0 : failures + 1;
+                }
+            }
+            
+        });
+        thread.start();
+    }
+    
+    /**
+     * Schedules a write of the given value.
+     * 
+     * @param key the key
+     * @param value the value
+     */
+    void write(Serializable key, Object value) {
+        enqueue(new Operation(key, value, false));
+    }
+    
+    /**
+     * Schedules the deletion of the given key.
+     * 
+     * @param key the key
+     */
+    void delete(Serializable key) {
+        enqueue(new Operation(key, null, true));
+    }
+    
+    private void enqueue(Operation operation) {
+        lock.lock();
+        try {
+            Preconditions.checkState(!closed, "%s is closed", this);
+            boolean interrupted = false;
+            // replacing a pending key doesn't grow the queue
+            while (pending.size() >= maxQueueSize && !pending.containsKey(operation.key) && !interrupted) {
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    // the write must not get lost, accept it beyond the limit
+                    interrupted = true;
+                }
+            }
+            pending.put(operation.key, operation);
+            // wakes up the writer thread if it waits for the first key or a full batch
+            if (pending.size() == 1 || pending.size() >= batchSize) {
+                ready.signal();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Waits for the next batch.
+     * 
+     * @param failures the number of consecutive failures so far
+     * @return the next batch, or null if this queue has been closed and is empty or the
+     *         writer thread has been interrupted
+     */
+    private List<Operation> next(int failures) {
+        lock.lock();
+        try {
+            while (!closed && pending.isEmpty()) {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            final long delay = failures > 0 ? Math.max(delayNanos, MIN_RETRY_DELAY) : delayNanos;
+            long remaining = delay * Math.min(MAX_BACKOFF, 1 << Math.min(failures, 30));
+            while (!closed && (pending.size() < batchSize || failures > 0) && remaining > 0) {
+                try {
+                    remaining = ready.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (pending.isEmpty()) {
+                return null;
+            } else if (closed && failures >= CLOSE_ATTEMPTS) {
+                LOG.warn("{} gave up, {} entries have not been written", this, pending.size());
+                pending.clear();
+                return null;
+            }
+            final List<Operation> batch = Lists.newArrayListWithCapacity(Math.min(batchSize, pending.size()));
+            final Iterator<Operation> iterator = pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Writes the given batch and requeues it on failure.
+     * 
+     * @return true if the batch has been written
+     */
+    private boolean write(List<Operation> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        final Map<Serializable, Object> values = Maps.newLinkedHashMap();
+        final List<Serializable> deleted = Lists.newArrayList();
+        for (Operation operation : batch) {
+            if (operation.delete) {
+                deleted.add(operation.key);
+            } else {
+                values.put(operation.key, operation.value);
+            }
+        }
+        try {
+            if (!values.isEmpty()) {
+                writer.write(values);
+            }
+            if (!deleted.isEmpty()) {
+                writer.delete(deleted);
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Unable to write " + batch.size() + " entries of " + name + ", will retry", e);
+            requeue(batch);
+            return false;
+        }
+    }
+    
+    private void requeue(List<Operation> batch) {
+        lock.lock();
+        try {
+            final Map<Serializable, Operation> requeued = Maps.newLinkedHashMap();
+            for (Operation operation : batch) {
+                requeued.put(operation.key, operation);
+            }
+            // newer changes win over the failed ones
+            requeued.putAll(pending);
+            pending = requeued;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of pending keys.
+     * 
+     * @return the queue size
+     */
+    int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Writes all pending keys and stops the writer thread. Keys which can't be written
+     * within {@value #CLOSE_ATTEMPTS} attempts are lost.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ready.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s [%s, writer=%s, batchSize=%s, delay=%sns, maxQueueSize=%s]",
+            WriteBehindQueue.class.getSimpleName(), name, writer, batchSize, delayNanos, maxQueueSize);
+    }
+    
+    /**
+     * A pending write or delete.
+     *
+     * @since 3.0
+     * @author Willi Schoenborn
+     */
+    private static final class Operation {
+        
+        private final Serializable key;
+        
+        private final Object value;
+        
+        private final boolean delete;
+        
+        Operation(Serializable key, Object value, boolean delete) {
+            this.key = key;
+            this.value = value;
+            this.delete = delete;
+        }
+        
+    }
+
+}
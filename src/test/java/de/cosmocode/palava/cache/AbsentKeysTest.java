@@ -0,0 +1,64 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link AbsentKeys}.
+ *
+ * @author Willi Schoenborn
+ */
+public class AbsentKeysTest {
+
+    /**
+     * Tests that keys are forgotten after two rotations.
+     */
+    @Test
+    public void rotate() {
+        final AbsentKeys keys = new AbsentKeys(10, 0.01, 1, TimeUnit.HOURS);
+        keys.add("key");
+        for (int i = 0; i < 10; i++) {
+            keys.add("first" + i);
+        }
+        Assert.assertTrue(keys.mightContain("key"));
+        for (int i = 0; i < 10; i++) {
+            keys.add("second" + i);
+        }
+        Assert.assertFalse(keys.mightContain("key"));
+    }
+    
+    /**
+     * Tests that keys which got a value are never reported as absent.
+     */
+    @Test
+    public void forget() {
+        final AbsentKeys keys = new AbsentKeys(100, 0.01, 1, TimeUnit.HOURS);
+        keys.add("key");
+        keys.add("other");
+        keys.forget("unknown");
+        Assert.assertTrue(keys.mightContain("key"));
+        keys.forget("key");
+        Assert.assertFalse(keys.mightContain("key"));
+    }
+
+}
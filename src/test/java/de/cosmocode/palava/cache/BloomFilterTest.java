@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link BloomFilter}.
+ *
+ * @author Willi Schoenborn
+ */
+public class BloomFilterTest {
+
+    /**
+     * Tests that added keys are always found and others only rarely.
+     */
+    @Test
+    public void mightContain() {
+        final BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("key" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain("key" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 300);
+        
+        filter.clear();
+        Assert.assertFalse(filter.mightContain("key0"));
+    }
+    
+    /**
+     * Tests that put reports whether the filter changed.
+     */
+    @Test
+    public void put() {
+        final BloomFilter filter = new BloomFilter(100, 0.01);
+        Assert.assertTrue(filter.put("key"));
+        Assert.assertFalse(filter.put("key"));
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ByteBudget}.
+ *
+ * @author Willi Schoenborn
+ */
+public class ByteBudgetTest {
+
+    /**
+     * Tests that recorded sizes are replaced and released.
+     */
+    @Test
+    public void accounting() {
+        final ByteBudget budget = new ByteBudget(1000);
+        final Object first = new Object();
+        final Object second = new Object();
+        budget.record("key", first, 400);
+        Assert.assertEquals(400L, budget.getUsedBytes());
+        budget.record("key", second, 700);
+        Assert.assertEquals(700L, budget.getUsedBytes());
+        budget.release("key", first);
+        Assert.assertEquals(700L, budget.getUsedBytes());
+        budget.record("other", first, 400);
+        Assert.assertTrue(budget.isExceeded());
+        budget.release("key", second);
+        Assert.assertEquals(400L, budget.getUsedBytes());
+        Assert.assertFalse(budget.isExceeded());
+        budget.clear();
+        Assert.assertEquals(0L, budget.getUsedBytes());
+    }
+    
+    /**
+     * Tests that recently touched entries get a second chance.
+     */
+    @Test
+    public void secondChance() {
+        final ByteBudget budget = new ByteBudget(100);
+        final Object[] elements = new Object[4];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new Object();
+            budget.record(i, elements[i], 40);
+        }
+        budget.touch(0);
+        budget.touch(1);
+        Assert.assertSame(elements[2], budget.nextVictim());
+        budget.release(2, elements[2]);
+        Assert.assertSame(elements[3], budget.nextVictim());
+        budget.release(3, elements[3]);
+        Assert.assertFalse(budget.isExceeded());
+        Assert.assertSame(elements[0], budget.nextVictim());
+    }
+
+}
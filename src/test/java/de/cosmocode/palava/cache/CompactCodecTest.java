@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests the {@link CompactCodec}.
+ *
+ * @author Willi Schoenborn
+ */
+public class CompactCodecTest {
+
+    private Object roundTrip(Object value) throws IOException {
+        final byte[] bytes = Codecs.encode(CompactCodec.INSTANCE, value);
+        return Codecs.decode(CompactCodec.INSTANCE, bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Tests all types which have a compact representation.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void compactTypes() throws IOException {
+        Assert.assertNull(roundTrip(null));
+        Assert.assertEquals("value", roundTrip("value"));
+        Assert.assertEquals(Integer.valueOf(42), roundTrip(42));
+        Assert.assertEquals(Long.valueOf(42L), roundTrip(42L));
+        Assert.assertEquals(Short.valueOf((short) 42), roundTrip((short) 42));
+        Assert.assertEquals(Byte.valueOf((byte) 42), roundTrip((byte) 42));
+        Assert.assertEquals(Boolean.TRUE, roundTrip(true));
+        Assert.assertEquals(Character.valueOf('x'), roundTrip('x'));
+        Assert.assertEquals(Float.valueOf(4.2f), roundTrip(4.2f));
+        Assert.assertEquals(Double.valueOf(4.2), roundTrip(4.2));
+        Assert.assertTrue(Arrays.equals(new byte[] {1, 2, 3}, (byte[]) roundTrip(new byte[] {1, 2, 3})));
+        Assert.assertEquals(Lists.newArrayList("a", 1, null), roundTrip(Lists.newArrayList("a", 1, null)));
+        Assert.assertEquals(Sets.newHashSet("a", "b"), roundTrip(Sets.newHashSet("a", "b")));
+        
+        final Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("list", Lists.newArrayList(1L, 2L));
+        map.put("string", "value");
+        Assert.assertEquals(map, roundTrip(map));
+    }
+    
+    /**
+     * Tests the java serialization fallback.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void fallback() throws IOException {
+        final Date date = new Date();
+        Assert.assertEquals(date, roundTrip(date));
+    }
+
+}
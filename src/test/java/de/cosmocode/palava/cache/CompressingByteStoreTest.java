@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link CompressingByteStore}.
+ *
+ * @author Willi Schoenborn
+ */
+public class CompressingByteStoreTest {
+
+    private static CompressingByteStore deflating(int threshold) {
+        return new CompressingByteStore(new OffHeapStore(1024 * 1024, null), new DeflateCompressor(), threshold,
+            null, null);
+    }
+    
+    private static byte[] text(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ("{\"key\":\"value\"}".charAt(i % 15));
+        }
+        return bytes;
+    }
+    
+    /**
+     * Tests that compressible values shrink and survive a round trip.
+     * 
+     * @throws DataFormatException should not happen
+     */
+    @Test
+    public void compress() throws DataFormatException {
+        final CompressingByteStore store = deflating(512);
+        final byte[] value = text(4096);
+        final byte[] compressed = store.compress(value);
+        Assert.assertTrue(compressed.length < value.length / 4);
+        Assert.assertTrue(Arrays.equals(value, store.decompress(compressed)));
+        store.close();
+    }
+    
+    /**
+     * Tests that small and incompressible values are stored raw.
+     * 
+     * @throws DataFormatException should not happen
+     */
+    @Test
+    public void raw() throws DataFormatException {
+        final CompressingByteStore store = deflating(512);
+        final byte[] small = text(100);
+        Assert.assertEquals(101, store.compress(small).length);
+        Assert.assertTrue(Arrays.equals(small, store.decompress(store.compress(small))));
+        
+        final byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        final byte[] compressed = store.compress(random);
+        Assert.assertEquals(4097, compressed.length);
+        Assert.assertTrue(Arrays.equals(random, store.decompress(compressed)));
+        store.close();
+    }
+    
+    /**
+     * Tests that values are decompressed when taken and the ratio is recorded.
+     */
+    @Test
+    public void putAndTake() {
+        final CacheMetrics metrics = new CacheMetrics();
+        final CompressingByteStore store = new CompressingByteStore(
+            new OffHeapStore(1024 * 1024, null), new DeflateCompressor(), 512, null, metrics);
+        Assert.assertTrue(store.put("key", text(8192), Long.MAX_VALUE));
+        Assert.assertEquals(8192L, metrics.getRawDiskBytes());
+        Assert.assertTrue(metrics.getCompressionRatio() > 4.0);
+        Assert.assertTrue(Arrays.equals(text(8192), store.take("key").getBytes()));
+        Assert.assertNull(store.take("key"));
+        store.close();
+    }
+    
+    /**
+     * Tests that persistent stores are cleared if they have been written using another compressor.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void marker() throws IOException {
+        final File marker = File.createTempFile("compressed", ".marker");
+        marker.deleteOnExit();
+        Assert.assertTrue(marker.delete());
+        final ByteStore backing = new OffHeapStore(1024 * 1024, null);
+        
+        final CompressingByteStore store = new CompressingByteStore(backing, new DeflateCompressor(), 512,
+            marker, null);
+        store.put("key", text(1024), Long.MAX_VALUE);
+        new CompressingByteStore(backing, new DeflateCompressor(), 512, marker, null);
+        Assert.assertEquals(1, backing.size());
+        
+        new CompressingByteStore(backing, new IdentityCompressor(), 512, marker, null);
+        Assert.assertEquals(0, backing.size());
+        backing.close();
+    }
+    
+    /**
+     * A compressor which doesn't compress at all, but has its own id.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class IdentityCompressor implements Compressor {
+        
+        @Override
+        public String getId() {
+            return "identity";
+        }
+        
+        @Override
+        public int compress(byte[] value, byte[] buffer, int offset) {
+            return -1;
+        }
+        
+        @Override
+        public void decompress(byte[] bytes, int offset, int length, byte[] value) {
+            System.arraycopy(bytes, offset, value, 0, length);
+        }
+        
+    }
+
+}
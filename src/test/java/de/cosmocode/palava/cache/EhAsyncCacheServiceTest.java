@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link EhAsyncCacheService}.
+ *
+ * @author Willi Schoenborn
+ */
+public class EhAsyncCacheServiceTest {
+
+    /**
+     * Creates a backing service whose operations block until the given latch is released,
+     * except for the key "direct".
+     */
+    private static ExtendedCacheService blocking(final CountDownLatch started, final CountDownLatch release) {
+        return (ExtendedCacheService) Proxy.newProxyInstance(ExtendedCacheService.class.getClassLoader(),
+            new Class<?>[] {ExtendedCacheService.class}, new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws InterruptedException {
+                    if (!"direct".equals(args[0])) {
+                        started.countDown();
+                        release.await();
+                    }
+                    return "value";
+                }
+                
+            });
+    }
+    
+    /**
+     * Tests that operations beyond the queue size fail their future instead of running in the caller.
+     * 
+     * @throws InterruptedException should not happen
+     * @throws ExecutionException should not happen
+     */
+    @Test
+    public void rejected() throws InterruptedException, ExecutionException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final EhAsyncCacheService service = new EhAsyncCacheService(blocking(started, release), "rejected");
+        service.setThreads(1);
+        service.setQueueSize(1);
+        service.initialize();
+        try {
+            final Future<String> running = service.readAsync("running");
+            started.await();
+            final Future<String> queued = service.readAsync("queued");
+            final Future<String> rejected = service.readAsync("rejected");
+            Assert.assertTrue(rejected.isDone());
+            try {
+                rejected.get();
+                Assert.fail("Expected a rejection");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            Assert.assertEquals("value", running.get());
+            Assert.assertEquals("value", queued.get());
+        } finally {
+            release.countDown();
+            service.dispose();
+        }
+    }
+    
+    /**
+     * Tests that a saturated executor runs operations in the caller if configured to.
+     * 
+     * @throws InterruptedException should not happen
+     * @throws ExecutionException should not happen
+     */
+    @Test
+    public void callerRuns() throws InterruptedException, ExecutionException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final EhAsyncCacheService service = new EhAsyncCacheService(blocking(started, release), "callerruns");
+        service.setThreads(1);
+        service.setQueueSize(1);
+        service.setCallerRuns(true);
+        service.initialize();
+        try {
+            service.readAsync("running");
+            started.await();
+            service.readAsync("queued");
+            final Future<String> inCaller = service.readAsync("direct");
+            Assert.assertTrue(inCaller.isDone());
+            Assert.assertEquals("value", inCaller.get());
+        } finally {
+            release.countDown();
+            service.dispose();
+        }
+    }
+    
+    /**
+     * Tests that loads are delegated to the read-through operation of the backing service.
+     * 
+     * @throws InterruptedException should not happen
+     * @throws ExecutionException should not happen
+     */
+    @Test
+    public void loadAsync() throws InterruptedException, ExecutionException {
+        final ExtendedCacheService backing = (ExtendedCacheService) Proxy.newProxyInstance(
+            ExtendedCacheService.class.getClassLoader(), new Class<?>[] {ExtendedCacheService.class},
+            new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return method.getName();
+                }
+                
+            });
+        final EhAsyncCacheService service = new EhAsyncCacheService(backing, "load");
+        service.initialize();
+        try {
+            Assert.assertEquals("load", service.<String>loadAsync("key").get());
+            Assert.assertEquals("read", service.<String>readAsync("key").get());
+        } finally {
+            service.dispose();
+        }
+    }
+
+}
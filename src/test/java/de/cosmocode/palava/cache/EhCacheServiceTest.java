@@ -16,15 +16,31 @@
 
 package de.cosmocode.palava.cache;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
+import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Status;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
 /**
  * Tests the {@link EhCacheService}.
  *
@@ -80,4 +96,661 @@ public class EhCacheServiceTest extends CacheServiceTest {
         service.setTimeToLiveUnit(TimeUnit.SECONDS);
         service.initialize();
     }
+
+    /**
+     * Tests that concurrent reads of a missing key share a single load.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void readWithLoader() throws InterruptedException {
+        final EhCacheService service = (EhCacheService) unit();
+        final AtomicInteger invocations = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ValueLoader loader = new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) throws Exception {
+                invocations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "loaded";
+            }
+            
+        };
+        
+        final Thread[] threads = new Thread[8];
+        final String[] results = new String[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    results[index] = service.read("readWithLoader", loader);
+                }
+                
+            });
+            threads[i].start();
+        }
+        
+        started.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        Assert.assertEquals(1, invocations.get());
+        for (String result : results) {
+            Assert.assertEquals("loaded", result);
+        }
+        Assert.assertEquals("loaded", service.read("readWithLoader"));
+    }
+
+    /**
+     * Tests that a plain read never calls the default loader.
+     */
+    @Test
+    public void readDoesNotLoad() {
+        final EhCacheService service = new EhCacheService("defaultloadercache");
+        final AtomicInteger invocations = new AtomicInteger();
+        service.setDefaultLoader(new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) {
+                invocations.incrementAndGet();
+                return "loaded";
+            }
+            
+        });
+        service.initialize();
+        Assert.assertNull(service.read("missing"));
+        Assert.assertEquals(0, invocations.get());
+        service.dispose();
+    }
+
+    /**
+     * Tests that {@link EhCacheService#load(Serializable)} reads through the default loader.
+     */
+    @Test
+    public void loadUsesDefaultLoader() {
+        final EhCacheService service = new EhCacheService("readthroughcache");
+        final AtomicInteger invocations = new AtomicInteger();
+        service.setDefaultLoader(new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) {
+                invocations.incrementAndGet();
+                return "loaded";
+            }
+            
+        });
+        service.initialize();
+        Assert.assertEquals("loaded", service.<String>load("missing"));
+        Assert.assertEquals("loaded", service.<String>load("missing"));
+        Assert.assertEquals("loaded", service.<String>read("missing"));
+        Assert.assertEquals(1, invocations.get());
+        service.dispose();
+    }
+
+    /**
+     * Tests that {@link EhCacheService#load(Serializable)} requires a default loader.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void loadWithoutDefaultLoader() {
+        final EhCacheService service = new EhCacheService("noloadercache");
+        service.initialize();
+        try {
+            service.load("missing");
+        } finally {
+            service.dispose();
+        }
+    }
+
+    /**
+     * Tests that a failing startup is reported by {@link EhCacheService#initialize()}.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void startupFailure() throws IOException {
+        final File file = File.createTempFile("ehcache", ".tmp");
+        file.deleteOnExit();
+        final EhCacheService service = new EhCacheService("failingcache");
+        service.setDiskStore("mapped");
+        // the disk store directory can't be created below a regular file
+        service.setDiskStorePath(file.getPath());
+        service.setOverflowToDisk(true);
+        try {
+            service.initialize();
+            Assert.fail("Expected a LifecycleException");
+        } catch (LifecycleException e) {
+            Assert.assertTrue(e.getCause() instanceof CacheException);
+        } finally {
+            service.dispose();
+        }
+    }
+
+    /**
+     * Tests {@link EhCacheService#storeAll(Map)}, {@link EhCacheService#readAll(java.util.Collection)}
+     * and {@link EhCacheService#removeAll(java.util.Collection)}.
+     */
+    @Test
+    public void batch() {
+        final EhCacheService service = (EhCacheService) unit();
+        service.storeAll(ImmutableMap.of("batch-a", "a", "batch-b", "b", "batch-c", "c"));
+        
+        final Map<Serializable, String> values = service.readAll(Arrays.asList("batch-a", "batch-c", "batch-d"));
+        Assert.assertEquals(ImmutableMap.of("batch-a", "a", "batch-c", "c"), values);
+        
+        service.removeAll(Arrays.asList("batch-a", "batch-b"));
+        Assert.assertNull(service.read("batch-a"));
+        Assert.assertNull(service.read("batch-b"));
+        Assert.assertEquals("c", service.read("batch-c"));
+    }
+
+    /**
+     * Tests the atomic operations.
+     */
+    @Test
+    public void atomic() {
+        final EhCacheService service = (EhCacheService) unit();
+        Assert.assertNull(service.putIfAbsent("atomic", "a"));
+        Assert.assertEquals("a", service.putIfAbsent("atomic", "b"));
+        
+        Assert.assertFalse(service.replace("atomic", "b", "c"));
+        Assert.assertTrue(service.replace("atomic", "a", "c"));
+        Assert.assertEquals("c", service.replace("atomic", "d"));
+        Assert.assertNull(service.replace("atomic-missing", "d"));
+        Assert.assertNull(service.read("atomic-missing"));
+        
+        Assert.assertFalse(service.remove("atomic", "c"));
+        Assert.assertTrue(service.remove("atomic", "d"));
+        Assert.assertNull(service.read("atomic"));
+        
+        service.store("atomic", "e");
+        Assert.assertEquals("e", service.remove("atomic"));
+        Assert.assertNull(service.remove("atomic"));
+        
+        // a negative entry counts as absent
+        service.storeAbsent("atomic-absent");
+        Assert.assertNull(service.replace("atomic-absent", "f"));
+        Assert.assertTrue(service.isAbsent("atomic-absent"));
+        Assert.assertNull(service.remove("atomic-absent"));
+        Assert.assertNull(service.read("atomic-absent"));
+    }
+
+    /**
+     * Tests the {@link EhAsyncCacheService} on top of an {@link EhCacheService}.
+     *
+     * @throws ExecutionException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void async() throws InterruptedException, ExecutionException {
+        final EhAsyncCacheService service = new EhAsyncCacheService((EhCacheService) unit(), "testcache");
+        service.setThreads(2);
+        service.setQueueSize(16);
+        service.initialize();
+        try {
+            service.storeAsync("async", "value").get();
+            Assert.assertEquals("value", service.<String>readAsync("async").get());
+            Assert.assertEquals("value", service.<String>removeAsync("async").get());
+            Assert.assertNull(service.readAsync("async").get());
+        } finally {
+            service.dispose();
+        }
+    }
+
+    /**
+     * Tests that hits, misses and latencies are recorded.
+     */
+    @Test
+    public void metrics() {
+        final EhCacheService service = (EhCacheService) unit();
+        final CacheMetrics metrics = service.getMetrics();
+        service.store("metrics", "value");
+        service.read("metrics");
+        service.read("metrics-missing");
+        
+        Assert.assertEquals(1L, metrics.getStores());
+        Assert.assertEquals(1L, metrics.getHits());
+        Assert.assertEquals(1L, metrics.getMisses());
+        Assert.assertEquals(0.5, metrics.getHitRatio(), 0.0);
+        Assert.assertTrue(metrics.getReadLatency999th() >= metrics.getReadLatency50th());
+        
+        metrics.reset();
+        Assert.assertEquals(0L, metrics.getHits());
+        
+        service.storeAll(ImmutableMap.of("metrics-a", "a", "metrics-b", "b"));
+        service.readAll(Arrays.asList("metrics-a", "metrics-b", "metrics-missing"));
+        service.removeAll(Arrays.asList("metrics-a", "metrics-b"));
+        Assert.assertEquals(2L, metrics.getStores());
+        Assert.assertEquals(2L, metrics.getHits());
+        Assert.assertEquals(1L, metrics.getMisses());
+        Assert.assertEquals(2L, metrics.getRemovals());
+        Assert.assertTrue(metrics.getReadLatency50th() > 0.0);
+        
+        // negative entries are misses
+        metrics.reset();
+        service.storeAbsent("metrics-absent");
+        Assert.assertNull(service.read("metrics-absent"));
+        Assert.assertEquals(0L, metrics.getHits());
+        Assert.assertEquals(1L, metrics.getMisses());
+    }
+
+    /**
+     * Tests that the hot set survives a restart.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void snapshot() throws IOException {
+        final File file = File.createTempFile("snapshot", ".bin");
+        Assert.assertTrue(file.delete());
+        
+        final EhCacheService before = new EhCacheService("snapshotcache");
+        before.setSnapshotFile(file.getPath());
+        before.setSnapshotSize(2);
+        before.initialize();
+        before.store("hot", "hot-value");
+        before.store("warm", "warm-value");
+        before.store("cold", "cold-value");
+        for (int i = 0; i < 3; i++) {
+            before.read("hot");
+            before.read("warm");
+        }
+        before.dispose();
+        Assert.assertTrue(file.isFile());
+        
+        final EhCacheService after = new EhCacheService("snapshotcache");
+        after.setSnapshotFile(file.getPath());
+        after.initialize();
+        Assert.assertEquals(2, after.getWarmedUp());
+        Assert.assertEquals("hot-value", after.<String>read("hot"));
+        Assert.assertEquals("warm-value", after.<String>read("warm"));
+        Assert.assertNull(after.read("cold"));
+        Assert.assertFalse(file.exists());
+        after.dispose();
+        file.delete();
+    }
+
+    private EhCacheService persistentMapped(File directory) {
+        final EhCacheService service = new EhCacheService("persistentcache");
+        service.setDiskStore("mapped");
+        service.setDiskStorePath(directory.getPath());
+        service.setDiskPersistent(true);
+        service.setOverflowToDisk(true);
+        service.setEternal(true);
+        service.setMaxElementsInMemory(100);
+        service.initialize();
+        return service;
+    }
+
+    /**
+     * Tests that values which never left memory survive a restart of a persistent mapped disk store.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void persistentRestart() throws IOException {
+        final File directory = File.createTempFile("persistent", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+        
+        final EhCacheService before = persistentMapped(directory);
+        before.store("first", "first-value");
+        before.store("second", "second-value");
+        before.dispose();
+        
+        final EhCacheService after = persistentMapped(directory);
+        Assert.assertEquals("first-value", after.<String>read("first"));
+        Assert.assertEquals("second-value", after.<String>read("second"));
+        Assert.assertNull(after.read("third"));
+        after.dispose();
+        
+        final File[] stores = directory.listFiles();
+        if (stores != null) {
+            for (File store : stores) {
+                final File[] files = store.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                store.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Tests that entries are reloaded in the background before they expire.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void refreshAhead() throws InterruptedException {
+        final EhCacheService service = new EhCacheService("refreshcache");
+        service.setTimeToLive(2);
+        service.setTimeToLiveUnit(TimeUnit.SECONDS);
+        service.setRefreshFraction(0.5);
+        service.initialize();
+        
+        final AtomicInteger loads = new AtomicInteger();
+        final ValueLoader loader = new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) {
+                return "value" + loads.incrementAndGet();
+            }
+            
+        };
+        
+        final long loaded = System.currentTimeMillis();
+        Assert.assertEquals("value1", service.<String>read("key", loader));
+        Assert.assertEquals("value1", service.<String>read("key", loader));
+        Assert.assertEquals(1, loads.get());
+        
+        // reads keep returning the cached value until the background refresh replaced it
+        final long deadline = System.currentTimeMillis() + 5000;
+        String value = service.<String>read("key", loader);
+        while (!"value2".equals(value) && System.currentTimeMillis() < deadline) {
+            Assert.assertEquals("value1", value);
+            Thread.sleep(10);
+            value = service.<String>read("key", loader);
+        }
+        Assert.assertEquals("value2", value);
+        // refreshed in the background, not loaded again after the entry expired
+        Assert.assertTrue(System.currentTimeMillis() < loaded + 2000);
+        Assert.assertEquals(2, loads.get());
+        service.dispose();
+    }
+
+    /**
+     * Tests that reading through the default loader refreshes entries before they expire.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void refreshAheadOnLoad() throws InterruptedException {
+        final EhCacheService service = new EhCacheService("loadrefreshcache");
+        service.setTimeToLive(2);
+        service.setTimeToLiveUnit(TimeUnit.SECONDS);
+        service.setRefreshFraction(0.5);
+        final AtomicInteger loads = new AtomicInteger();
+        service.setDefaultLoader(new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) {
+                return "value" + loads.incrementAndGet();
+            }
+            
+        });
+        service.initialize();
+        
+        final long loaded = System.currentTimeMillis();
+        Assert.assertEquals("value1", service.<String>load("key"));
+        
+        final long deadline = System.currentTimeMillis() + 5000;
+        String value = service.<String>load("key");
+        while (!"value2".equals(value) && System.currentTimeMillis() < deadline) {
+            Assert.assertEquals("value1", value);
+            Thread.sleep(10);
+            value = service.<String>load("key");
+        }
+        Assert.assertEquals("value2", value);
+        Assert.assertTrue(System.currentTimeMillis() < loaded + 2000);
+        Assert.assertEquals(2, loads.get());
+        service.dispose();
+    }
+
+    /**
+     * Tests that disposing one service leaves the other caches of the shared manager intact.
+     */
+    @Test
+    public void disposeOne() {
+        final ManagedCacheManager managed = ManagedCacheManager.DEFAULT;
+        final EhCacheService first = new EhCacheService("firstcache", managed);
+        final EhCacheService second = new EhCacheService("secondcache", managed);
+        first.initialize();
+        second.initialize();
+        first.store("key", "first");
+        second.store("key", "second");
+        
+        first.dispose();
+        Assert.assertEquals("second", second.<String>read("key"));
+        
+        final EhCacheService again = new EhCacheService("firstcache", managed);
+        again.initialize();
+        Assert.assertNull(again.read("key"));
+        again.dispose();
+        second.dispose();
+    }
+
+    /**
+     * Tests that separately managed caches don't share, and therefore can't shut down, each other's manager.
+     */
+    @Test
+    public void separateManagers() {
+        final ManagedCacheManager managed = new ManagedCacheManager();
+        final CacheManager manager = managed.acquire();
+        final CacheManager shared = ManagedCacheManager.DEFAULT.acquire();
+        Assert.assertNotSame(shared, manager);
+        managed.release();
+        Assert.assertEquals(Status.STATUS_SHUTDOWN, manager.getStatus());
+        Assert.assertEquals(Status.STATUS_ALIVE, shared.getStatus());
+        ManagedCacheManager.DEFAULT.release();
+    }
+
+    /**
+     * Tests that sub-second time to live is honoured and expired entries are removed without being read.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void millisecondTimeToLive() throws InterruptedException {
+        final EhCacheService service = new EhCacheService("millisecondcache");
+        service.setExpiryInterval(10);
+        service.initialize();
+        final long stored = System.currentTimeMillis();
+        service.store("read", "value", 200, TimeUnit.MILLISECONDS);
+        service.store("unread", "value", 200, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("value", service.<String>read("read"));
+        
+        // ehcache itself never purges the memory store, only the timer wheel does
+        final long deadline = stored + 5000;
+        while (service.getCache().isKeyInCache("unread") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(service.getCache().isKeyInCache("unread"));
+        Assert.assertTrue(System.currentTimeMillis() - stored >= 200);
+        Assert.assertNull(service.read("read"));
+        service.dispose();
+    }
+
+    /**
+     * Tests that misses of a loader are cached until a value is stored.
+     */
+    @Test
+    public void negativeCaching() {
+        final EhCacheService service = new EhCacheService("negativecache");
+        service.setNegativeTimeToLive(1);
+        service.setNegativeTimeToLiveUnit(TimeUnit.MINUTES);
+        service.initialize();
+        final AtomicInteger loads = new AtomicInteger();
+        final ValueLoader loader = new ValueLoader() {
+            
+            @Override
+            public Object load(Serializable key) {
+                loads.incrementAndGet();
+                return null;
+            }
+            
+        };
+        Assert.assertNull(service.read("missing", loader));
+        Assert.assertNull(service.read("missing", loader));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertTrue(service.isAbsent("missing"));
+        Assert.assertTrue(service.readAll(Collections.singleton("missing")).isEmpty());
+        
+        Assert.assertNull(service.putIfAbsent("missing", "value"));
+        Assert.assertFalse(service.isAbsent("missing"));
+        Assert.assertEquals("value", service.<String>read("missing", loader));
+        service.dispose();
+    }
+    
+    /**
+     * Tests that invalidating a tag removes only the keys stored with it.
+     */
+    @Test
+    public void invalidateTag() {
+        final EhCacheService service = new EhCacheService("taggedcache");
+        service.initialize();
+        for (int i = 0; i < 1000; i++) {
+            service.store(i, "value" + i, Collections.singleton("tenant" + i % 10));
+        }
+        service.store("untagged", "value");
+        service.store(1000, "value", 1, TimeUnit.MINUTES, Collections.singleton("tenant0"));
+        Assert.assertEquals(101, service.invalidateTag("tenant0"));
+        Assert.assertNull(service.read(0));
+        Assert.assertNull(service.read(1000));
+        Assert.assertEquals("value1", service.read(1));
+        Assert.assertEquals("value", service.read("untagged"));
+        
+        // storing again without tags drops the old ones
+        service.store(1, "value");
+        Assert.assertEquals(99, service.invalidateTag("tenant1"));
+        Assert.assertEquals("value", service.read(1));
+        
+        service.remove(2);
+        Assert.assertEquals(99, service.invalidateTag("tenant2"));
+        service.dispose();
+    }
+
+    /**
+     * Tests that keys which the secondary tiers drop are untagged.
+     */
+    @Test
+    public void untagDropped() {
+        final EhCacheService service = new EhCacheService("taggedtiercache");
+        service.setMaxElementsInMemory(1);
+        service.setMaxBytesOffHeap(4096);
+        service.initialize();
+        for (int i = 0; i < 200; i++) {
+            service.store(i, "value" + i, Collections.singleton("tenant"));
+        }
+        // one in memory, at most 64 chunks of 64 bytes off the heap
+        Assert.assertTrue(service.invalidateTag("tenant") <= 65);
+        service.dispose();
+    }
+
+    /**
+     * Tests that keys which the memory budget evicts into the secondary tiers stay tagged.
+     */
+    @Test
+    public void tagEvicted() {
+        final EhCacheService service = new EhCacheService("taggedbudgetcache");
+        service.setMaxBytesInMemory(2048);
+        service.setMaxBytesOffHeap(1 << 20);
+        service.initialize();
+        for (int i = 0; i < 100; i++) {
+            service.store(i, "value" + i, Collections.singleton("tenant"));
+        }
+        Assert.assertEquals(100, service.invalidateTag("tenant"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(service.read(i));
+        }
+        service.dispose();
+    }
+
+    
+    /**
+     * Tests that subscribers receive puts and removes.
+     * 
+     * @throws InterruptedException if interrupted while waiting for the events
+     */
+    @Test
+    public void events() throws InterruptedException {
+        final EhCacheService service = new EhCacheService("eventcache");
+        service.setEventBufferSize(1024);
+        service.initialize();
+        final List<CacheEvent> received = new CopyOnWriteArrayList<CacheEvent>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        service.subscribe(new CacheEventSubscriber() {
+            
+            @Override
+            public void onEvents(List<CacheEvent> events) {
+                received.addAll(events);
+                if (events.get(events.size() - 1).getType() == CacheEvent.Type.REMOVE) {
+                    latch.countDown();
+                }
+            }
+            
+        });
+        service.store("a", "value");
+        service.store("b", "value");
+        service.remove("b");
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("a", received.get(0).getKey());
+        Assert.assertEquals(CacheEvent.Type.PUT, received.get(0).getType());
+        Assert.assertEquals(CacheEvent.Type.REMOVE, received.get(received.size() - 1).getType());
+        service.dispose();
+    }
+
+    /**
+     * Tests that evictions and expirations are published once and removals of absent keys not at all.
+     * 
+     * @throws InterruptedException if interrupted while waiting for the events
+     */
+    @Test
+    public void eventsOnce() throws InterruptedException {
+        final EhCacheService service = new EhCacheService("eventoncecache");
+        service.setEventBufferSize(1024);
+        service.setMaxBytesInMemory(2048);
+        service.setExpiryInterval(10);
+        service.initialize();
+        final List<CacheEvent> received = new CopyOnWriteArrayList<CacheEvent>();
+        service.subscribe(new CacheEventSubscriber() {
+            
+            @Override
+            public void onEvents(List<CacheEvent> events) {
+                received.addAll(events);
+            }
+            
+        });
+        for (int i = 0; i < 100; i++) {
+            service.store(i, "value" + i);
+        }
+        service.remove("absent");
+        service.store("expiring", "value", 200, TimeUnit.MILLISECONDS);
+        
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (count(received, "expiring", CacheEvent.Type.EXPIRE) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, count(received, "expiring", CacheEvent.Type.EXPIRE));
+        Assert.assertEquals(0, count(received, "expiring", CacheEvent.Type.REMOVE));
+        Assert.assertEquals(0, count(received, "absent", CacheEvent.Type.REMOVE));
+        int evicted = 0;
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, count(received, i, CacheEvent.Type.REMOVE));
+            Assert.assertTrue(count(received, i, CacheEvent.Type.EVICT) <= 1);
+            evicted += count(received, i, CacheEvent.Type.EVICT);
+        }
+        Assert.assertTrue(evicted > 0);
+        service.dispose();
+    }
+
+    private static int count(List<CacheEvent> events, Object key, CacheEvent.Type type) {
+        int count = 0;
+        for (CacheEvent event : events) {
+            if (key.equals(event.getKey()) && event.getType() == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the {@link EventPipeline}.
+ *
+ * @author Willi Schoenborn
+ */
+public class EventPipelineTest {
+
+    /**
+     * Collects all delivered batches.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class Recorder implements CacheEventSubscriber {
+        
+        private final List<List<CacheEvent>> batches = Lists.newArrayList();
+        
+        @Override
+        public synchronized void onEvents(List<CacheEvent> events) {
+            batches.add(events);
+        }
+        
+    }
+    
+    /**
+     * Tests that events of the same key are merged and the last one wins.
+     */
+    @Test
+    public void coalesce() {
+        final EventPipeline pipeline = new EventPipeline("test", 16, 1, TimeUnit.SECONDS);
+        final Recorder recorder = new Recorder();
+        pipeline.subscribe(recorder);
+        pipeline.publish("a", CacheEvent.Type.PUT);
+        pipeline.publish("b", CacheEvent.Type.PUT);
+        pipeline.publish("a", CacheEvent.Type.REMOVE);
+        pipeline.drain();
+        Assert.assertEquals(1, recorder.batches.size());
+        final List<CacheEvent> batch = recorder.batches.get(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("a", batch.get(0).getKey());
+        Assert.assertEquals(CacheEvent.Type.REMOVE, batch.get(0).getType());
+        Assert.assertEquals(CacheEvent.Type.PUT, batch.get(1).getType());
+        
+        pipeline.drain();
+        Assert.assertEquals(1, recorder.batches.size());
+    }
+    
+    /**
+     * Tests that events are dropped instead of blocking once the buffer is full.
+     */
+    @Test
+    public void full() {
+        final EventPipeline pipeline = new EventPipeline("test", 3, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(pipeline.publish(i, CacheEvent.Type.PUT));
+        }
+        Assert.assertFalse(pipeline.publish(4, CacheEvent.Type.PUT));
+        Assert.assertEquals(1L, pipeline.getDropped());
+        pipeline.drain();
+        Assert.assertTrue(pipeline.publish(4, CacheEvent.Type.PUT));
+    }
+    
+    /**
+     * Tests that the background thread delivers events published concurrently.
+     * 
+     * @throws InterruptedException if interrupted while publishing
+     */
+    @Test
+    public void deliver() throws InterruptedException {
+        final EventPipeline pipeline = new EventPipeline("test", 1 << 16, 1, TimeUnit.MILLISECONDS);
+        final Recorder recorder = new Recorder();
+        pipeline.subscribe(recorder);
+        pipeline.start();
+        final List<Thread> threads = Lists.newArrayList();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 1000;
+            final Thread thread = new Thread() {
+                
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        pipeline.publish(offset + i, CacheEvent.Type.PUT);
+                    }
+                }
+                
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.close();
+        int delivered = 0;
+        for (List<CacheEvent> batch : recorder.batches) {
+            delivered += batch.size();
+        }
+        Assert.assertEquals(4000, delivered);
+    }
+
+}
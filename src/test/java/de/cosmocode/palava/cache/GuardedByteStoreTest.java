@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link GuardedByteStore}.
+ *
+ * @author Willi Schoenborn
+ */
+public class GuardedByteStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    
+    private File directory;
+    
+    private File file;
+    
+    /**
+     * Creates a fresh directory for each test.
+     * 
+     * @throws IOException if the directory can't be created
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("guarded-byte-store", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+        file = new File(directory, "filter.dat");
+    }
+    
+    /**
+     * Deletes the directory of the current test.
+     */
+    @After
+    public void deleteDirectory() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                child.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    private GuardedByteStore open(boolean persistent, CacheMetrics metrics) {
+        final MappedDiskStore store = new MappedDiskStore(directory, CompactCodec.INSTANCE,
+            SEGMENT_SIZE, 0L, persistent);
+        return new GuardedByteStore(store, 1000, persistent ? file : null, metrics);
+    }
+    
+    private static byte[] bytes(int length, int seed) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+    
+    /**
+     * Tests that reads of keys which have never been stored skip the store.
+     */
+    @Test
+    public void skip() {
+        final CacheMetrics metrics = new CacheMetrics();
+        final GuardedByteStore store = open(false, metrics);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(store.put(i, bytes(20, i), Long.MAX_VALUE));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(Arrays.equals(bytes(20, i), store.take(i).getBytes()));
+        }
+        Assert.assertEquals(1000L, metrics.getDiskReads());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertNull(store.take(i));
+        }
+        Assert.assertTrue(metrics.getSkippedDiskReadRatio() > 0.45);
+        store.close();
+    }
+    
+    /**
+     * Tests that removed keys are no longer contained in the filter.
+     */
+    @Test
+    public void remove() {
+        final CacheMetrics metrics = new CacheMetrics();
+        final GuardedByteStore store = open(false, metrics);
+        store.put("key", bytes(20, 1), Long.MAX_VALUE);
+        store.remove("key");
+        Assert.assertNull(store.take("key"));
+        Assert.assertEquals(1L, metrics.getSkippedDiskReads());
+        Assert.assertEquals(0, store.size());
+        store.close();
+    }
+    
+    /**
+     * Tests that expired and replaced values don't leave stale counts in the filter.
+     */
+    @Test
+    public void expiredAndReplaced() {
+        final CacheMetrics metrics = new CacheMetrics();
+        final GuardedByteStore store = open(false, metrics);
+        store.put("expired", bytes(20, 1), System.currentTimeMillis() - 1);
+        Assert.assertTrue(store.take("expired").isExpired(System.currentTimeMillis()));
+        store.put("replaced", bytes(20, 1), Long.MAX_VALUE);
+        store.put("replaced", bytes(20, 2), Long.MAX_VALUE);
+        Assert.assertTrue(store.remove("replaced"));
+        
+        Assert.assertNull(store.take("expired"));
+        Assert.assertNull(store.take("replaced"));
+        Assert.assertEquals(2L, metrics.getSkippedDiskReads());
+        store.close();
+    }
+    
+    /**
+     * Tests that keys of dropped segments are removed from the filter.
+     */
+    @Test
+    public void dropped() {
+        final CacheMetrics metrics = new CacheMetrics();
+        final MappedDiskStore mapped = new MappedDiskStore(directory, CompactCodec.INSTANCE,
+            SEGMENT_SIZE, 2L * SEGMENT_SIZE, false);
+        final GuardedByteStore store = new GuardedByteStore(mapped, 1000, null, metrics);
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertTrue(store.put(i, bytes(100, i), Long.MAX_VALUE));
+        }
+        Assert.assertNull(store.take(0));
+        Assert.assertEquals(1L, metrics.getSkippedDiskReads());
+        store.close();
+    }
+    
+    /**
+     * Tests that the filter of a persistent store survives a restart.
+     */
+    @Test
+    public void reopen() {
+        final GuardedByteStore store = open(true, null);
+        for (int i = 0; i < 100; i++) {
+            store.put(i, bytes(20, i), Long.MAX_VALUE);
+        }
+        store.close();
+        Assert.assertTrue(file.isFile());
+        
+        final CacheMetrics metrics = new CacheMetrics();
+        final GuardedByteStore reopened = open(true, metrics);
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(100, reopened.size());
+        Assert.assertTrue(Arrays.equals(bytes(20, 7), reopened.take(7).getBytes()));
+        Assert.assertEquals(0L, metrics.getSkippedDiskReads());
+        reopened.close();
+    }
+    
+    /**
+     * Tests that a persistent store without a filter is cleared.
+     */
+    @Test
+    public void missingFilter() {
+        final MappedDiskStore store = new MappedDiskStore(directory, CompactCodec.INSTANCE,
+            SEGMENT_SIZE, 0L, true);
+        store.put(1, bytes(20, 1), Long.MAX_VALUE);
+        store.close();
+        
+        final GuardedByteStore reopened = open(true, null);
+        Assert.assertEquals(0, reopened.size());
+        Assert.assertNull(reopened.take(1));
+        reopened.close();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import net.sf.ehcache.CacheException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link InFlightLoads}.
+ *
+ * @author Willi Schoenborn
+ */
+public class InFlightLoadsTest {
+
+    /**
+     * Tests that the timeout bounds the wait of concurrent readers, but not the load itself.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void timeoutBoundsWaitOnly() throws InterruptedException {
+        final InFlightLoads loads = new InFlightLoads();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Object> leader = new AtomicReference<Object>();
+        final Thread thread = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                leader.set(loads.load("key", new Callable<Object>() {
+                    
+                    @Override
+                    public Object call() throws InterruptedException {
+                        started.countDown();
+                        release.await();
+                        return "loaded";
+                    }
+                    
+                }, 10, TimeUnit.MILLISECONDS));
+            }
+            
+        });
+        thread.start();
+        started.await();
+        Assert.assertTrue(loads.isLoading("key"));
+        
+        try {
+            loads.load("key", new Callable<Object>() {
+                
+                @Override
+                public Object call() {
+                    throw new AssertionError("Concurrent loads must not run");
+                }
+                
+            }, 10, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected a timeout");
+        } catch (CacheException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+        
+        // the leader outlives the timeout and still gets its value
+        release.countDown();
+        thread.join();
+        Assert.assertEquals("loaded", leader.get());
+        Assert.assertFalse(loads.isLoading("key"));
+    }
+
+}
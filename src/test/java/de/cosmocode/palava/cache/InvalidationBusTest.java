@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the {@link InvalidationBus} with several simulated nodes on a {@link LocalTransport}.
+ *
+ * @author Willi Schoenborn
+ */
+public class InvalidationBusTest {
+
+    /**
+     * Records the invalidations of a single node.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class Node implements InvalidationBus.Target {
+        
+        private final Set<Object> invalidated = new CopyOnWriteArraySet<Object>();
+        
+        private volatile boolean cleared;
+        
+        @Override
+        public void invalidate(Object key) {
+            invalidated.add(key);
+        }
+        
+        @Override
+        public void invalidateAll() {
+            cleared = true;
+        }
+        
+    }
+    
+    /**
+     * Tests that invalidations reach all other nodes of the same cache, but not the sender.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void propagate() throws IOException {
+        final LocalTransport transport = new LocalTransport("test");
+        final List<Node> nodes = Lists.newArrayList();
+        final List<InvalidationBus> buses = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            final Node node = new Node();
+            nodes.add(node);
+            buses.add(new InvalidationBus("cache", transport, CompactCodec.INSTANCE, node));
+        }
+        final Node other = new Node();
+        final InvalidationBus otherCache = new InvalidationBus("other", transport, CompactCodec.INSTANCE, other);
+        for (InvalidationBus bus : buses) {
+            transport.addReceiver(bus);
+        }
+        transport.addReceiver(otherCache);
+        
+        buses.get(0).invalidate("a");
+        buses.get(0).invalidate("b");
+        buses.get(0).invalidate("a");
+        buses.get(0).flush();
+        
+        Assert.assertTrue(nodes.get(0).invalidated.isEmpty());
+        for (Node node : nodes.subList(1, nodes.size())) {
+            Assert.assertEquals(ImmutableSet.of("a", "b"), node.invalidated);
+        }
+        Assert.assertTrue(other.invalidated.isEmpty());
+        
+        buses.get(1).invalidateAll();
+        buses.get(1).flush();
+        Assert.assertTrue(nodes.get(0).cleared);
+        Assert.assertFalse(nodes.get(1).cleared);
+        Assert.assertFalse(other.cleared);
+    }
+    
+    /**
+     * Tests that large batches are split into several messages.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void split() throws IOException {
+        final LocalTransport transport = new LocalTransport("split");
+        final Node sender = new Node();
+        final Node receiver = new Node();
+        final InvalidationBus from = new InvalidationBus("cache", transport, CompactCodec.INSTANCE, sender);
+        final InvalidationBus to = new InvalidationBus("cache", transport, CompactCodec.INSTANCE, receiver);
+        transport.addReceiver(from);
+        transport.addReceiver(to);
+        for (int i = 0; i < 20000; i++) {
+            from.invalidate("key-" + i);
+        }
+        from.flush();
+        Assert.assertEquals(20000, receiver.invalidated.size());
+    }
+    
+    /**
+     * Tests that the scheduled flush sends pending invalidations.
+     * 
+     * @throws IOException should not happen
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void window() throws IOException, InterruptedException {
+        final InvalidationTransport transport = InvalidationTransports.forAddress("local://window");
+        final Node receiver = new Node();
+        final InvalidationBus from = new InvalidationBus("cache", transport, CompactCodec.INSTANCE, new Node());
+        final InvalidationBus to = new InvalidationBus("cache", transport, CompactCodec.INSTANCE, receiver);
+        from.start(1, TimeUnit.MILLISECONDS);
+        to.start(1, TimeUnit.MILLISECONDS);
+        from.invalidate(42);
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (receiver.invalidated.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(ImmutableSet.of(42), receiver.invalidated);
+        from.close();
+        to.close();
+    }
+
+}
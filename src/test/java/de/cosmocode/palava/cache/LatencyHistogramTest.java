@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link LatencyHistogram}.
+ *
+ * @author Willi Schoenborn
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Tests that values recorded by concurrent threads into different stripes are all counted.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    for (int j = 1; j <= 1000; j++) {
+                        histogram.record(j);
+                    }
+                }
+                
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(8000L, histogram.count());
+        final long median = histogram.percentile(0.5);
+        Assert.assertTrue(median >= 500L && median <= 500L * 9 / 8);
+        Assert.assertTrue(histogram.percentile(1.0) >= 1000L);
+    }
+    
+    /**
+     * Tests recording the same value several times and resetting.
+     */
+    @Test
+    public void batch() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100L, 9L);
+        histogram.record(100000L);
+        Assert.assertEquals(10L, histogram.count());
+        Assert.assertTrue(histogram.percentile(0.9) < 128L);
+        Assert.assertTrue(histogram.percentile(0.95) >= 100000L);
+        histogram.reset();
+        Assert.assertEquals(0L, histogram.count());
+        Assert.assertEquals(0L, histogram.percentile(0.5));
+    }
+
+}
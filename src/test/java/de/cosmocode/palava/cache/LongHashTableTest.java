@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link LongHashTable}.
+ *
+ * @author Willi Schoenborn
+ */
+public class LongHashTableTest {
+
+    /**
+     * Tests random puts and removes, including growth and backward shifts, against a {@link HashMap}.
+     */
+    @Test
+    public void random() {
+        final LongHashTable table = new LongHashTable(0, EvictionPolicy.LRU, 0L);
+        final Map<Long, Object> expected = new HashMap<Long, Object>();
+        final Random random = new Random(42L);
+        for (int i = 0; i < 200000; i++) {
+            // a small key space produces long probe sequences and many removals
+            final long key = random.nextBoolean() ? random.nextInt(5000) : Long.MIN_VALUE + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), table.remove(key, 0L));
+            } else {
+                final Integer value = Integer.valueOf(i);
+                expected.put(key, value);
+                table.put(key, value, Long.MAX_VALUE, 0L);
+            }
+        }
+        Assert.assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, Object> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey(), 0L));
+        }
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertNull(table.get(expected.keySet().iterator().next(), 0L));
+    }
+    
+    /**
+     * Tests that entries expire after their time to live and after being idle.
+     */
+    @Test
+    public void expire() {
+        final LongHashTable table = new LongHashTable(0, EvictionPolicy.LRU, 100L);
+        table.put(1L, "a", 150L, 0L);
+        table.put(2L, "b", Long.MAX_VALUE, 0L);
+        Assert.assertEquals("a", table.get(1L, 90L));
+        Assert.assertEquals("a", table.get(1L, 149L));
+        Assert.assertNull(table.get(1L, 150L));
+        Assert.assertNull(table.get(2L, 100L));
+        Assert.assertEquals(0, table.size());
+        table.put(3L, "c", Long.MAX_VALUE, 0L);
+        Assert.assertNull(table.remove(3L, 100L));
+    }
+    
+    /**
+     * Tests that expired entries are dropped before an unbounded table grows.
+     */
+    @Test
+    public void purge() {
+        final LongHashTable table = new LongHashTable(0, EvictionPolicy.LRU, 0L);
+        for (long key = 0; key < 100000; key++) {
+            // every entry has expired by the time the next one is stored
+            table.put(key, "value", key + 1, key + 1);
+        }
+        Assert.assertTrue(table.size() < 1000);
+    }
+    
+    /**
+     * Tests that a bounded table never exceeds its size and keeps recently read entries.
+     */
+    @Test
+    public void lru() {
+        final LongHashTable table = new LongHashTable(1000, EvictionPolicy.LRU, 0L);
+        for (long key = 0; key < 100000; key++) {
+            table.put(key, "value", Long.MAX_VALUE, key);
+            for (long hot = 0; hot < 10; hot++) {
+                table.get(hot, key);
+            }
+            Assert.assertTrue(table.size() <= 1000);
+        }
+        Assert.assertEquals(1000, table.size());
+        for (long hot = 0; hot < 10; hot++) {
+            Assert.assertNotNull(table.get(hot, 100000L));
+        }
+    }
+    
+    /**
+     * Tests that a bounded table keeps frequently read entries.
+     */
+    @Test
+    public void lfu() {
+        final LongHashTable table = new LongHashTable(1000, EvictionPolicy.LFU, 0L);
+        for (long hot = 0; hot < 10; hot++) {
+            table.put(hot, "value", Long.MAX_VALUE, 0L);
+            for (int i = 0; i < 100; i++) {
+                table.get(hot, 0L);
+            }
+        }
+        for (long key = 10; key < 100000; key++) {
+            table.put(key, "value", Long.MAX_VALUE, 0L);
+        }
+        Assert.assertEquals(1000, table.size());
+        for (long hot = 0; hot < 10; hot++) {
+            Assert.assertNotNull(table.get(hot, 0L));
+        }
+    }
+    
+    /**
+     * Tests that a bounded table evicts expired entries first.
+     */
+    @Test
+    public void evictExpired() {
+        final LongHashTable table = new LongHashTable(10, EvictionPolicy.FIFO, 0L);
+        for (long key = 0; key < 10; key++) {
+            table.put(key, "value", key == 5 ? 1L : Long.MAX_VALUE, 0L);
+        }
+        table.put(10L, "value", Long.MAX_VALUE, 1L);
+        Assert.assertEquals(10, table.size());
+        Assert.assertNull(table.get(5L, 1L));
+        Assert.assertEquals("value", table.get(0L, 1L));
+    }
+
+}
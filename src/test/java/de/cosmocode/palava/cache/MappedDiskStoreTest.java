@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link MappedDiskStore}.
+ *
+ * @author Willi Schoenborn
+ */
+public class MappedDiskStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    
+    private File directory;
+    
+    /**
+     * Creates a fresh directory for each test.
+     * 
+     * @throws IOException if the directory can't be created
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("mapped-disk-store", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+    }
+    
+    /**
+     * Deletes the directory of the current test.
+     */
+    @After
+    public void deleteDirectory() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    private MappedDiskStore open(long maxBytes, boolean persistent) {
+        return new MappedDiskStore(directory, CompactCodec.INSTANCE, SEGMENT_SIZE, maxBytes, persistent);
+    }
+    
+    private static byte[] bytes(int length, int seed) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+    
+    /**
+     * Tests storing, replacing and taking values across several segments.
+     */
+    @Test
+    public void putAndTake() {
+        final MappedDiskStore store = open(0L, false);
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(store.put("key" + i, bytes(i % 100 + 1, i), Long.MAX_VALUE));
+        }
+        Assert.assertTrue(store.put("key0", bytes(10, 42), Long.MAX_VALUE));
+        Assert.assertEquals(5000, store.size());
+        Assert.assertTrue(store.getSegmentCount() > 1);
+        Assert.assertTrue(Arrays.equals(bytes(10, 42), store.take("key0").getBytes()));
+        for (int i = 1; i < 5000; i++) {
+            Assert.assertTrue(Arrays.equals(bytes(i % 100 + 1, i), store.take("key" + i).getBytes()));
+        }
+        Assert.assertEquals(0, store.size());
+        Assert.assertNull(store.take("key1"));
+        store.close();
+    }
+    
+    /**
+     * Tests that a persistent store keeps its entries across a restart.
+     */
+    @Test
+    public void reopen() {
+        final MappedDiskStore store = open(0L, true);
+        for (int i = 0; i < 1000; i++) {
+            store.put(i, bytes(50, i), Long.MAX_VALUE);
+        }
+        store.remove(7);
+        store.close();
+        
+        final MappedDiskStore reopened = open(0L, true);
+        Assert.assertEquals(999, reopened.size());
+        Assert.assertNull(reopened.take(7));
+        Assert.assertTrue(Arrays.equals(bytes(50, 8), reopened.take(8).getBytes()));
+        Assert.assertTrue(reopened.put(1000, bytes(50, 1), Long.MAX_VALUE));
+        Assert.assertEquals(999, reopened.size());
+        reopened.close();
+    }
+    
+    /**
+     * Tests that a store which has not been closed is discarded on restart.
+     */
+    @Test
+    public void discardUnclean() {
+        final MappedDiskStore store = open(0L, true);
+        store.put(1, bytes(50, 1), Long.MAX_VALUE);
+        
+        final MappedDiskStore reopened = open(0L, true);
+        Assert.assertEquals(0, reopened.size());
+        reopened.close();
+    }
+    
+    /**
+     * Tests that compaction moves live records and frees the old segment.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void compact() throws IOException {
+        final MappedDiskStore store = open(0L, false);
+        for (int i = 0; i < 2000; i++) {
+            store.put(i, bytes(100, i), Long.MAX_VALUE);
+        }
+        final int segments = store.getSegmentCount();
+        for (int i = 0; i < 2000; i += 3) {
+            store.put(i, bytes(100, -i), Long.MAX_VALUE);
+        }
+        for (int i = 1; i < 2000; i += 3) {
+            store.remove(i);
+        }
+        Assert.assertTrue(store.compact());
+        Assert.assertTrue(store.getSegmentCount() <= segments + 1);
+        for (int i = 0; i < 2000; i++) {
+            final StoredValue value = store.take(i);
+            if (i % 3 == 0) {
+                Assert.assertTrue(Arrays.equals(bytes(100, -i), value.getBytes()));
+            } else if (i % 3 == 1) {
+                Assert.assertNull(value);
+            } else {
+                Assert.assertTrue(Arrays.equals(bytes(100, i), value.getBytes()));
+            }
+        }
+        store.close();
+    }
+    
+    /**
+     * Tests that the oldest segment is dropped once the size limit is reached.
+     */
+    @Test
+    public void maxBytes() {
+        final MappedDiskStore store = open(4L * SEGMENT_SIZE, false);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(store.put(i, bytes(100, i), Long.MAX_VALUE));
+        }
+        Assert.assertTrue(store.getSegmentCount() <= 4);
+        Assert.assertNull(store.take(0));
+        Assert.assertTrue(Arrays.equals(bytes(100, 9999), store.take(9999).getBytes()));
+        store.close();
+    }
+    
+    /**
+     * Tests that expired values are taken, but reported as expired.
+     */
+    @Test
+    public void expired() {
+        final MappedDiskStore store = open(0L, false);
+        store.put(1, bytes(10, 1), System.currentTimeMillis() - 1);
+        Assert.assertTrue(store.take(1).isExpired(System.currentTimeMillis()));
+        Assert.assertNull(store.take(1));
+        Assert.assertEquals(0, store.size());
+        store.close();
+    }
+    
+    /**
+     * Tests that remove reports whether there was a value.
+     */
+    @Test
+    public void remove() {
+        final MappedDiskStore store = open(0L, false);
+        store.put(1, bytes(10, 1), System.currentTimeMillis() - 1);
+        Assert.assertTrue(store.remove(1));
+        Assert.assertFalse(store.remove(1));
+        Assert.assertEquals(0, store.size());
+        store.close();
+    }
+
+}
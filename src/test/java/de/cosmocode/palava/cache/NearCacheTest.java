@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+import net.sf.ehcache.Element;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link NearCache}.
+ *
+ * @author Willi Schoenborn
+ */
+public class NearCacheTest {
+
+    /**
+     * Tests that cached elements are invalidated by key and by clear.
+     */
+    @Test
+    public void invalidate() {
+        final NearCache near = new NearCache(16, 1, TimeUnit.MINUTES);
+        final Element element = new Element("key", "value");
+        near.put("key", element, near.version("key"));
+        Assert.assertSame(element, near.get("key"));
+        Assert.assertNull(near.get("other"));
+        
+        near.invalidate("key");
+        Assert.assertNull(near.get("key"));
+        
+        near.put("key", element, near.version("key"));
+        near.clear();
+        Assert.assertNull(near.get("key"));
+    }
+    
+    /**
+     * Tests that an element read before a concurrent write is never served.
+     */
+    @Test
+    public void staleVersion() {
+        final NearCache near = new NearCache(16, 1, TimeUnit.MINUTES);
+        final long version = near.version("key");
+        near.invalidate("key");
+        near.put("key", new Element("key", "old"), version);
+        Assert.assertNull(near.get("key"));
+    }
+    
+    /**
+     * Tests that invalidations are visible to other threads.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void otherThreads() throws InterruptedException {
+        final NearCache near = new NearCache(16, 1, TimeUnit.MINUTES);
+        final AtomicReference<Element> before = new AtomicReference<Element>();
+        final AtomicReference<Element> after = new AtomicReference<Element>();
+        final Object lock = new Object();
+        final Thread reader = new Thread() {
+            
+            @Override
+            public void run() {
+                near.put("key", new Element("key", "value"), near.version("key"));
+                before.set(near.get("key"));
+                synchronized (lock) {
+                    lock.notifyAll();
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                after.set(near.get("key"));
+            }
+            
+        };
+        synchronized (lock) {
+            reader.start();
+            lock.wait();
+            Assert.assertNull(near.get("key"));
+            near.invalidate("key");
+            lock.notifyAll();
+        }
+        reader.join();
+        Assert.assertNotNull(before.get());
+        Assert.assertNull(after.get());
+    }
+    
+    /**
+     * Tests that entries expire after max age.
+     * 
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void maxAge() throws InterruptedException {
+        final NearCache near = new NearCache(16, 10, TimeUnit.MILLISECONDS);
+        near.put("key", new Element("key", "value"), near.version("key"));
+        Thread.sleep(20);
+        Assert.assertNull(near.get("key"));
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests the {@link ObjectSizer}.
+ *
+ * @author Willi Schoenborn
+ */
+public class ObjectSizerTest {
+
+    private final ObjectSizer sizer = new ObjectSizer();
+    
+    /**
+     * Tests sizes of arrays and strings.
+     */
+    @Test
+    public void arraysAndStrings() {
+        Assert.assertEquals(0L, sizer.sizeOf(null));
+        Assert.assertEquals(16L, sizer.sizeOf(new byte[0]));
+        Assert.assertEquals(1040L, sizer.sizeOf(new byte[1024]));
+        Assert.assertEquals(8016L, sizer.sizeOf(new long[1000]));
+        Assert.assertTrue(sizer.sizeOf("a longer string value") > sizer.sizeOf("short"));
+    }
+    
+    /**
+     * Tests that nested values and shared references are counted once.
+     */
+    @Test
+    public void graph() {
+        final byte[] payload = new byte[1024];
+        final Object[] twice = {payload, payload};
+        Assert.assertEquals(sizer.sizeOf(new Object[2]) + sizer.sizeOf(payload), sizer.sizeOf(twice));
+    }
+    
+    /**
+     * Tests that large collections are extrapolated from a sample.
+     */
+    @Test
+    public void collections() {
+        final List<byte[]> small = Lists.newArrayList();
+        final List<byte[]> large = Lists.newArrayList();
+        final Map<Integer, byte[]> map = Maps.newHashMap();
+        for (int i = 0; i < 10000; i++) {
+            if (i < 100) {
+                small.add(new byte[100]);
+            }
+            large.add(new byte[100]);
+            map.put(i, new byte[100]);
+        }
+        final long smallSize = sizer.sizeOf(small);
+        final long largeSize = sizer.sizeOf(large);
+        Assert.assertTrue(largeSize > 90 * smallSize);
+        Assert.assertTrue(largeSize > 10000L * 100);
+        Assert.assertTrue(sizer.sizeOf(map) > 10000L * 100);
+    }
+
+}
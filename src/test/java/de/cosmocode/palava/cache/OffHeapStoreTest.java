@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link OffHeapStore}.
+ *
+ * @author Willi Schoenborn
+ */
+public class OffHeapStoreTest {
+
+    private static byte[] bytes(int length, int seed) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+    
+    /**
+     * Tests storing and taking values of different sizes.
+     */
+    @Test
+    public void putAndTake() {
+        final OffHeapStore store = new OffHeapStore(1024 * 1024, null);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(store.put(i, bytes(i * 37 + 1, i), Long.MAX_VALUE));
+        }
+        Assert.assertEquals(100, store.size());
+        for (int i = 0; i < 100; i++) {
+            final StoredValue value = store.take(i);
+            Assert.assertNotNull(value);
+            Assert.assertTrue(Arrays.equals(bytes(i * 37 + 1, i), value.getBytes()));
+        }
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0L, store.getUsedBytes());
+    }
+    
+    /**
+     * Tests that the eldest values are evicted to the next tier once the store is full.
+     */
+    @Test
+    public void evictToNext() {
+        final OffHeapStore next = new OffHeapStore(64 * 1024, null);
+        final OffHeapStore store = new OffHeapStore(4 * 1024, next);
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(store.put(i, bytes(512, i), Long.MAX_VALUE));
+        }
+        Assert.assertEquals(8, store.size());
+        Assert.assertEquals(8, next.size());
+        Assert.assertEquals(8L, store.getEvictions());
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(Arrays.equals(bytes(512, i), store.take(i).getBytes()));
+        }
+    }
+    
+    /**
+     * Tests that evicted small chunks are merged again to make room for a large value.
+     */
+    @Test
+    public void mixedSizes() {
+        final OffHeapStore store = new OffHeapStore(64 * 1024, null);
+        for (int i = 0; i < 1024; i++) {
+            Assert.assertTrue(store.put(i, bytes(64, i), Long.MAX_VALUE));
+        }
+        Assert.assertEquals(64L * 1024, store.getUsedBytes());
+        
+        Assert.assertTrue(store.put("large", bytes(32 * 1024, 1), Long.MAX_VALUE));
+        Assert.assertEquals(512L, store.getEvictions());
+        Assert.assertEquals(513, store.size());
+        
+        // a value of a different size in between small ones
+        Assert.assertTrue(store.put("medium", bytes(1000, 2), Long.MAX_VALUE));
+        Assert.assertEquals(528L, store.getEvictions());
+        
+        Assert.assertTrue(Arrays.equals(bytes(32 * 1024, 1), store.take("large").getBytes()));
+        Assert.assertTrue(Arrays.equals(bytes(1000, 2), store.take("medium").getBytes()));
+        for (int i = 528; i < 1024; i++) {
+            Assert.assertTrue(Arrays.equals(bytes(64, i), store.take(i).getBytes()));
+        }
+        Assert.assertEquals(0L, store.getUsedBytes());
+        
+        // everything has been merged back into a single chunk
+        Assert.assertTrue(store.put("full", bytes(64 * 1024, 3), Long.MAX_VALUE));
+    }
+    
+    /**
+     * Tests that expired values are taken, but reported as expired.
+     */
+    @Test
+    public void expired() {
+        final OffHeapStore store = new OffHeapStore(4 * 1024, null);
+        store.put("expired", bytes(10, 1), System.currentTimeMillis() - 1);
+        Assert.assertTrue(store.take("expired").isExpired(System.currentTimeMillis()));
+        Assert.assertNull(store.take("expired"));
+        Assert.assertEquals(0, store.size());
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ShardedByteStore}.
+ *
+ * @author Willi Schoenborn
+ */
+public class ShardedByteStoreTest {
+
+    /**
+     * Tests that keys are spread across all shards and found again.
+     */
+    @Test
+    public void routing() {
+        final List<OffHeapStore> shards = Arrays.asList(
+            new OffHeapStore(1024 * 1024, null),
+            new OffHeapStore(1024 * 1024, null),
+            new OffHeapStore(1024 * 1024, null)
+        );
+        final ShardedByteStore store = new ShardedByteStore(shards);
+        for (int i = 0; i < 300; i++) {
+            Assert.assertTrue(store.put("key" + i, new byte[] {(byte) i}, Long.MAX_VALUE));
+        }
+        Assert.assertEquals(300, store.size());
+        for (OffHeapStore shard : shards) {
+            Assert.assertTrue(shard.size() > 50);
+        }
+        for (int i = 0; i < 300; i++) {
+            Assert.assertEquals((byte) i, store.take("key" + i).getBytes()[0]);
+        }
+        store.put("key", new byte[1], Long.MAX_VALUE);
+        store.clear();
+        Assert.assertEquals(0, store.size());
+        store.close();
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests the {@link TagIndex}.
+ *
+ * @author Willi Schoenborn
+ */
+public class TagIndexTest {
+
+    /**
+     * Tests that invalidation returns exactly the keys of a tag.
+     */
+    @Test
+    public void invalidate() {
+        final TagIndex index = new TagIndex();
+        for (int i = 0; i < 100; i++) {
+            index.tag(i, new Object[] {"tenant" + i % 2, "all"});
+        }
+        final Set<Object> keys = index.invalidate("tenant0");
+        Assert.assertEquals(50, keys.size());
+        Assert.assertTrue(keys.contains(0));
+        Assert.assertFalse(keys.contains(1));
+        Assert.assertTrue(index.invalidate("tenant0").isEmpty());
+        Assert.assertEquals(100, index.invalidate("all").size());
+    }
+    
+    /**
+     * Tests that retagging and untagging remove keys from their old tags.
+     */
+    @Test
+    public void retag() {
+        final TagIndex index = new TagIndex();
+        index.tag("key", new Object[] {"a", "b"});
+        index.tag("key", new Object[] {"b", "c"});
+        Assert.assertTrue(index.invalidate("a").isEmpty());
+        Assert.assertEquals(2, index.size());
+        index.untag("key");
+        Assert.assertEquals(0, index.size());
+        index.tag("other", new Object[] {"c"});
+        Assert.assertEquals(ImmutableSet.<Object>of("other"), index.invalidate("c"));
+    }
+    
+    /**
+     * Tests that storing without tags drops all previous tags.
+     */
+    @Test
+    public void clearTags() {
+        final TagIndex index = new TagIndex();
+        index.tag("key", new Object[] {"a"});
+        index.tag("key", new Object[0]);
+        Assert.assertTrue(index.invalidate("a").isEmpty());
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link TcpTransport}.
+ *
+ * @author Willi Schoenborn
+ */
+public class TcpTransportTest {
+
+    /**
+     * Tests that messages are delivered to the receivers of a peer.
+     * 
+     * @throws IOException if a socket could not be opened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void send() throws IOException, InterruptedException {
+        final TcpTransport server = new TcpTransport(new InetSocketAddress("127.0.0.1", 0),
+            Collections.<InetSocketAddress>emptyList());
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+        final InvalidationTransport.Receiver receiver = new InvalidationTransport.Receiver() {
+            
+            @Override
+            public void receive(byte[] message) {
+                received.add(message);
+            }
+            
+        };
+        server.addReceiver(receiver);
+        
+        final TcpTransport client = new TcpTransport(new InetSocketAddress("127.0.0.1", 0),
+            Collections.singletonList(new InetSocketAddress("127.0.0.1", server.getLocalPort())));
+        final InvalidationTransport.Receiver ignored = new InvalidationTransport.Receiver() {
+            
+            @Override
+            public void receive(byte[] message) {
+                
+            }
+            
+        };
+        client.addReceiver(ignored);
+        client.send(new byte[] {1, 2, 3});
+        client.send(new byte[0]);
+        Assert.assertTrue(Arrays.equals(new byte[] {1, 2, 3}, received.poll(1, TimeUnit.SECONDS)));
+        Assert.assertEquals(0, received.poll(1, TimeUnit.SECONDS).length);
+        
+        client.removeReceiver(ignored);
+        server.removeReceiver(receiver);
+        Assert.assertEquals(-1, server.getLocalPort());
+    }
+
+}
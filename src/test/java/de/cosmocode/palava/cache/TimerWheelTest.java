@@ -0,0 +1,136 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link TimerWheel}.
+ *
+ * @author Willi Schoenborn
+ */
+public class TimerWheelTest {
+
+    /**
+     * Tests that values expire exactly at their deadline, on every level of the wheel.
+     */
+    @Test
+    public void expire() {
+        final long start = 1000000L;
+        for (long delay : new long[] {1L, 63L, 64L, 4095L, 4096L, 300000L, 20000000L}) {
+            final TimerWheel wheel = new TimerWheel(start);
+            wheel.schedule("key", "value", start + delay, 0L, start);
+            Assert.assertTrue(wheel.advance(start + delay - 1).isEmpty());
+            Assert.assertEquals(1, wheel.size());
+            Assert.assertEquals(Collections.singletonList("value"), wheel.advance(start + delay));
+            Assert.assertEquals(0, wheel.size());
+        }
+    }
+    
+    /**
+     * Tests that rescheduling replaces and cancelling removes the previous schedule.
+     */
+    @Test
+    public void cancel() {
+        final TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule("a", "first", 10L, 0L, 0L);
+        wheel.schedule("a", "second", 20L, 0L, 0L);
+        wheel.schedule("b", "third", 10L, 0L, 0L);
+        wheel.cancel("b", "other");
+        Assert.assertEquals(Arrays.<Object>asList("third"), wheel.advance(10L));
+        
+        wheel.schedule("b", "fourth", 15L, 0L, 10L);
+        wheel.cancel("b", "fourth");
+        wheel.cancel("a", "first");
+        Assert.assertEquals(Arrays.<Object>asList("second"), wheel.advance(30L));
+        
+        wheel.schedule("c", "fifth", 40L, 0L, 30L);
+        wheel.clear();
+        Assert.assertTrue(wheel.advance(50L).isEmpty());
+        Assert.assertEquals(0, wheel.size());
+    }
+    
+    /**
+     * Tests that accesses postpone the expiration of idle values, but not beyond their time to live.
+     */
+    @Test
+    public void idle() {
+        final TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule("key", "value", 250L, 100L, 0L);
+        Assert.assertEquals(100L, wheel.deadline("key", "value"));
+        Assert.assertTrue(wheel.access("key", "value", 90L));
+        Assert.assertEquals(190L, wheel.deadline("key", "value"));
+        Assert.assertTrue(wheel.advance(150L).isEmpty());
+        Assert.assertTrue(wheel.access("key", "value", 180L));
+        Assert.assertEquals(250L, wheel.deadline("key", "value"));
+        Assert.assertFalse(wheel.access("key", "value", 250L));
+        Assert.assertEquals(Collections.singletonList("value"), wheel.advance(250L));
+        Assert.assertEquals(-1L, wheel.deadline("key", "value"));
+        Assert.assertTrue(wheel.access("key", "value", 300L));
+    }
+    
+    /**
+     * Tests that values spread across several shards expire at their deadline,
+     * when advancing in steps of random size.
+     */
+    @Test
+    public void shards() {
+        final TimerWheel wheel = new TimerWheel(8, 0L);
+        final Random random = new Random(42L);
+        final long[] deadlines = new long[10000];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = 1L + random.nextInt(10000000);
+            wheel.schedule(i, Integer.valueOf(i), deadlines[i], 0L, 0L);
+        }
+        final Set<Object> expired = new HashSet<Object>();
+        long now = 0L;
+        while (now < 10000000L) {
+            final long previous = now;
+            now += random.nextInt(100000);
+            for (Object value : wheel.advance(now)) {
+                final long deadline = deadlines[(Integer) value];
+                Assert.assertTrue(deadline > previous && deadline <= now);
+                Assert.assertTrue(expired.add(value));
+            }
+        }
+        Assert.assertEquals(deadlines.length, expired.size());
+        Assert.assertEquals(0, wheel.size());
+    }
+    
+    /**
+     * Tests that a clock jump does not step through every millisecond in between.
+     */
+    @Test(timeout = 1000)
+    public void jump() {
+        final TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule("key", "value", 1000L, 0L, 0L);
+        wheel.schedule("parked", "value", Long.MAX_VALUE - 1, 0L, 0L);
+        Assert.assertEquals(Collections.singletonList("value"), wheel.advance(1000000000000L));
+        Assert.assertEquals(1, wheel.size());
+        Assert.assertTrue(wheel.advance(2000000000000L).isEmpty());
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.cache;
+
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests the {@link TinyLfuPolicy} and its {@link FrequencySketch}.
+ *
+ * @author Willi Schoenborn
+ */
+public class TinyLfuPolicyTest {
+
+    /**
+     * Tests that frequencies are counted and aged.
+     */
+    @Test
+    public void sketch() {
+        final FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("cold");
+        Assert.assertEquals(10, sketch.frequency("hot"));
+        Assert.assertEquals(1, sketch.frequency("cold"));
+        Assert.assertEquals(0, sketch.frequency("missing"));
+        sketch.reset();
+        Assert.assertEquals(5, sketch.frequency("hot"));
+        Assert.assertEquals(0, sketch.frequency("cold"));
+    }
+    
+    private static void insert(TinyLfuPolicy policy, Set<Object> resident, Object key) {
+        resident.add(key);
+        final Object evicted = policy.onInsert(key);
+        if (evicted != null) {
+            Assert.assertTrue(resident.remove(evicted));
+        }
+    }
+    
+    /**
+     * Tests that a scan does not displace frequently used keys.
+     */
+    @Test
+    public void scanResistance() {
+        final TinyLfuPolicy policy = new TinyLfuPolicy(100);
+        final Set<Object> resident = Sets.newHashSet();
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (resident.contains(key)) {
+                    policy.onAccess(key);
+                } else {
+                    insert(policy, resident, key);
+                }
+            }
+        }
+        for (int key = 1000; key < 11000; key++) {
+            insert(policy, resident, key);
+        }
+        Assert.assertTrue(resident.size() <= 100);
+        Assert.assertEquals(resident.size(), policy.size());
+        int retained = 0;
+        for (int key = 0; key < 50; key++) {
+            if (resident.contains(key)) {
+                retained++;
+            }
+        }
+        Assert.assertTrue("retained only " + retained, retained >= 45);
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the {@link WriteBehindQueue}.
+ *
+ * @author Willi Schoenborn
+ */
+public class WriteBehindQueueTest {
+
+    /**
+     * A writer backed by a map, which fails a configurable number of times.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class MapWriter implements CacheWriter {
+        
+        private final Map<Serializable, Object> store = new ConcurrentHashMap<Serializable, Object>();
+        
+        private final List<Integer> batches = Lists.newArrayList();
+        
+        private final AtomicInteger failures = new AtomicInteger();
+        
+        @Override
+        public synchronized void write(Map<Serializable, Object> values) {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            batches.add(values.size());
+            store.putAll(values);
+        }
+        
+        @Override
+        public synchronized void delete(Collection<Serializable> keys) {
+            for (Serializable key : keys) {
+                store.remove(key);
+            }
+        }
+        
+    }
+    
+    /**
+     * Tests that repeated changes of a key are written once, with the latest value.
+     */
+    @Test
+    public void coalesce() {
+        final MapWriter writer = new MapWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue("test", writer, 100, 1, TimeUnit.SECONDS, 1000);
+        queue.start();
+        for (int i = 0; i < 10; i++) {
+            queue.write("a", i);
+        }
+        queue.write("b", 1);
+        queue.delete("b");
+        Assert.assertEquals(2, queue.size());
+        queue.close();
+        Assert.assertEquals(ImmutableMap.of("a", 9), writer.store);
+        Assert.assertEquals(Lists.newArrayList(1), writer.batches);
+    }
+    
+    /**
+     * Tests that full batches are written without waiting for the delay.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void batchSize() throws InterruptedException {
+        final MapWriter writer = new MapWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue("test", writer, 10, 1, TimeUnit.MINUTES, 1000);
+        queue.start();
+        for (int i = 0; i < 25; i++) {
+            queue.write(i, i);
+        }
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (writer.store.size() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(writer.store.size() >= 20);
+        queue.close();
+        Assert.assertEquals(25, writer.store.size());
+    }
+    
+    /**
+     * Tests that failed batches are retried without overwriting newer values.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void retry() throws InterruptedException {
+        final MapWriter writer = new MapWriter();
+        writer.failures.set(2);
+        final WriteBehindQueue queue = new WriteBehindQueue("test", writer, 100, 5, TimeUnit.MILLISECONDS, 1000);
+        queue.start();
+        queue.write("a", 1);
+        queue.write("b", 1);
+        while (writer.failures.get() > 0) {
+            Thread.sleep(1);
+        }
+        queue.write("a", 2);
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        queue.close();
+        Assert.assertEquals(ImmutableMap.of("a", 2, "b", 1), writer.store);
+    }
+    
+    /**
+     * Tests that callers block while the queue is full.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void backpressure() throws InterruptedException {
+        final MapWriter writer = new MapWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue("test", writer, 100, 1, TimeUnit.MINUTES, 2);
+        queue.write("a", 1);
+        queue.write("b", 1);
+        queue.write("a", 2);
+        final Thread blocked = new Thread() {
+            
+            @Override
+            public void run() {
+                queue.write("c", 1);
+            }
+            
+        };
+        blocked.start();
+        blocked.join(100);
+        Assert.assertTrue(blocked.isAlive());
+        queue.start();
+        queue.close();
+        blocked.join(1000);
+        Assert.assertFalse(blocked.isAlive());
+    }
+
+    private static Thread.State stateOf(String prefix) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                return thread.getState();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Tests that an idle writer thread blocks instead of spinning if there is no write delay.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void noDelay() throws InterruptedException {
+        final MapWriter writer = new MapWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue("nodelay", writer, 100, 0, TimeUnit.SECONDS, 1000);
+        queue.start();
+        queue.write("a", 1);
+        final long deadline = System.currentTimeMillis() + 1000;
+        while ((writer.store.size() < 1 || stateOf("nodelay-write-behind") != Thread.State.WAITING) &&
+            System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(Thread.State.WAITING, stateOf("nodelay-write-behind"));
+        queue.write("b", 2);
+        queue.close();
+        Assert.assertEquals(ImmutableMap.of("a", 1, "b", 2), writer.store);
+    }
+
+}